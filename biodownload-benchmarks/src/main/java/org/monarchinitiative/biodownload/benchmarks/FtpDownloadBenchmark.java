@@ -0,0 +1,77 @@
+package org.monarchinitiative.biodownload.benchmarks;
+
+import org.monarchinitiative.biodownload.BioDownloader;
+import org.monarchinitiative.biodownload.FileDownloadException;
+import org.monarchinitiative.biodownload.ftp.NIOftp;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the FTP downloads from a {@link LoopbackFtpServer}, through {@link NIOftp} and through
+ * the <code>FtpTransport</code> of the {@link BioDownloader}, which reuses the control connections, for each buffer
+ * size.
+ * <p>
+ * {@link NIOftp} is not exported by the library module; the benchmarks run on the class path, where it is accessible.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FtpDownloadBenchmark {
+
+    /** size of the downloaded file in MB */
+    @Param({"1", "64", "2048"})
+    public int sizeMb;
+
+    /** size of the copy buffer in bytes */
+    @Param({"8192", "131072", "1048576"})
+    public int bufferSize;
+
+    private LoopbackFtpServer server;
+    private URL url;
+    private Path destination;
+    private File target;
+    private BioDownloader downloader;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new LoopbackFtpServer();
+        url = server.url(SyntheticFiles.path(sizeMb));
+        destination = Files.createTempDirectory("biodownload-benchmark");
+        target = destination.resolve("nioftp.bin").toFile();
+        downloader = BioDownloader.builder(destination)
+                .custom("file.bin", url)
+                .overwrite(true)
+                .progressBar(false)
+                .bufferSize(bufferSize)
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.close();
+        Benchmarks.deleteRecursively(destination);
+    }
+
+    @Benchmark
+    public File nioFtp(Benchmarks.Transferred transferred) throws FileDownloadException {
+        File file = NIOftp.ftp(url, target, bufferSize);
+        transferred.bytes += (long) sizeMb * SyntheticFiles.BLOCK_SIZE;
+        return file;
+    }
+
+    @Benchmark
+    public Object ftpTransport(Benchmarks.Transferred transferred) throws FileDownloadException {
+        Object files = downloader.download();
+        transferred.bytes += (long) sizeMb * SyntheticFiles.BLOCK_SIZE;
+        return files;
+    }
+}
@@ -0,0 +1,73 @@
+package org.monarchinitiative.biodownload.benchmarks;
+
+import org.monarchinitiative.biodownload.BioDownloader;
+import org.monarchinitiative.biodownload.FileDownloadException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the HTTP downloads from a {@link LoopbackHttpServer}, for each transport and buffer size.
+ * <p>
+ * Run with <code>-prof gc</code> to see the allocation rate of the copy loop.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HttpDownloadBenchmark {
+
+    /** size of the downloaded file in MB */
+    @Param({"1", "64", "2048"})
+    public int sizeMb;
+
+    /** size of the copy buffer in bytes */
+    @Param({"8192", "131072", "1048576"})
+    public int bufferSize;
+
+    /** <code>urlconnection</code> or <code>httpclient</code> */
+    @Param({"urlconnection", "httpclient"})
+    public String transport;
+
+    /** number of parallel range requests per file */
+    @Param({"1"})
+    public int segments;
+
+    private LoopbackHttpServer server;
+    private Path destination;
+    private BioDownloader downloader;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new LoopbackHttpServer();
+        destination = Files.createTempDirectory("biodownload-benchmark");
+        downloader = BioDownloader.builder(destination)
+                .custom("file.bin", server.url(SyntheticFiles.path(sizeMb)))
+                .overwrite(true)
+                .progressBar(false)
+                .httpClient(transport.equals("httpclient"))
+                .bufferSize(bufferSize)
+                .segments(segments)
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.close();
+        Benchmarks.deleteRecursively(destination);
+    }
+
+    @Benchmark
+    public List<File> download(Benchmarks.Transferred transferred) throws FileDownloadException {
+        List<File> files = downloader.download();
+        transferred.bytes += (long) sizeMb * SyntheticFiles.BLOCK_SIZE;
+        return files;
+    }
+}
@@ -0,0 +1,139 @@
+package org.monarchinitiative.biodownload.benchmarks;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Stand-in for an FTP server on the loopback interface that serves the {@link SyntheticFiles}. It implements just
+ * enough of RFC 959 for the JDK FTP client: anonymous login, binary type, passive mode, <code>SIZE</code> and
+ * <code>RETR</code>. Other commands are acknowledged without effect.
+ */
+final class LoopbackFtpServer implements AutoCloseable {
+
+    private final ServerSocket control;
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "ftp-stand-in");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    LoopbackFtpServer() throws IOException {
+        control = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        executor.execute(this::accept);
+    }
+
+    URL url(String path) throws MalformedURLException {
+        return new URL("ftp", InetAddress.getLoopbackAddress().getHostAddress(), control.getLocalPort(), path);
+    }
+
+    private void accept() {
+        while (!control.isClosed()) {
+            try {
+                Socket socket = control.accept();
+                executor.execute(() -> session(socket));
+            } catch (IOException e) {
+                // closed
+            }
+        }
+    }
+
+    private void session(Socket socket) {
+        ServerSocket passive = null;
+        String directory = "/";
+        try (socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+             Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII)) {
+            reply(out, "220 biodownload benchmark FTP stand-in");
+            String line;
+            while ((line = in.readLine()) != null) {
+                int space = line.indexOf(' ');
+                String command = (space < 0 ? line : line.substring(0, space)).toUpperCase(Locale.ROOT);
+                String argument = space < 0 ? "" : line.substring(space + 1);
+                switch (command) {
+                    case "USER":
+                        reply(out, "331 Password required");
+                        break;
+                    case "PASS":
+                        reply(out, "230 Logged in");
+                        break;
+                    case "PWD":
+                        reply(out, "257 \"" + directory + "\"");
+                        break;
+                    case "CWD":
+                        directory = argument.startsWith("/") ? argument : directory + argument + "/";
+                        reply(out, "250 Directory changed");
+                        break;
+                    case "EPSV":
+                    case "EPRT":
+                        // the client falls back to PASV
+                        reply(out, "500 Not supported");
+                        break;
+                    case "PASV": {
+                        if (passive != null)
+                            passive.close();
+                        passive = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+                        int port = passive.getLocalPort();
+                        reply(out, String.format("227 Entering Passive Mode (127,0,0,1,%d,%d)", port / 256, port % 256));
+                        break;
+                    }
+                    case "SIZE": {
+                        long size = SyntheticFiles.size(resolve(directory, argument));
+                        reply(out, size < 0 ? "550 No such file" : "213 " + size);
+                        break;
+                    }
+                    case "RETR": {
+                        long size = SyntheticFiles.size(resolve(directory, argument));
+                        if (size < 0 || passive == null) {
+                            reply(out, "550 No such file");
+                            break;
+                        }
+                        reply(out, "150 Opening BINARY mode data connection");
+                        try (Socket data = passive.accept();
+                             OutputStream os = new BufferedOutputStream(data.getOutputStream(), 64 * 1024)) {
+                            SyntheticFiles.write(os, 0, size);
+                        }
+                        passive.close();
+                        passive = null;
+                        reply(out, "226 Transfer complete");
+                        break;
+                    }
+                    case "QUIT":
+                        reply(out, "221 Bye");
+                        return;
+                    default:
+                        // TYPE, MODE, STRU, NOOP, ...
+                        reply(out, "200 OK");
+                }
+            }
+        } catch (IOException e) {
+            // the client closed the connection
+        } finally {
+            if (passive != null) {
+                try {
+                    passive.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static String resolve(String directory, String path) {
+        return path.startsWith("/") ? path : directory + path;
+    }
+
+    private static void reply(Writer out, String reply) throws IOException {
+        out.write(reply);
+        out.write("\r\n");
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        control.close();
+        executor.shutdownNow();
+    }
+}
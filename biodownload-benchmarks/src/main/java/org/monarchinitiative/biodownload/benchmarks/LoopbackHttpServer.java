@@ -0,0 +1,74 @@
+package org.monarchinitiative.biodownload.benchmarks;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * HTTP server on the loopback interface that serves the {@link SyntheticFiles}, with support for
+ * the <code>Range</code> requests of the segmented downloads.
+ */
+final class LoopbackHttpServer implements AutoCloseable {
+
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    LoopbackHttpServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    URL url(String path) throws MalformedURLException {
+        return new URL("http", InetAddress.getLoopbackAddress().getHostAddress(), server.getAddress().getPort(), path);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        long size = SyntheticFiles.size(exchange.getRequestURI().getPath());
+        if (size < 0) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        long start = 0;
+        long end = size;
+        int status = 200;
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        exchange.getResponseHeaders().set("ETag", "\"" + size + "\"");
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null) {
+            Matcher matcher = RANGE.matcher(range);
+            if (matcher.matches()) {
+                start = Long.parseLong(matcher.group(1));
+                if (!matcher.group(2).isEmpty())
+                    end = Math.min(end, Long.parseLong(matcher.group(2)) + 1);
+                status = 206;
+                exchange.getResponseHeaders().set("Content-Range", String.format("bytes %d-%d/%d", start, end - 1, size));
+            }
+        }
+        exchange.sendResponseHeaders(status, end - start);
+        try (OutputStream os = exchange.getResponseBody()) {
+            SyntheticFiles.write(os, start, end);
+        }
+        exchange.close();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
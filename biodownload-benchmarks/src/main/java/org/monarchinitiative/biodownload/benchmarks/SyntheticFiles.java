@@ -0,0 +1,51 @@
+package org.monarchinitiative.biodownload.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Synthetic files served by the local servers. A file of <code>n</code> MB is a random block of 1 MB repeated
+ * <code>n</code> times, so that files of several GB do not need to be held in memory.
+ */
+final class SyntheticFiles {
+
+    static final int BLOCK_SIZE = 1024 * 1024;
+
+    private static final byte[] BLOCK = new byte[BLOCK_SIZE];
+
+    static {
+        // random bytes, so that a compressed transfer does not make the transfer artificially fast
+        new Random(42).nextBytes(BLOCK);
+    }
+
+    private SyntheticFiles() {
+    }
+
+    /** @return path of the file of <code>sizeMb</code> megabytes */
+    static String path(int sizeMb) {
+        return "/file-" + sizeMb + "mb.bin";
+    }
+
+    /** @return size in bytes of the file with the path, or -1 if the path does not name a synthetic file */
+    static long size(String path) {
+        if (!path.startsWith("/file-") || !path.endsWith("mb.bin"))
+            return -1;
+        try {
+            return Long.parseLong(path.substring("/file-".length(), path.length() - "mb.bin".length())) * BLOCK_SIZE;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** Write the bytes <code>[start, end)</code> of a synthetic file. */
+    static void write(OutputStream os, long start, long end) throws IOException {
+        long pos = start;
+        while (pos < end) {
+            int offset = (int) (pos % BLOCK_SIZE);
+            int length = (int) Math.min(BLOCK_SIZE - offset, end - pos);
+            os.write(BLOCK, offset, length);
+            pos += length;
+        }
+    }
+}
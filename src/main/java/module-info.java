@@ -1,5 +1,6 @@
 module org.monarchinitiative.biodownload {
     exports org.monarchinitiative.biodownload;
 
+    requires java.net.http;
     requires org.slf4j;
 }
\ No newline at end of file
@@ -0,0 +1,58 @@
+package org.monarchinitiative.biodownload;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Result of {@link BioDownloader#downloadAsync()}: a future for each resource, and an aggregate future that completes
+ * when all resources are done.
+ * <p>
+ * The future of a resource completes with the downloaded file, or with an empty {@link Optional} if the file was
+ * not downloaded because it was already present. If the download fails, the future completes exceptionally with
+ * a {@link FileDownloadException}.
+ */
+public class AsyncDownload {
+
+    private final Map<String, CompletableFuture<Optional<File>>> resources;
+    private final CompletableFuture<List<File>> all;
+
+    AsyncDownload(Map<String, CompletableFuture<Optional<File>>> resources) {
+        this.resources = Collections.unmodifiableMap(new LinkedHashMap<>(resources));
+        this.all = CompletableFuture.allOf(resources.values().toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> {
+                    List<File> files = new LinkedList<>();
+                    for (CompletableFuture<Optional<File>> future : this.resources.values())
+                        future.join().ifPresent(files::add);
+                    return files;
+                });
+    }
+
+    /**
+     * @return map with the name of the resource (the name of the file) as the key and the future of its download
+     * as the value, in the order in which the resources were added to the builder
+     */
+    public Map<String, CompletableFuture<Optional<File>>> resources() {
+        return resources;
+    }
+
+    /**
+     * @param name name of the resource (the name of the file)
+     * @return future of the download of the resource
+     * @throws NoSuchElementException if there is no resource with the name
+     */
+    public CompletableFuture<Optional<File>> resource(String name) {
+        CompletableFuture<Optional<File>> future = resources.get(name);
+        if (future == null)
+            throw new NoSuchElementException("No resource named " + name);
+        return future;
+    }
+
+    /**
+     * @return future that completes with the list of downloaded files once all resources are done, in the same way as
+     * {@link BioDownloader#download()}, or completes exceptionally if any of the downloads fails
+     */
+    public CompletableFuture<List<File>> all() {
+        return all;
+    }
+}
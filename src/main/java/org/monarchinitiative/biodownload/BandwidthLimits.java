@@ -0,0 +1,66 @@
+package org.monarchinitiative.biodownload;
+
+import java.io.InterruptedIOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bandwidth limits shared by all downloads of a {@link BioDownloader}: a global limit and limits for single hosts.
+ * A transfer is slowed down to satisfy both the global limit and the limit of its host.
+ */
+class BandwidthLimits {
+
+    private RateLimiter global = null;
+    private final Map<String, Long> hostLimits = new ConcurrentHashMap<>();
+    private final Map<String, RateLimiter> hosts = new ConcurrentHashMap<>();
+
+    void setGlobalLimit(long bytesPerSecond) {
+        global = new RateLimiter(bytesPerSecond);
+    }
+
+    void setHostLimit(String host, long bytesPerSecond) {
+        hostLimits.put(host.toLowerCase(Locale.ROOT), bytesPerSecond);
+        hosts.remove(host.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * @return limits with the same settings, whose transfers are metered separately from the transfers of this instance
+     */
+    BandwidthLimits copy() {
+        BandwidthLimits copy = new BandwidthLimits();
+        copy.global = global == null ? null : new RateLimiter(global.bytesPerSecond());
+        copy.hostLimits.putAll(hostLimits);
+        return copy;
+    }
+
+    /**
+     * @return throttle of the transfers from <code>host</code>, or {@link Throttle#NONE} if there are no limits
+     */
+    Throttle forHost(String host) {
+        RateLimiter global = this.global;
+        Long hostLimit = hostLimits.get(host.toLowerCase(Locale.ROOT));
+        RateLimiter perHost = hostLimit == null
+                ? null
+                : hosts.computeIfAbsent(host.toLowerCase(Locale.ROOT), h -> new RateLimiter(hostLimit));
+        if (global == null && perHost == null)
+            return Throttle.NONE;
+        return bytes -> {
+            long wait = global == null ? 0 : global.reserve(bytes);
+            if (perHost != null)
+                wait = Math.max(wait, perHost.reserve(bytes));
+            if (wait > 0)
+                sleep(wait);
+        };
+    }
+
+    private static void sleep(long nanos) throws InterruptedIOException {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the bandwidth limit");
+        }
+    }
+}
@@ -1,8 +1,13 @@
 package org.monarchinitiative.biodownload;
 
 import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
 
 /**
  * Interface used to consume the possible different implementation of the <code>biodownload</code> library.
@@ -23,4 +28,69 @@ public interface BioDownloader {
      */
     List<File> download() throws FileDownloadException;
 
+    /**
+     * Start downloading the file(s) without waiting for the downloads to finish. The downloads run on virtual
+     * threads when running on Java 21 or newer, and on a pool of daemon threads otherwise.
+     * @return futures of the downloads
+     */
+    AsyncDownload downloadAsync();
+
+    /**
+     * Start downloading the file(s) on the given executor without waiting for the downloads to finish. Each resource
+     * is downloaded by a separate task, at most <code>maxConnectionsPerHost</code> tasks download from a single host
+     * at the same time. The tasks of a host wait for one another, the host of a resource with mirrors being the host
+     * of the chosen mirror.
+     * @param executor executor that runs the downloads
+     * @return futures of the downloads
+     */
+    AsyncDownload downloadAsync(Executor executor);
+
+    /**
+     * Describe what {@link #download()} would involve, without transferring any file: the final URL, the size and
+     * the modification time of the remote files, whether the servers accept range requests, whether the local copies
+     * are current, and whether the files to download fit in the download directory. The remote files are described
+     * by <code>HEAD</code> requests sent for all resources at the same time.
+     * @return the plan of the download
+     * @throws FileDownloadException if the planning was interrupted
+     */
+    DownloadPlan plan() throws FileDownloadException;
+
+    /**
+     * Open the content of a resource as it arrives from the network, so that it can be parsed without waiting for
+     * the download to finish. The content is decompressed like by {@link #download()}, and its size and checksum are
+     * checked when the end of the stream is reached, which throws an {@link java.io.IOException} if they do not match.
+     * The stream is only written to the download directory if the builder was set up with <code>teeStreams(true)</code>,
+     * the file then appears when the end of the stream is reached.
+     * @param name name of the resource
+     * @return the content of the resource, which must be closed by the caller
+     * @throws FileDownloadException if the resource could not be opened
+     * @throws java.util.NoSuchElementException if there is no resource with the name
+     */
+    InputStream openStream(String name) throws FileDownloadException;
+
+    /**
+     * Open the content of a resource as a channel, see {@link #openStream(String)}.
+     * @param name name of the resource
+     * @return the content of the resource, which must be closed by the caller
+     * @throws FileDownloadException if the resource could not be opened
+     * @throws java.util.NoSuchElementException if there is no resource with the name
+     */
+    ReadableByteChannel openChannel(String name) throws FileDownloadException;
+
+    /**
+     * Pass the content of a resource to the <code>consumer</code> in chunks as it arrives from the network, see
+     * {@link #openStream(String)}. The chunks are read-only views of a reused buffer, which are only valid during
+     * the call of the consumer.
+     * @param name name of the resource
+     * @param consumer consumer of the chunks of the content
+     * @throws FileDownloadException if the resource could not be read to the end
+     * @throws java.util.NoSuchElementException if there is no resource with the name
+     */
+    void stream(String name, Consumer<ByteBuffer> consumer) throws FileDownloadException;
+
+    /**
+     * @return the pool of the transfer buffers shared by the downloads, e.g. to export its hit and miss counters
+     */
+    BufferPool bufferPool();
+
 }
@@ -6,6 +6,7 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.net.URL;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.*;
 
 /**
@@ -21,6 +22,21 @@ public class BioDownloaderBuilder {
     private final List<DownloadableResource> resources;
     private final Path destination;
     private boolean overwrite = false;
+    private boolean updateIfModified = false;
+    private boolean httpClient = false;
+    private boolean progressBar = true;
+    private boolean invalidBandwidth = false;
+    private final List<String> invalidProxies = new ArrayList<>();
+    private boolean preflight = false;
+    private boolean teeStreams = false;
+    private boolean prewarmConnections = false;
+    private Duration redirectTtl = null;
+    private boolean persistRedirects = false;
+    private int parallelism = 1;
+    private int maxConnectionsPerHost = 2;
+    private long maxBufferMemory = BufferPool.DEFAULT_BUDGET;
+    private final Map<String, List<URL>> mirrors = new HashMap<>();
+    private final FileDownloader.Options options = new FileDownloader.Options();
 
 
     private BioDownloaderBuilder(Path destination) {
@@ -43,6 +59,298 @@ public class BioDownloaderBuilder {
         return this;
     }
 
+    /**
+     * Set the <code>updateIfModified</code> flag.
+     * <p>
+     * The <code>ETag</code> and <code>Last-Modified</code> values of the downloaded files are stored
+     * in a <code>.biodownload.properties</code> file in the destination directory. A file that is already present is
+     * downloaded again only if the server reports that the remote file has changed since. Has no effect
+     * if {@link #overwrite(boolean)} is set to True.
+     *
+     * @param updateIfModified By default, set to False.
+     * @return a builder instance
+     */
+    public BioDownloaderBuilder updateIfModified(boolean updateIfModified) {
+        this.updateIfModified = updateIfModified;
+        return this;
+    }
+
+    /**
+     * Set the maximum number of resources that are downloaded at the same time.
+     *
+     * @param parallelism By default, set to 1 and the resources are downloaded one after another.
+     * @return a builder instance
+     */
+    public BioDownloaderBuilder parallelism(int parallelism) {
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Set the maximum number of resources that are downloaded from a single host at the same time, by
+     * {@link BioDownloader#download()} if {@link #parallelism(int)} is greater than 1, and by
+     * {@link BioDownloader#downloadAsync()}. The limit applies to the host that serves a transfer, which for
+     * a resource with mirrors is the chosen mirror rather than the host of the primary URL.
+     *
+     * @param maxConnectionsPerHost By default, set to 2.
+     * @return a builder instance
+     */
+    public BioDownloaderBuilder maxConnectionsPerHost(int maxConnectionsPerHost) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        return this;
+    }
+
+    /**
+     * Set the number of parallel connections used to download a single file over HTTP(S).
+     * <p>
+     * The file is split into byte ranges that are fetched at the same time if the server supports range requests
+     * and the file is large enough. Otherwise, the file is downloaded over a single connection.
+     *
+     * @param segments By default, set to 1 and the segmented download is disabled.
+     * @return a builder instance
+     */
+    public BioDownloaderBuilder segments(int segments) {
+        options.segments = segments;
+        return this;
+    }
+
+    /**
+     * Set the <code>memoryMappedWrites</code> flag.
+     * <p>
+     * If True, the segments of a segmented download are copied into a memory mapping of the file. Otherwise, they are
+     * written with positional writes. Either way, each segment writes straight into its region of the file.
+     * <p>
+     * On Windows, the flag is ignored and the segments are written with positional writes: a mapped file cannot be
+     * renamed until the garbage collector releases the mapping, so the complete download could not be moved from its
+     * <code>.part</code> file to the destination.
+     *
+     * @param memoryMappedWrites By default, set to False.
+     * @return a builder instance
+     */
+    public BioDownloaderBuilder memoryMappedWrites(boolean memoryMappedWrites) {
+        options.memoryMappedWrites = memoryMappedWrites;
+        return this;
+    }
+
+    /**
+     * Set the <code>httpClient</code> flag.
+     * <p>
+     * If True, the HTTP(S) downloads use a {@link java.net.http.HttpClient} that is shared by all downloads
+     * of the {@link BioDownloader}. The client keeps the connections to the hosts alive, reuses their TLS sessions and
+     * multiplexes the requests over HTTP/2 where the server supports it. Otherwise, each request opens
+     * a new {@link java.net.HttpURLConnection}.
+     *
+     * @param httpClient By default, set to False.
+     * @return a builder instance
+     */
+    public BioDownloaderBuilder httpClient(boolean httpClient) {
+        this.httpClient = httpClient;
+        return this;
+    }
+
+    /**
+     * Set the <code>compressedTransfer</code> flag.
+     * <p>
+     * If True, the HTTP(S) downloads ask the server for a <code>gzip</code> or <code>deflate</code> compressed
+     * transfer, which is decompressed while the file is downloaded. The stored file is the same as without
+     * the compression, but text files, such as the ontologies, travel over the network several times faster.
+     *
+     * @param compressedTransfer By default, set to True.
+     * @return a builder instance
+     */
+    public BioDownloaderBuilder compressedTransfer(boolean compressedTransfer) {
+        options.compressedTransfer = compressedTransfer;
+        return this;
+    }
+
+    /**
+     * Set the <code>decompressGzip</code> flag.
+     * <p>
+     * If True, the resources with the <code>.gz</code> suffix, such as the GENCODE GTF files, are decompressed
+     * while they are downloaded and stored without the suffix. The declared checksums still refer
+     * to the <code>.gz</code> file. The decompressed downloads cannot be resumed after an interruption.
+     *
+     * @param decompressGzip By default, set to False.
+     * @return a builder instance
+     */
+    public BioDownloaderBuilder decompressGzip(boolean decompressGzip) {
+        options.decompressGzip = decompressGzip;
+        return this;
+    }
+
+    /**
+     * Set the size of the buffer used to copy the data from the network to the files.
+     *
+     * @param bufferSize buffer size in bytes, by default 128 KB.
+     * @return a builder instance
+     */
+    public BioDownloaderBuilder bufferSize(int bufferSize) {
+        options.bufferSize = bufferSize;
+        return this;
+    }
+
+    /**
+     * Write the downloaded files on a separate thread, so that a slow destination (e.g. an NFS mount) does not stall
+     * the network transfers. The reading thread queues the data and goes on reading, the writer thread drains the queue
+     * to the file.
+     *
+     * @param queueDepth By default, set to 0, which writes on the reading thread. Otherwise, the number of buffers
+     *                   queued for the writer thread before the reading thread waits.
+     * @param fsync      when the writer thread forces the written bytes to the storage device
+     * @return a builder instance
+     */
+    public BioDownloaderBuilder writeBehind(int queueDepth, FsyncPolicy fsync) {
+        options.writeBehind = queueDepth;
+        options.fsync = Objects.requireNonNull(fsync, "Fsync policy must not be null");
+        return this;
+    }
+
+    /**
+     * Set the memory budget of the transfer buffers, which are shared and reused by all downloads. A transfer waits
+     * for a buffer while the budget is taken, so the budget also limits the number of transfers in flight, including
+     * the segments of the segmented downloads.
+     *
+     * @param maxBufferMemory By default, set to 32 MB. Must be at least the buffer size.
+     * @return a builder instance
+     */
+    public BioDownloaderBuilder maxBufferMemory(long maxBufferMemory) {
+        this.maxBufferMemory = maxBufferMemory;
+        return this;
+    }
+
+    /**
+     * Declare the expected checksum of a resource. The checksum is computed while the file is downloaded and
+     * the download fails if it does not match.
+     *
+     * @param name      name of the resource (the name of the downloaded file)
+     * @param algorithm digest algorithm
+     * @param digest    expected digest as a hexadecimal string
+     * @return a builder instance
+     */
+    public BioDownloaderBuilder checksum(String name, ChecksumAlgorithm algorithm, String digest) {
+        options.checksums.declare(Objects.requireNonNull(name, "Name must not be null"), algorithm, digest);
+        return this;
+    }
+
+    /**
+     * Verify the resources with the checksums published in an upstream checksum file, such as the <code>MD5SUMS</code>
+     * file of a GENCODE release or an NCBI <code>.md5</code> file. Both the <code>md5sum</code> format
+     * (<code>digest  file</code>) and the BSD format (<code>MD5(file)= digest</code>) are supported. The entries
+     * are matched by the file name of the resource URL, or by the name of the resource.
+     *
+     * @param algorithm    digest algorithm used in the checksum file
+     * @param checksumFile URL of the checksum file
+     * @return a builder instance
+     */
+    public BioDownloaderBuilder checksums(ChecksumAlgorithm algorithm, URL checksumFile) {
+        options.checksums.addChecksumFile(Objects.requireNonNull(algorithm, "Algorithm must not be null"),
+                Objects.requireNonNull(checksumFile, "Url must not be null"));
+        return this;
+    }
+
+    /**
+     * Set the number of attempts to download a file.
+     * <p>
+     * A download that fails for a transient reason, such as a timeout, a reset connection or an HTTP 503 response,
+     * is attempted again after an exponentially growing delay with a random jitter, or after the delay requested
+     * by the server with <code>Retry-After</code>. The next attempt resumes from the bytes that were already
+     * downloaded, if the server allows it.
+     *
+     * @param maxAttempts By default, set to 3. 1 disables the retries.
+     * @return a builder instance
+     */
+    public BioDownloaderBuilder maxAttempts(int maxAttempts) {
+        options.retryPolicy.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    /**
+     * Set the delays between the attempts to download a file, see {@link #maxAttempts(int)}.
+     *
+     * @param initialBackoff delay before the first retry, doubled for each further retry. By default, set to 1 second.
+     * @param maxBackoff     upper limit of the delay. A download is not retried if the server asks to wait longer.
+     *                       By default, set to 1 minute.
+     * @return a builder instance
+     */
+    public BioDownloaderBuilder retryBackoff(Duration initialBackoff, Duration maxBackoff) {
+        options.retryPolicy.initialBackoff = Objects.requireNonNull(initialBackoff, "Initial backoff must not be null");
+        options.retryPolicy.maxBackoff = Objects.requireNonNull(maxBackoff, "Max backoff must not be null");
+        return this;
+    }
+
+    /**
+     * Configure the circuit breakers of the hosts. After <code>failureThreshold</code> consecutive transient failures,
+     * the downloads from a host fail right away for <code>openDuration</code>, while the downloads from the other
+     * hosts go on.
+     *
+     * @param failureThreshold By default, set to 5.
+     * @param openDuration     By default, set to 1 minute.
+     * @return a builder instance
+     */
+    public BioDownloaderBuilder circuitBreaker(int failureThreshold, Duration openDuration) {
+        options.circuitBreakers.failureThreshold = failureThreshold;
+        options.circuitBreakers.openDuration = Objects.requireNonNull(openDuration, "Open duration must not be null");
+        return this;
+    }
+
+    /**
+     * Limit the total bandwidth of the downloads. The limit holds for all downloads that run at the same time,
+     * see {@link #parallelism(int)}.
+     *
+     * @param bytesPerSecond maximum transfer rate in bytes per second. By default, the bandwidth is not limited.
+     * @return a builder instance
+     */
+    public BioDownloaderBuilder maxBandwidth(long bytesPerSecond) {
+        if (bytesPerSecond < 1)
+            invalidBandwidth = true;
+        else
+            options.bandwidth.setGlobalLimit(bytesPerSecond);
+        return this;
+    }
+
+    /**
+     * Limit the bandwidth of the downloads from a single host, in addition to the limit set
+     * by {@link #maxBandwidth(long)}.
+     *
+     * @param host           name of the host, e.g. <code>ftp.ebi.ac.uk</code>
+     * @param bytesPerSecond maximum transfer rate in bytes per second. By default, the bandwidth is not limited.
+     * @return a builder instance
+     */
+    public BioDownloaderBuilder maxBandwidth(String host, long bytesPerSecond) {
+        Objects.requireNonNull(host, "Host must not be null");
+        if (bytesPerSecond < 1)
+            invalidBandwidth = true;
+        else
+            options.bandwidth.setHostLimit(host, bytesPerSecond);
+        return this;
+    }
+
+    /**
+     * Set the <code>progressBar</code> flag.
+     * <p>
+     * If True, the progress of the downloads is printed to <code>System.err</code>. The downloads that run at the same
+     * time share a single line with the total progress, the transfer rate and the estimated remaining time.
+     *
+     * @param progressBar By default, set to True.
+     * @return a builder instance
+     */
+    public BioDownloaderBuilder progressBar(boolean progressBar) {
+        this.progressBar = progressBar;
+        return this;
+    }
+
+    /**
+     * Register a listener of the download events, e.g. to collect the throughput and the time to first byte
+     * of the downloads. Several listeners can be registered.
+     *
+     * @param listener listener of the download events
+     * @return a builder instance
+     */
+    public BioDownloaderBuilder listener(DownloadListener listener) {
+        options.listeners.add(Objects.requireNonNull(listener, "Listener must not be null"));
+        return this;
+    }
+
     /**
      * Download Go JSON
      *
@@ -184,6 +492,102 @@ public class BioDownloaderBuilder {
         return this;
     }
 
+    /**
+     * Check that the files fit in the download directory before downloading them, see {@link BioDownloader#plan()}.
+     * A batch of large files then fails right away on a full disk, rather than after most of the files are downloaded.
+     *
+     * @param preflight By default, set to False. If True, the remote files are described with <code>HEAD</code>
+     *                  requests and the download fails if they do not fit in the download directory.
+     * @return a builder instance
+     */
+    public BioDownloaderBuilder preflight(boolean preflight) {
+        this.preflight = preflight;
+        return this;
+    }
+
+    /**
+     * Send the requests of a protocol through an HTTP proxy. The proxy only applies to the connections of this
+     * downloader, so that downloaders with different proxies can run in the same JVM. The protocols without a proxy
+     * use the proxy settings of the JVM.
+     *
+     * @param protocol <code>http</code>, <code>https</code> or <code>ftp</code>
+     * @param host     By default, no proxy is set. Host of the proxy.
+     * @param port     Port of the proxy, -1 for 443 with <code>https</code> and 80 with the other protocols.
+     * @return a builder instance
+     */
+    public BioDownloaderBuilder proxy(String protocol, String host, int port) {
+        return proxy(protocol, host, port, null, null);
+    }
+
+    /**
+     * Send the requests of a protocol through an HTTP proxy that requires authentication, see
+     * {@link #proxy(String, String, int)}. The credentials answer the authentication challenges of the proxy for
+     * the HTTP(S) requests.
+     *
+     * @param protocol <code>http</code>, <code>https</code> or <code>ftp</code>
+     * @param host     By default, no proxy is set. Host of the proxy.
+     * @param port     Port of the proxy, -1 for 443 with <code>https</code> and 80 with the other protocols.
+     * @param user     user name at the proxy
+     * @param password password at the proxy
+     * @return a builder instance
+     */
+    public BioDownloaderBuilder proxy(String protocol, String host, int port, String user, String password) {
+        Objects.requireNonNull(protocol, "Protocol must not be null");
+        Objects.requireNonNull(host, "Host must not be null");
+        Proxies.ProxyOptions proxy = options.proxies.forProtocol(protocol);
+        if (proxy == null || port < -1 || port > 65535) {
+            invalidProxies.add(protocol + "://" + host + ":" + port);
+            return this;
+        }
+        proxy.host = host;
+        proxy.port = port;
+        proxy.user = user;
+        proxy.password = password;
+        return this;
+    }
+
+    /**
+     * Remember the final URL of the resources that are redirected, such as the <code>purl.obolibrary.org</code> URLs
+     * or the <code>?raw=true</code> links of GitHub, and send the next requests to the final URL directly. The sources
+     * that were only redirected permanently (301, 308) are kept until their final URL fails, the others for
+     * <code>ttl</code>. If a final URL fails, the redirects are followed again.
+     *
+     * @param ttl        By default, the redirects are not cached. Time to live of the temporary redirects.
+     * @param persistent If True, the final URLs are stored in a <code>.biodownload-redirects.properties</code> file
+     *                   in the destination directory and reused by the later runs.
+     * @return a builder instance
+     */
+    public BioDownloaderBuilder cacheRedirects(Duration ttl, boolean persistent) {
+        this.redirectTtl = Objects.requireNonNull(ttl, "Time to live must not be null");
+        this.persistRedirects = persistent;
+        return this;
+    }
+
+    /**
+     * Resolve and connect to the hosts of the resources in {@link #build()}, concurrently, so that the downloads
+     * do not start with the DNS lookup and the TCP and TLS handshakes. This pays off for batches of small files.
+     * The connections are kept open for the downloads by the {@link #httpClient(boolean)} transport, the other
+     * transport only reuses the TLS sessions.
+     *
+     * @param prewarmConnections By default, set to False. If True, {@link #build()} sends a <code>HEAD</code> request
+     *                           to each host and waits until they answer, for at most the connection timeout.
+     * @return a builder instance
+     */
+    public BioDownloaderBuilder prewarmConnections(boolean prewarmConnections) {
+        this.prewarmConnections = prewarmConnections;
+        return this;
+    }
+
+    /**
+     * @param teeStreams By default, set to False. If True, the resources read with {@link BioDownloader#openStream(String)}
+     *                   and its variants are also written to the download directory.
+     * @return a builder instance
+     */
+    public BioDownloaderBuilder teeStreams(boolean teeStreams) {
+        this.teeStreams = teeStreams;
+        return this;
+    }
+
     /**
      * Download file from given URL and save it with the default name, as derived from URL
      *
@@ -206,6 +610,53 @@ public class BioDownloaderBuilder {
         return this;
     }
 
+    /**
+     * Download file from the fastest of the given URLs and save it with the given name. If the download fails or
+     * becomes slow, it continues from the next URL.
+     *
+     * @param name    Name of file to be downloaded to
+     * @param url     URL of source file
+     * @param mirrors URLs of mirrors serving the same file
+     * @return a builder instance
+     */
+    public BioDownloaderBuilder custom(String name, URL url, URL... mirrors) {
+        List<URL> urls = new ArrayList<>();
+        urls.add(url);
+        urls.addAll(Arrays.asList(mirrors));
+        resources.add(new DownloadableResource(name, urls));
+        return this;
+    }
+
+    /**
+     * Add a mirror to a resource, e.g. an internal mirror of one of the available resources.
+     *
+     * @param name   name of the resource, e.g. <code>hp.json</code>
+     * @param mirror URL of a mirror serving the same file
+     * @return a builder instance
+     */
+    public BioDownloaderBuilder mirror(String name, URL mirror) {
+        mirrors.computeIfAbsent(name, n -> new ArrayList<>()).add(mirror);
+        return this;
+    }
+
+    /**
+     * Update an existing copy of a resource from a zsync control file (<code>.zsync</code>): the blocks of the existing
+     * file that are still present in the new version are reused, and only the changed blocks are downloaded with range
+     * requests. The file is downloaded in full if the control file is not available, if the server does not accept
+     * range requests, or if the result does not match the SHA-1 of the control file.
+     * <p>
+     * The existing file is only updated if it is downloaded again, see {@link #overwrite(boolean)} and
+     * {@link #updateIfModified(boolean)}.
+     *
+     * @param name  name of the resource, e.g. <code>mondo.owl</code>
+     * @param index URL of the zsync control file, published next to the file or hosted locally
+     * @return a builder instance
+     */
+    public BioDownloaderBuilder zsync(String name, URL index) {
+        options.zsyncIndexes.put(name, Objects.requireNonNull(index, "Url must not be null"));
+        return this;
+    }
+
     /**
      * Build Downloader
      *
@@ -213,7 +664,33 @@ public class BioDownloaderBuilder {
      */
     public BioDownloader build() {
         validate();
-        return new BioDownloaderImpl(resources, destination, overwrite);
+        // the downloader gets its own options, the next calls to the builder must not change it
+        FileDownloader.Options options = this.options.copy();
+        // with overwrite, the conditional requests would leave the files that did not change in place
+        options.manifest = updateIfModified && !overwrite
+                ? new DownloadManifest(destination.resolve(DownloadManifest.FILE_NAME))
+                : null;
+        options.transport = httpClient
+                ? new HttpClientTransport(FileDownloader.CONNECTION_TIMEOUT, options.proxies)
+                : null;
+        options.progressBar = progressBar
+                ? new ProgressBar()
+                : null;
+        options.buffers = new BufferPool(maxBufferMemory);
+        options.hostPermits = new HostPermits(maxConnectionsPerHost);
+        options.redirects = redirectTtl == null
+                ? null
+                : new RedirectCache(redirectTtl, persistRedirects ? destination.resolve(RedirectCache.FILE_NAME) : null);
+        List<DownloadableResource> mirrored = new ArrayList<>(resources.size());
+        for (DownloadableResource resource : resources) {
+            for (URL mirror : mirrors.getOrDefault(resource.getName(), List.of()))
+                resource = resource.withMirror(mirror);
+            mirrored.add(resource);
+        }
+        if (prewarmConnections)
+            new ConnectionWarmer(new FileDownloader(options).transport(), FileDownloader.CONNECTION_TIMEOUT).warm(mirrored);
+        return new BioDownloaderImpl(mirrored, destination, overwrite, parallelism, maxConnectionsPerHost, options, preflight,
+                teeStreams);
     }
 
     /**
@@ -226,6 +703,43 @@ public class BioDownloaderBuilder {
         if (resources.size() == 0) {
             errors.add("A name and a URL need to be included. Please pick one of the available options or add your custom name and URL.");
         }
+        if (parallelism < 1) {
+            errors.add("Parallelism must be at least 1.");
+        }
+        if (maxConnectionsPerHost < 1) {
+            errors.add("Maximum number of connections per host must be at least 1.");
+        }
+        if (options.segments < 1) {
+            errors.add("Number of segments must be at least 1.");
+        }
+        if (options.bufferSize < 1024) {
+            errors.add("Buffer size must be at least 1024 bytes.");
+        }
+        if (options.retryPolicy.maxAttempts < 1) {
+            errors.add("Number of attempts must be at least 1.");
+        }
+        if (options.retryPolicy.initialBackoff.isNegative()
+                || options.retryPolicy.maxBackoff.compareTo(options.retryPolicy.initialBackoff) < 0) {
+            errors.add("Backoff must not be negative and the maximal backoff must not be shorter than the initial one.");
+        }
+        if (options.circuitBreakers.failureThreshold < 1) {
+            errors.add("Circuit breaker failure threshold must be at least 1.");
+        }
+        if (options.writeBehind < 0) {
+            errors.add("Write-behind queue depth must not be negative.");
+        }
+        if (redirectTtl != null && redirectTtl.isNegative()) {
+            errors.add("Redirect cache time to live must not be negative.");
+        }
+        if (maxBufferMemory < options.bufferSize) {
+            errors.add("Buffer memory must be at least the buffer size.");
+        }
+        if (invalidBandwidth) {
+            errors.add("Bandwidth limit must be at least 1 byte per second.");
+        }
+        for (String invalidProxy : invalidProxies) {
+            errors.add(String.format("Invalid proxy: %s", invalidProxy));
+        }
         File destinationDirectoryFile = destination.toFile();
         if (! destinationDirectoryFile.exists()) {
             logger.info("Creating new download directory at {}", destinationDirectoryFile.getAbsoluteFile());
@@ -242,6 +756,18 @@ public class BioDownloaderBuilder {
         }
 
         errors.addAll(checkNoDuplicatedResources(resources));
+        for (String name : options.checksums.declaredNames()) {
+            if (resources.stream().noneMatch(resource -> resource.getName().equals(name)))
+                errors.add(String.format("Checksum declared for unknown resource: %s", name));
+        }
+        for (String name : options.zsyncIndexes.keySet()) {
+            if (resources.stream().noneMatch(resource -> resource.getName().equals(name)))
+                errors.add(String.format("zsync control file declared for unknown resource: %s", name));
+        }
+        for (String name : mirrors.keySet()) {
+            if (resources.stream().noneMatch(resource -> resource.getName().equals(name)))
+                errors.add(String.format("Mirror declared for unknown resource: %s", name));
+        }
 
         if (!errors.isEmpty()) {
             String error = String.join("\n", errors);
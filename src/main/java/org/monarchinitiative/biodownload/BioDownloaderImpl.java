@@ -4,12 +4,19 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * BioDownload implementation used to download from {@link DownloadableResource}.
@@ -24,29 +31,77 @@ class BioDownloaderImpl implements BioDownloader {
     private final Path downloadDirectory;
     /** If true, download new version even if the file is already present. */
     private final boolean overwrite;
+    /** Maximum number of resources downloaded at the same time. */
+    private final int parallelism;
+    /** Maximum number of resources downloaded from a single host at the same time. */
+    private final int maxConnectionsPerHost;
+    /** Configuration of the {@link FileDownloader}s. */
+    private final FileDownloader.Options options;
+    /** If true, check that the files fit in the download directory before downloading them. */
+    private final boolean preflight;
+    /** If true, the streamed resources are also written to the download directory. */
+    private final boolean teeStreams;
 
     /**
      * Constructor
      * @param resources List of resources
      * @param destinationDir destination directory {@link Path}
      * @param overwrite overwrite flag
+     * @param parallelism maximum number of concurrent downloads
+     * @param maxConnectionsPerHost maximum number of concurrent downloads from a single host
+     * @param options configuration of the file downloads
+     * @param preflight check that the files fit in the download directory before downloading them
+     * @param teeStreams write the streamed resources to the download directory
      */
-    BioDownloaderImpl(List<DownloadableResource> resources, Path destinationDir, boolean overwrite) {
+    BioDownloaderImpl(List<DownloadableResource> resources, Path destinationDir, boolean overwrite,
+                      int parallelism, int maxConnectionsPerHost, FileDownloader.Options options, boolean preflight,
+                      boolean teeStreams) {
         this.resources = resources;
         this.downloadDirectory = destinationDir;
         this.overwrite = overwrite;
+        this.parallelism = parallelism;
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.options = options;
+        this.preflight = preflight;
+        this.teeStreams = teeStreams;
     }
 
     /**
      * Download the files unless they are already present.
+     * <p>
+     * A failed download does not stop the other downloads. Once all resources are done, the failure is rethrown,
+     * or if several downloads failed, a {@link FileDownloadException} listing them is thrown, with the individual
+     * failures as suppressed exceptions.
+     * <p>
+     * The FTP control connections kept open between the downloads are closed once all resources are done.
      */
     @Override
     public List<File> download() throws FileDownloadException {
+        try {
+            return downloadAll();
+        } finally {
+            options.ftpTransport.closeIdleConnections();
+        }
+    }
+
+    private List<File> downloadAll() throws FileDownloadException {
+        if (preflight)
+            checkDiskSpace(planAll());
+        if (parallelism > 1 && resources.size() > 1)
+            return downloadConcurrently();
+
         List<File> downloadedFiles = new LinkedList<>();
+        Map<String, FileDownloadException> failures = new LinkedHashMap<>();
         int numberOfFiles = 0;
 
         for (DownloadableResource resource : resources) {
-            Optional<File> optionalFile = downloadFileIfNeeded(downloadDirectory.resolve(resource.getName()), resource.getUrl());
+            Optional<File> optionalFile;
+            try {
+                optionalFile = downloadFileIfNeeded(destination(resource), resource.getUrls());
+            } catch (FileDownloadException e) {
+                failures.put(resource.getName(), e);
+                continue;
+            }
             if (optionalFile.isPresent()){
                 File file = optionalFile.get();
                 downloadedFiles.add(file);
@@ -55,22 +110,291 @@ class BioDownloaderImpl implements BioDownloader {
                 numberOfFiles++;
             }
         }
+        throwFailures(failures);
         return downloadedFiles;
     }
 
-    private Optional<File> downloadFileIfNeeded(Path destination, URL url) throws FileDownloadException {
+    /**
+     * Download the resources using up to {@link #parallelism} worker threads, while keeping at most
+     * {@link #maxConnectionsPerHost} downloads running against a single host.
+     * <p>
+     * A resource is only dispatched when both a worker and a slot for its host are free, so that resources from
+     * a busy host do not hold workers that could serve other hosts. The slots are counted by the host of the primary
+     * URL, which is only known to serve the transfer for a resource without mirrors: the transfers also take
+     * a permit of the host of the chosen mirror from the {@link FileDownloader.Options#hostPermits}, which enforce
+     * the limit. The files are returned in the order of the resources, like in the sequential mode, and the failures
+     * are reported in the same way.
+     */
+    private List<File> downloadConcurrently() throws FileDownloadException {
+        int nThreads = Math.min(parallelism, resources.size());
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads, new DownloadThreadFactory());
+        CompletionService<Integer> completionService = new ExecutorCompletionService<>(executor);
+
+        List<Optional<File>> results = new ArrayList<>(Collections.nCopies(resources.size(), Optional.empty()));
+        FileDownloadException[] failures = new FileDownloadException[resources.size()];
+        Deque<Integer> pending = new ArrayDeque<>();
+        for (int i = 0; i < resources.size(); i++)
+            pending.add(i);
+        Map<String, Integer> activePerHost = new HashMap<>();
+        int running = 0;
+
+        try {
+            while (running > 0 || !pending.isEmpty()) {
+                // dispatch whatever the worker and host limits allow
+                Iterator<Integer> iterator = pending.iterator();
+                while (running < nThreads && iterator.hasNext()) {
+                    int index = iterator.next();
+                    DownloadableResource resource = resources.get(index);
+                    String host = resource.getUrl().getHost();
+                    int active = activePerHost.getOrDefault(host, 0);
+                    if (active >= maxConnectionsPerHost)
+                        continue;
+                    iterator.remove();
+                    activePerHost.put(host, active + 1);
+                    running++;
+                    completionService.submit(() -> {
+                        try {
+                            results.set(index, downloadFileIfNeeded(destination(resource), resource.getUrls()));
+                        } catch (FileDownloadException e) {
+                            failures[index] = e;
+                        }
+                        return index;
+                    });
+                }
+
+                // wait for a download to finish
+                int index = completionService.take().get();
+                running--;
+                activePerHost.merge(resources.get(index).getUrl().getHost(), -1, Integer::sum);
+                if (failures[index] == null)
+                    results.get(index).ifPresent(file ->
+                            logger.info("Downloaded \"{}\" file to \"{}\"", file.getName(), downloadDirectory));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FileDownloadException("Interrupted while downloading files", e);
+        } catch (ExecutionException e) {
+            // the tasks catch the download errors, anything else is a bug
+            throw new FileDownloadException("Unexpected error while downloading files", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Map<String, FileDownloadException> failed = new LinkedHashMap<>();
+        for (int i = 0; i < resources.size(); i++) {
+            if (failures[i] != null)
+                failed.put(resources.get(i).getName(), failures[i]);
+        }
+        throwFailures(failed);
+
+        List<File> downloadedFiles = new LinkedList<>();
+        for (Optional<File> result : results)
+            result.ifPresent(downloadedFiles::add);
+        return downloadedFiles;
+    }
+
+    /**
+     * @param failures failures of the downloads by the name of the resource
+     * @throws FileDownloadException the failure if there is one, or a failure that lists several failures
+     */
+    private void throwFailures(Map<String, FileDownloadException> failures) throws FileDownloadException {
+        if (failures.isEmpty())
+            return;
+        if (failures.size() == 1)
+            throw failures.values().iterator().next();
+        FileDownloadException e = new FileDownloadException(String.format("ERROR: %d of %d downloads failed: %s",
+                failures.size(), resources.size(), String.join(", ", failures.keySet())));
+        failures.values().forEach(e::addSuppressed);
+        throw e;
+    }
+
+    @Override
+    public AsyncDownload downloadAsync() {
+        ExecutorService executor = newAsyncExecutor();
+        AsyncDownload download = downloadAsync(executor);
+        download.all().whenComplete((files, e) -> executor.shutdown());
+        return download;
+    }
+
+    @Override
+    public AsyncDownload downloadAsync(Executor executor) {
+        Map<String, CompletableFuture<Optional<File>>> futures = new LinkedHashMap<>();
+        if (preflight) {
+            try {
+                checkDiskSpace(planAll());
+            } catch (FileDownloadException e) {
+                options.ftpTransport.closeIdleConnections();
+                for (DownloadableResource resource : resources)
+                    futures.put(resource.getName(), CompletableFuture.failedFuture(e));
+                return new AsyncDownload(futures);
+            }
+        }
+        for (DownloadableResource resource : resources) {
+            // the transfers wait for the permits of their hosts, see FileDownloader.Options#hostPermits
+            futures.put(resource.getName(), CompletableFuture.supplyAsync(() -> {
+                try {
+                    return downloadFileIfNeeded(destination(resource), resource.getUrls());
+                } catch (FileDownloadException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor));
+        }
+        AsyncDownload download = new AsyncDownload(futures);
+        download.all().whenComplete((files, e) -> options.ftpTransport.closeIdleConnections());
+        return download;
+    }
+
+    @Override
+    public DownloadPlan plan() throws FileDownloadException {
+        try {
+            return planAll();
+        } finally {
+            options.ftpTransport.closeIdleConnections();
+        }
+    }
+
+    /**
+     * Plan the downloads like {@link #plan()}, keeping the FTP control connections open for the downloads.
+     */
+    private DownloadPlan planAll() throws FileDownloadException {
+        DownloadPlanner planner = new DownloadPlanner(options, overwrite);
+        ExecutorService executor = newAsyncExecutor();
+        try {
+            List<CompletableFuture<DownloadPlan.Entry>> entries = new ArrayList<>();
+            for (DownloadableResource resource : resources)
+                entries.add(CompletableFuture.supplyAsync(() -> planner.plan(resource, destination(resource)), executor));
+            List<DownloadPlan.Entry> plan = new ArrayList<>();
+            for (CompletableFuture<DownloadPlan.Entry> entry : entries)
+                plan.add(entry.get());
+            return new DownloadPlan(plan, Files.getFileStore(downloadDirectory).getUsableSpace());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FileDownloadException("Interrupted while planning the downloads", e);
+        } catch (ExecutionException e) {
+            // the planner catches the request errors, anything else is a bug
+            throw new FileDownloadException("Unexpected error while planning the downloads", e.getCause());
+        } catch (IOException e) {
+            throw new FileDownloadException("ERROR: Could not determine the free space in " + downloadDirectory, e);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Override
+    public InputStream openStream(String name) throws FileDownloadException {
+        DownloadableResource resource = resource(name);
+        return new FileDownloader(options).openStream(resource.getUrls(), destination(resource).toFile(), teeStreams);
+    }
+
+    @Override
+    public ReadableByteChannel openChannel(String name) throws FileDownloadException {
+        return Channels.newChannel(openStream(name));
+    }
+
+    @Override
+    public void stream(String name, Consumer<ByteBuffer> consumer) throws FileDownloadException {
+        ByteBuffer buffer = null;
+        try (ReadableByteChannel channel = openChannel(name)) {
+            buffer = options.buffers.acquire(options.bufferSize);
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                consumer.accept(buffer.asReadOnlyBuffer());
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            throw new FileDownloadException("ERROR: Problem streaming " + name + ": " + e.getMessage(), e);
+        } finally {
+            if (buffer != null)
+                options.buffers.release(buffer);
+        }
+    }
+
+    @Override
+    public BufferPool bufferPool() {
+        return options.buffers;
+    }
+
+    /**
+     * @throws NoSuchElementException if there is no resource with the name
+     */
+    private DownloadableResource resource(String name) {
+        for (DownloadableResource resource : resources) {
+            if (resource.getName().equals(name))
+                return resource;
+        }
+        throw new NoSuchElementException("No resource named " + name);
+    }
+
+    /**
+     * @throws FileDownloadException if the files to download do not fit in the download directory
+     */
+    private void checkDiskSpace(DownloadPlan plan) throws FileDownloadException {
+        logger.info("{} of {} resources to download, {} MB, {} MB free in \"{}\"", plan.toDownload().size(),
+                resources.size(), plan.bytesToDownload() / (1024 * 1024), plan.usableSpace() / (1024 * 1024), downloadDirectory);
+        if (!plan.fitsOnDisk())
+            throw new FileDownloadException(String.format("ERROR: Downloads need %d bytes but only %d bytes are free in %s",
+                    plan.bytesToDownload(), plan.usableSpace(), downloadDirectory));
+    }
+
+    /**
+     * @return an executor that runs each task on a new virtual thread when running on Java 21 or newer, or a pool
+     * of daemon threads on older versions
+     */
+    private static ExecutorService newAsyncExecutor() {
+        try {
+            // the library targets Java 11, so we look up the virtual threads reflectively
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(new DownloadThreadFactory());
+        }
+    }
+
+    /**
+     * @return path of the downloaded resource, without the <code>.gz</code> suffix if the resource is decompressed
+     * while downloading
+     */
+    private Path destination(DownloadableResource resource) {
+        String name = resource.getName();
+        if (new FileDownloader(options).isGzipToDecompress(resource.getUrl()) && name.endsWith(".gz"))
+            name = name.substring(0, name.length() - 3);
+        return downloadDirectory.resolve(name);
+    }
+
+    private Optional<File> downloadFileIfNeeded(Path destination, List<URL> urls) throws FileDownloadException {
         File f = destination.toFile();
         if (Files.isRegularFile(destination) && (!overwrite)) {
-            logger.info("Cowardly refusing to download \"{}\" since we found it at \"{}\"", f.getName(), f.getAbsolutePath());
-            return Optional.empty();
+            if (options.manifest == null) {
+                logger.info("Cowardly refusing to download \"{}\" since we found it at \"{}\"", f.getName(), f.getAbsolutePath());
+                return Optional.empty();
+            }
+            logger.info("Checking if \"{}\" found at \"{}\" has changed", f.getName(), f.getAbsolutePath());
         }
-        FileDownloader downloader = new FileDownloader();
+        FileDownloader downloader = new FileDownloader(options);
         try {
-            return Optional.ofNullable(downloader.copyURLToFile(url, f));
+            return Optional.ofNullable(downloader.copyURLToFile(urls, f));
         } catch (FileDownloadException e) {
-            logger.error("Error downloading \"{}\" from \"{}\": {}" , f.getName(), url.toString(), e.getMessage());
+            logger.error("Error downloading \"{}\" from \"{}\": {}" , f.getName(), urls.get(0).toString(), e.getMessage());
             throw e;
         }
     }
 
+    /**
+     * Creates named daemon threads, so that an abandoned download does not keep the JVM alive.
+     */
+    private static class DownloadThreadFactory implements ThreadFactory {
+
+        private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+
+        private final int poolNumber = POOL_COUNTER.incrementAndGet();
+        private final AtomicInteger threadCounter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "biodownload-" + poolNumber + "-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
 }
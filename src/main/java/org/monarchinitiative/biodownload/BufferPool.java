@@ -0,0 +1,140 @@
+package org.monarchinitiative.biodownload;
+
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Transfer buffers shared by the downloads of a {@link BioDownloader}, within a memory budget.
+ * <p>
+ * A transfer takes a buffer when it starts and returns it when it ends. If the buffers in use would exceed the budget,
+ * the transfer waits until another transfer returns its buffer, so the budget also limits the number of transfers
+ * in flight. The returned buffers are kept for the next transfers. They count towards the budget, and are dropped
+ * when a buffer of another size does not fit.
+ * <p>
+ * The buffers are heap buffers, since the data arrives from <code>InputStream</code>s which read into an array.
+ */
+public final class BufferPool {
+
+    /** By default, the buffers take at most 32 MB. */
+    static final long DEFAULT_BUDGET = 32 * 1024 * 1024;
+
+    private final long budget;
+    private final Map<Integer, Deque<ByteBuffer>> free = new HashMap<>();
+    /** bytes of the buffers in use and of the free buffers */
+    private long allocated = 0;
+    private long inUse = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param budget maximum number of bytes of the buffers
+     */
+    BufferPool(long budget) {
+        if (budget < 1)
+            throw new IllegalArgumentException("Budget must be at least 1 byte");
+        this.budget = budget;
+    }
+
+    /**
+     * Take a buffer, waiting while the buffers in use would exceed the budget. A buffer larger than the budget is
+     * handed out once no other buffer is in use.
+     *
+     * @param size capacity of the buffer
+     * @return a cleared buffer of <code>size</code> bytes, which must be returned with {@link #release(ByteBuffer)}
+     * @throws InterruptedIOException if the thread is interrupted while waiting
+     */
+    synchronized ByteBuffer acquire(int size) throws InterruptedIOException {
+        while (inUse > 0 && inUse + size > budget) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a transfer buffer");
+            }
+        }
+        return take(size);
+    }
+
+    /**
+     * Take a buffer if the buffers in use leave room for it, without waiting.
+     *
+     * @param size capacity of the buffer
+     * @return a cleared buffer of <code>size</code> bytes, which must be returned with {@link #release(ByteBuffer)},
+     * or <code>null</code> if the budget is taken
+     */
+    synchronized ByteBuffer tryAcquire(int size) {
+        if (inUse > 0 && inUse + size > budget)
+            return null;
+        return take(size);
+    }
+
+    private ByteBuffer take(int size) {
+        inUse += size;
+        Deque<ByteBuffer> buffers = free.get(size);
+        ByteBuffer buffer = buffers == null ? null : buffers.poll();
+        if (buffer != null) {
+            hits++;
+            return buffer;
+        }
+        misses++;
+        // make room by dropping the free buffers of other sizes
+        Iterator<Deque<ByteBuffer>> sizes = free.values().iterator();
+        while (allocated + size > budget && sizes.hasNext()) {
+            Deque<ByteBuffer> dropped = sizes.next();
+            while (allocated + size > budget && !dropped.isEmpty())
+                allocated -= dropped.pop().capacity();
+        }
+        allocated += size;
+        return ByteBuffer.allocate(size);
+    }
+
+    /**
+     * Return a buffer taken with {@link #acquire(int)} or {@link #tryAcquire(int)}.
+     */
+    synchronized void release(ByteBuffer buffer) {
+        inUse -= buffer.capacity();
+        free.computeIfAbsent(buffer.capacity(), size -> new ArrayDeque<>()).push(buffer.clear());
+        notifyAll();
+    }
+
+    /** @return maximum number of bytes of the buffers */
+    public long budget() {
+        return budget;
+    }
+
+    /** @return number of bytes of the buffers in use */
+    public synchronized long inUse() {
+        return inUse;
+    }
+
+    /** @return number of bytes of the buffers in use and of the free buffers kept for reuse */
+    public synchronized long allocated() {
+        return allocated;
+    }
+
+    /** @return number of buffers that were reused */
+    public synchronized long hits() {
+        return hits;
+    }
+
+    /** @return number of buffers that had to be allocated */
+    public synchronized long misses() {
+        return misses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BufferPool{" +
+                "budget=" + budget +
+                ", allocated=" + allocated +
+                ", inUse=" + inUse +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                '}';
+    }
+}
@@ -0,0 +1,33 @@
+package org.monarchinitiative.biodownload;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Digest algorithms that can be used to verify the downloaded files.
+ */
+public enum ChecksumAlgorithm {
+    MD5("MD5"),
+    SHA1("SHA-1"),
+    SHA256("SHA-256");
+
+    private final String algorithmName;
+
+    ChecksumAlgorithm(String algorithmName) {
+        this.algorithmName = algorithmName;
+    }
+
+    MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(algorithmName);
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support these algorithms
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return algorithmName;
+    }
+}
@@ -0,0 +1,178 @@
+package org.monarchinitiative.biodownload;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Expected checksums of the downloaded files.
+ * <p>
+ * The checksums are either declared for a resource directly, or looked up in upstream checksum files, such as
+ * the <code>MD5SUMS</code> file of a GENCODE release or the <code>.md5</code> files on the NCBI FTP server.
+ * The checksum files are fetched once, when the first download asks for a checksum.
+ */
+class Checksums {
+
+    private static final Logger logger = LoggerFactory.getLogger(Checksums.class);
+
+    /** <code>md5sum</code>/<code>sha256sum</code> style: <code>digest  file</code> or <code>digest *file</code> */
+    private static final Pattern SUM_LINE = Pattern.compile("^([0-9a-fA-F]+)\\s+\\*?(\\S.*)$");
+    /** BSD/OpenSSL style: <code>MD5(file)= digest</code> */
+    private static final Pattern TAGGED_LINE = Pattern.compile("^[\\w-]+\\s*\\((.+)\\)\\s*=\\s*([0-9a-fA-F]+)$");
+
+    /** Checksums declared for a resource name. */
+    private final Map<String, Checksum> declared = new HashMap<>();
+    /** Upstream checksum files, fetched on first use. */
+    private final Map<URL, ChecksumAlgorithm> checksumFiles = new LinkedHashMap<>();
+    /** Checksums found in the checksum files, by file name. */
+    private Map<String, Checksum> fromFiles = null;
+
+    void declare(String name, ChecksumAlgorithm algorithm, String digest) {
+        declared.put(name, new Checksum(algorithm, digest));
+    }
+
+    void addChecksumFile(ChecksumAlgorithm algorithm, URL checksumFile) {
+        checksumFiles.put(checksumFile, algorithm);
+    }
+
+    /**
+     * @return checksums with the same declarations and checksum files, which are fetched again on first use
+     */
+    Checksums copy() {
+        Checksums copy = new Checksums();
+        copy.declared.putAll(declared);
+        copy.checksumFiles.putAll(checksumFiles);
+        return copy;
+    }
+
+    Set<String> declaredNames() {
+        return declared.keySet();
+    }
+
+    /**
+     * @param src  source of the file
+     * @param name name of the resource (the local file name)
+     * @param transport transport used to fetch the checksum files
+     * @return expected checksum of the file or <code>null</code> if none is known
+     */
+    synchronized Checksum expected(URL src, String name, HttpTransport transport) throws IOException {
+        Checksum checksum = declared.get(name);
+        if (checksum != null || checksumFiles.isEmpty())
+            return checksum;
+
+        if (fromFiles == null)
+            fromFiles = fetchChecksumFiles(transport);
+        checksum = fromFiles.get(fileName(src.getPath()));
+        return checksum != null ? checksum : fromFiles.get(name);
+    }
+
+    private Map<String, Checksum> fetchChecksumFiles(HttpTransport transport) throws IOException {
+        Map<String, Checksum> checksums = new HashMap<>();
+        for (Map.Entry<URL, ChecksumAlgorithm> entry : checksumFiles.entrySet()) {
+            logger.info("Fetching checksums from {}", entry.getKey());
+            try (HttpTransport.Response response = transport.get(entry.getKey(), Map.of());
+                 InputStream is = response.body()) {
+                checksums.putAll(parse(entry.getValue(), is));
+            }
+        }
+        return checksums;
+    }
+
+    /**
+     * Parse a checksum file in the <code>md5sum</code> or in the BSD (<code>MD5(file)= digest</code>) format.
+     *
+     * @return map with the file names as keys, the paths in the checksum file are stripped
+     */
+    static Map<String, Checksum> parse(ChecksumAlgorithm algorithm, InputStream is) throws IOException {
+        Map<String, Checksum> checksums = new HashMap<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            Matcher sum = SUM_LINE.matcher(line);
+            if (sum.matches()) {
+                checksums.put(fileName(sum.group(2)), new Checksum(algorithm, sum.group(1)));
+                continue;
+            }
+            Matcher tagged = TAGGED_LINE.matcher(line);
+            if (tagged.matches())
+                checksums.put(fileName(tagged.group(1)), new Checksum(algorithm, tagged.group(2)));
+        }
+        return checksums;
+    }
+
+    private static String fileName(String path) {
+        Path fileName = Path.of(path.trim()).getFileName();
+        return fileName == null ? path : fileName.toString();
+    }
+
+    /**
+     * Expected digest of a file.
+     */
+    static class Checksum {
+        private final ChecksumAlgorithm algorithm;
+        private final String digest;
+
+        Checksum(ChecksumAlgorithm algorithm, String digest) {
+            this.algorithm = Objects.requireNonNull(algorithm, "Algorithm must not be null");
+            this.digest = Objects.requireNonNull(digest, "Digest must not be null").toLowerCase(Locale.ROOT);
+        }
+
+        MessageDigest newDigest() {
+            return algorithm.newDigest();
+        }
+
+        /**
+         * @param computed digest of the downloaded bytes
+         * @param name     name of the file, for the error message
+         * @throws IOException if the digest does not match the expected one
+         */
+        void verify(MessageDigest computed, String name) throws IOException {
+            String actual = toHex(computed.digest());
+            if (!actual.equals(digest))
+                throw new IOException(String.format("%s checksum mismatch for %s: expected %s but got %s",
+                        algorithm, name, digest, actual));
+            logger.debug("{} checksum of {} is {}", algorithm, name, actual);
+        }
+
+        /**
+         * @return <code>true</code> if the digest of the whole file matches the expected one
+         */
+        boolean matches(File file) throws IOException {
+            MessageDigest computed = newDigest();
+            update(computed, file, file.length());
+            return toHex(computed.digest()).equals(digest);
+        }
+
+        /**
+         * Update the digest with the first <code>length</code> bytes of a file, e.g. the part of a file that had been
+         * downloaded before the download was resumed.
+         */
+        static void update(MessageDigest digest, File file, long length) throws IOException {
+            byte[] buffer = new byte[64 * 1024];
+            try (InputStream is = new FileInputStream(file)) {
+                long remaining = length;
+                int readCount;
+                while (remaining > 0 && (readCount = is.read(buffer, 0, (int) Math.min(buffer.length, remaining))) > 0) {
+                    digest.update(buffer, 0, readCount);
+                    remaining -= readCount;
+                }
+            }
+        }
+
+        static String toHex(byte[] bytes) {
+            StringBuilder sb = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes)
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            return sb.toString();
+        }
+    }
+}
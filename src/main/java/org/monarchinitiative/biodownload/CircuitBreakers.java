@@ -0,0 +1,137 @@
+package org.monarchinitiative.biodownload;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A circuit breaker for each host, so that the downloads from a host that keeps failing fail fast instead of waiting
+ * for their timeouts and retries.
+ * <p>
+ * After {@link #failureThreshold} consecutive transient failures, the circuit of the host opens and the downloads
+ * from the host fail right away for {@link #openDuration}. Then, a single download is let through: the circuit closes
+ * if it succeeds, and opens again if it fails transiently. Any other outcome of the trial, e.g. a missing file, says
+ * nothing about the host, and the next download is let through as a new trial.
+ */
+class CircuitBreakers {
+
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreakers.class);
+
+    /** Number of consecutive failures that open the circuit of a host. */
+    int failureThreshold = 5;
+    /** Time for which an open circuit rejects the downloads. */
+    Duration openDuration = Duration.ofMinutes(1);
+
+    private final Map<String, Circuit> circuits = new ConcurrentHashMap<>();
+
+    /**
+     * @return circuit breakers with the same settings, whose circuits are all closed
+     */
+    CircuitBreakers copy() {
+        CircuitBreakers copy = new CircuitBreakers();
+        copy.failureThreshold = failureThreshold;
+        copy.openDuration = openDuration;
+        return copy;
+    }
+
+    /**
+     * @return <code>true</code> if the download is the trial of a half-open circuit, which must be ended with
+     * {@link #success(String)}, {@link #failure(String)} or {@link #endTrial(String)}
+     * @throws FileDownloadException if the circuit of the host is open
+     */
+    boolean check(String host, String resource) throws FileDownloadException {
+        Circuit circuit = circuits.get(key(host));
+        if (circuit == null)
+            return false;
+        int allowed = circuit.allow(openDuration.toNanos());
+        if (allowed == Circuit.REJECTED)
+            throw new FileDownloadException(String.format("ERROR: Skipping download of %s, %s failed %d times in a row",
+                    resource, host, failureThreshold));
+        return allowed == Circuit.TRIAL;
+    }
+
+    /**
+     * End the trial of a half-open circuit without a result, the circuit stays half-open.
+     */
+    void endTrial(String host) {
+        Circuit circuit = circuits.get(key(host));
+        if (circuit != null)
+            circuit.endTrial();
+    }
+
+    void success(String host) {
+        Circuit circuit = circuits.get(key(host));
+        if (circuit != null)
+            circuit.success();
+    }
+
+    void failure(String host) {
+        Circuit circuit = circuits.computeIfAbsent(key(host), h -> new Circuit());
+        if (circuit.failure(failureThreshold))
+            logger.warn("{} failed {} times in a row, the downloads from it are suspended for {} s",
+                    host, failureThreshold, openDuration.toSeconds());
+    }
+
+    /** @return <code>true</code> if the circuit of the host is open */
+    boolean isOpen(String host) {
+        Circuit circuit = circuits.get(key(host));
+        return circuit != null && circuit.isOpen(openDuration.toNanos());
+    }
+
+    private static String key(String host) {
+        return host.toLowerCase(Locale.ROOT);
+    }
+
+    private static class Circuit {
+        private static final int ALLOWED = 0;
+        private static final int TRIAL = 1;
+        private static final int REJECTED = 2;
+
+        private int failures = 0;
+        /** time when the circuit opened, or -1 if closed */
+        private long openedAt = -1;
+        /** a trial download is running while the circuit is half-open */
+        private boolean trial = false;
+
+        /** @return {@link #ALLOWED}, {@link #TRIAL} or {@link #REJECTED} */
+        synchronized int allow(long openNanos) {
+            if (openedAt < 0)
+                return ALLOWED;
+            if (System.nanoTime() - openedAt < openNanos || trial)
+                return REJECTED;
+            // half-open: let a single download through
+            trial = true;
+            return TRIAL;
+        }
+
+        synchronized void endTrial() {
+            trial = false;
+        }
+
+        synchronized boolean isOpen(long openNanos) {
+            return openedAt >= 0 && (trial || System.nanoTime() - openedAt < openNanos);
+        }
+
+        synchronized void success() {
+            failures = 0;
+            openedAt = -1;
+            trial = false;
+        }
+
+        /** @return <code>true</code> if the circuit has just opened */
+        synchronized boolean failure(int threshold) {
+            failures++;
+            if (trial || (openedAt < 0 && failures >= threshold)) {
+                boolean opened = openedAt < 0;
+                openedAt = System.nanoTime();
+                trial = false;
+                return opened;
+            }
+            return false;
+        }
+    }
+}
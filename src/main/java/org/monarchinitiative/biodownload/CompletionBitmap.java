@@ -0,0 +1,142 @@
+package org.monarchinitiative.biodownload;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Records which blocks of a file written out of order are complete, so that a partially filled file can be resumed
+ * by downloading the missing blocks only.
+ * <p>
+ * The bitmap is saved next to the part file. The blocks must be made durable (see {@link DestinationWriter#force()})
+ * before the bitmap that marks them complete is saved.
+ */
+class CompletionBitmap {
+
+    private static final Logger logger = LoggerFactory.getLogger(CompletionBitmap.class);
+
+    /** Size of the blocks, 1 MB, also the smallest segment of a {@link SegmentedDownloader}. */
+    static final int BLOCK_SIZE = (int) SegmentedDownloader.MIN_SEGMENT_SIZE;
+
+    private static final int MAGIC = 0x42444c42;
+
+    private final long size;
+    private final int blockSize;
+    private final BitSet complete;
+    /** where the bitmap is saved, or <code>null</code> if the download cannot be resumed */
+    private final Path file;
+
+    CompletionBitmap(long size, int blockSize, Path file) {
+        this(size, blockSize, new BitSet(), file);
+    }
+
+    private CompletionBitmap(long size, int blockSize, BitSet complete, Path file) {
+        this.size = size;
+        this.blockSize = blockSize;
+        this.complete = complete;
+        this.file = file;
+    }
+
+    /**
+     * @return the bitmap saved in <code>file</code> for a file of <code>size</code> bytes, or <code>null</code> if
+     * there is none
+     */
+    static CompletionBitmap load(Path file, long size) {
+        if (!Files.isRegularFile(file))
+            return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readLong() != size)
+                return null;
+            int blockSize = in.readInt();
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new CompletionBitmap(size, blockSize, BitSet.valueOf(bytes), file);
+        } catch (IOException e) {
+            logger.warn("Could not read {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    int blockCount() {
+        return (int) ((size + blockSize - 1) / blockSize);
+    }
+
+    /** @return offset of the first byte of the block */
+    long start(int block) {
+        return (long) block * blockSize;
+    }
+
+    /** @return offset of the last byte of the block */
+    long end(int block) {
+        return Math.min(start(block) + blockSize, size) - 1;
+    }
+
+    /** @return index of the block that contains the byte at <code>position</code> */
+    int block(long position) {
+        return (int) (position / blockSize);
+    }
+
+    synchronized void complete(int block) {
+        complete.set(block);
+    }
+
+    synchronized boolean isComplete() {
+        return complete.nextClearBit(0) >= blockCount();
+    }
+
+    synchronized long completedBytes() {
+        long bytes = 0;
+        for (int block = complete.nextSetBit(0); block >= 0 && block < blockCount(); block = complete.nextSetBit(block + 1))
+            bytes += end(block) - start(block) + 1;
+        return bytes;
+    }
+
+    /**
+     * @return the runs of missing blocks, as pairs of the first and the last block index
+     */
+    synchronized List<int[]> missingRuns() {
+        List<int[]> runs = new ArrayList<>();
+        int count = blockCount();
+        for (int first = complete.nextClearBit(0); first < count; ) {
+            int next = complete.nextSetBit(first);
+            if (next < 0 || next > count)
+                next = count;
+            runs.add(new int[]{first, next - 1});
+            first = complete.nextClearBit(next);
+        }
+        return runs;
+    }
+
+    /**
+     * Save the bitmap, replacing the previous version atomically. Does nothing if the bitmap has no file.
+     */
+    void save() throws IOException {
+        if (file == null)
+            return;
+        byte[] bytes;
+        synchronized (this) {
+            bytes = complete.toByteArray();
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeLong(size);
+            out.writeInt(blockSize);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
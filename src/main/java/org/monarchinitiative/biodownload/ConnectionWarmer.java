@@ -0,0 +1,122 @@
+package org.monarchinitiative.biodownload;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Resolves and connects to the hosts of the resources ahead of the downloads, so that the first byte of each download
+ * does not wait for the DNS lookup, the TCP handshake and the TLS handshake in series.
+ * <p>
+ * One <code>HEAD</code> request is sent to each distinct origin (scheme, host and port), concurrently, following the
+ * redirects. This fills the DNS cache of the JVM and the TLS session cache of the default <code>SSLContext</code>,
+ * which both transports use, so that the later handshakes resume the sessions. The {@link HttpClientTransport} also
+ * keeps the connections open for the downloads, while {@link java.net.HttpURLConnection} only keeps idle connections
+ * for a few seconds. The warm-up is best effort: failures are logged and left to the downloads.
+ */
+class ConnectionWarmer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionWarmer.class);
+
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    private final HttpTransport transport;
+    private final long timeoutMillis;
+
+    /**
+     * @param transport     transport of the downloads, whose connections are warmed
+     * @param timeoutMillis maximum time to wait for the hosts
+     */
+    ConnectionWarmer(HttpTransport transport, long timeoutMillis) {
+        this.transport = transport;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Connect to the origins of the HTTP(S) URLs of the resources, including their mirrors, and wait until they answer
+     * or the timeout expires.
+     *
+     * @return number of origins that answered
+     */
+    int warm(Collection<DownloadableResource> resources) {
+        Map<String, URL> origins = origins(resources);
+        if (origins.isEmpty())
+            return 0;
+        CountDownLatch done = new CountDownLatch(origins.size());
+        AtomicInteger warmed = new AtomicInteger();
+        for (URL url : origins.values()) {
+            Thread thread = new Thread(() -> {
+                try {
+                    if (warm(url))
+                        warmed.incrementAndGet();
+                } finally {
+                    done.countDown();
+                }
+            }, "biodownload-warmer-" + THREAD_COUNTER.incrementAndGet());
+            thread.setDaemon(true);
+            thread.start();
+        }
+        try {
+            if (!done.await(timeoutMillis, TimeUnit.MILLISECONDS))
+                logger.debug("Stopped waiting for {} of {} hosts", done.getCount(), origins.size());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logger.info("Connected to {} of {} hosts ahead of the downloads", warmed.get(), origins.size());
+        return warmed.get();
+    }
+
+    /**
+     * @return the first HTTP(S) URL of each origin
+     */
+    static Map<String, URL> origins(Collection<DownloadableResource> resources) {
+        Map<String, URL> origins = new LinkedHashMap<>();
+        for (DownloadableResource resource : resources) {
+            for (URL url : resource.getUrls()) {
+                String protocol = url.getProtocol();
+                if (!protocol.equals("http") && !protocol.equals("https"))
+                    continue;
+                int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+                origins.putIfAbsent(protocol + "://" + url.getHost().toLowerCase(Locale.ROOT) + ":" + port, url);
+            }
+        }
+        return origins;
+    }
+
+    private boolean warm(URL url) {
+        try {
+            try {
+                InetAddress.getAllByName(url.getHost());
+            } catch (UnknownHostException e) {
+                // behind a proxy, the host may only be known to the proxy
+                logger.debug("Could not resolve {}: {}", url.getHost(), e.getMessage());
+            }
+            try (HttpTransport.Response response = transport.head(url, Map.of("Accept-Encoding", ContentEncoding.IDENTITY))) {
+                logger.debug("{} answered HTTP {}", response.url().getHost(), response.statusCode());
+                // consuming the empty body returns a keep-alive connection to the pool instead of closing it
+                if (response.statusCode() < 400) {
+                    try (InputStream body = response.body()) {
+                        body.transferTo(OutputStream.nullOutputStream());
+                    }
+                }
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Could not connect to {} ahead of the download: {}", url.getHost(), e.getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package org.monarchinitiative.biodownload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decoding of the HTTP <code>Content-Encoding</code>s that we advertise in <code>Accept-Encoding</code>.
+ */
+class ContentEncoding {
+
+    /** Value of the <code>Accept-Encoding</code> header for the encodings we can decode. */
+    static final String ACCEPTED = "gzip, deflate";
+    /** Value of the <code>Accept-Encoding</code> header to ask for the unencoded file. */
+    static final String IDENTITY = "identity";
+
+    private ContentEncoding() {
+    }
+
+    /**
+     * @param in              the response body as received
+     * @param contentEncoding value of the <code>Content-Encoding</code> header, may be <code>null</code>
+     * @param bufferSize      size of the buffer used by the decoder
+     * @return stream of the decoded body
+     * @throws IOException if the encoding is not supported
+     */
+    static InputStream decode(InputStream in, String contentEncoding, int bufferSize) throws IOException {
+        if (contentEncoding == null)
+            return in;
+        switch (contentEncoding.trim().toLowerCase(Locale.ROOT)) {
+            case "":
+            case "identity":
+                return in;
+            case "gzip":
+            case "x-gzip":
+                return new GZIPInputStream(in, bufferSize);
+            case "deflate":
+                return new InflaterInputStream(in);
+            default:
+                throw new IOException("Unsupported Content-Encoding: " + contentEncoding);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package org.monarchinitiative.biodownload;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Update an existing file to the new version described by a zsync control file ({@link ZsyncIndex}). The old file is
+ * scanned with the rolling checksum for the blocks of the new version, which are copied from the old file, and only
+ * the other blocks are downloaded with <code>Range</code> requests.
+ * <p>
+ * The caller verifies the SHA-1 of the result, and downloads the whole file if the update is not possible.
+ */
+class DeltaUpdater {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeltaUpdater.class);
+
+    /** The old file is scanned in chunks of 1 MB. */
+    static final int SCAN_BUFFER_SIZE = 1024 * 1024;
+    /** Runs of missing blocks closer than 64 kB are fetched with a single range request, which costs less than another request. */
+    static final long MERGE_GAP = 64 * 1024;
+
+    private final HttpTransport transport;
+    private final int bufferSize;
+    private final BufferPool buffers;
+    private final Throttle throttle;
+
+    DeltaUpdater(HttpTransport transport, int bufferSize, BufferPool buffers, Throttle throttle) {
+        this.transport = transport;
+        this.bufferSize = bufferSize;
+        this.buffers = buffers;
+        this.throttle = throttle;
+    }
+
+    /**
+     * @param control URL of the zsync control file
+     * @throws DeltaUnavailableException if the control file cannot be fetched or read
+     */
+    ZsyncIndex fetchIndex(URL control) throws DeltaUnavailableException {
+        try (HttpTransport.Response response = transport.get(control, Map.of("Accept-Encoding", ContentEncoding.IDENTITY))) {
+            HttpStatusException.check(response);
+            return ZsyncIndex.read(response.body());
+        } catch (IOException e) {
+            throw new DeltaUnavailableException("No usable zsync control file at " + control + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Write the new version of the file, the blocks found in <code>old</code> are copied from it and the others are
+     * downloaded from <code>url</code>.
+     *
+     * @return number of bytes downloaded
+     * @throws DeltaUnavailableException if the server does not serve the ranges of the file described by the index
+     * @throws IOException               on other problems with the update
+     */
+    long update(URL url, ZsyncIndex index, File old, DestinationWriter writer, TransferMonitor monitor) throws IOException {
+        BitSet present = new BitSet(index.blockCount());
+        long reused = copyPresentBlocks(index, old, writer, present);
+        List<long[]> ranges = missingRanges(index, present);
+        logger.info("{} of {} bytes of {} are present in the old file, downloading {} ranges", reused, index.length(),
+                url, ranges.size());
+        monitor.start(0, index.length());
+        monitor.progress(reused);
+
+        long downloaded = 0;
+        ByteBuffer buffer = buffers.acquire(bufferSize);
+        try {
+            for (long[] range : ranges)
+                downloaded += fetch(url, index, range[0], range[1], buffer, writer, reused + downloaded, monitor);
+        } finally {
+            buffers.release(buffer);
+        }
+        return downloaded;
+    }
+
+    /**
+     * @param done number of bytes of the new version written so far
+     * @return number of bytes downloaded
+     */
+    private long fetch(URL url, ZsyncIndex index, long start, long end, ByteBuffer buffer, DestinationWriter writer,
+                       long done, TransferMonitor monitor) throws IOException {
+        // the byte ranges refer to the unencoded file
+        Map<String, String> requestProperties = Map.of(
+                "Accept-Encoding", ContentEncoding.IDENTITY,
+                "Range", "bytes=" + start + "-" + end);
+        try (HttpTransport.Response response = transport.get(url, requestProperties)) {
+            HttpStatusException.check(response);
+            if (response.statusCode() != HttpURLConnection.HTTP_PARTIAL)
+                throw new DeltaUnavailableException("Server did not honor the range request for " + url
+                        + ", got HTTP " + response.statusCode());
+            String contentRange = response.header("Content-Range");
+            if (!("bytes " + start + "-" + end + "/" + index.length()).equals(contentRange))
+                throw new DeltaUnavailableException(url + " does not serve the file described by its zsync control file, got Content-Range "
+                        + contentRange + " for bytes " + start + "-" + end);
+
+            long position = start;
+            try (InputStream in = new MeteredInputStream(response.body(), throttle)) {
+                int readCount;
+                while (position <= end && (readCount = in.read(buffer.array(), 0, (int) Math.min(buffer.capacity(), end + 1 - position))) > 0) {
+                    monitor.firstByte(url);
+                    writer.write(position, buffer.clear().limit(readCount));
+                    position += readCount;
+                    // the merged ranges also fetch some of the present blocks
+                    monitor.progress(Math.min(index.length(), done + position - start));
+                }
+            }
+            if (position != end + 1)
+                throw new IOException(String.format("Range %d-%d of %s ended prematurely at %d", start, end, url, position));
+            return position - start;
+        }
+    }
+
+    /**
+     * Scan <code>old</code> for the blocks of the new version, at any offset, and write them to their position in
+     * the new version.
+     *
+     * @param present set to the blocks that were found
+     * @return number of bytes of the new version written
+     */
+    static long copyPresentBlocks(ZsyncIndex index, File old, DestinationWriter writer, BitSet present) throws IOException {
+        int blockSize = index.blockSize();
+        int mask = index.rsumMask();
+        boolean seq = index.seqMatches() > 1;
+        int capacity = Math.max(SCAN_BUFFER_SIZE, 4 * blockSize);
+        // the window and the window after it, past the end of the file they are padded with zeros like the last block
+        byte[] buf = new byte[capacity + 2 * blockSize];
+        Md4 md4 = new Md4();
+        long reused = 0;
+        try (InputStream in = new FileInputStream(old)) {
+            int start = 0;
+            int end = 0;
+            boolean eof = false;
+            boolean valid = false;
+            int a0 = 0, b0 = 0, a1 = 0, b1 = 0;
+            while (true) {
+                if (!eof && end - start <= 2 * blockSize) {
+                    System.arraycopy(buf, start, buf, 0, end - start);
+                    end -= start;
+                    start = 0;
+                    int readCount = 0;
+                    while (end < capacity && (readCount = in.read(buf, end, capacity - end)) > 0)
+                        end += readCount;
+                    if (readCount < 0) {
+                        eof = true;
+                        Arrays.fill(buf, end, buf.length, (byte) 0);
+                    }
+                }
+                if (start >= end)
+                    break;
+                if (!valid) {
+                    int rsum = ZsyncIndex.rsum(buf, start, blockSize);
+                    a0 = rsum >>> 16;
+                    b0 = rsum & 0xffff;
+                    if (seq) {
+                        rsum = ZsyncIndex.rsum(buf, start + blockSize, blockSize);
+                        a1 = rsum >>> 16;
+                        b1 = rsum & 0xffff;
+                    }
+                    valid = true;
+                }
+
+                int rsum = (a0 << 16 | b0) & mask;
+                int nextRsum = seq ? (a1 << 16 | b1) & mask : 0;
+                boolean matched = false;
+                int block = index.firstCandidate(rsum, nextRsum);
+                if (block >= 0) {
+                    byte[] digest = md4(md4, buf, start, blockSize);
+                    byte[] nextDigest = null;
+                    for (; block >= 0; block = index.nextCandidate(block, rsum, nextRsum)) {
+                        if (!index.checksumMatches(block, digest))
+                            continue;
+                        boolean withNext = seq && block + 1 < index.blockCount();
+                        if (withNext) {
+                            if (nextDigest == null)
+                                nextDigest = md4(md4, buf, start + blockSize, blockSize);
+                            if (!index.checksumMatches(block + 1, nextDigest))
+                                continue;
+                        }
+                        matched = true;
+                        reused += copy(index, block, buf, start, writer, present);
+                        if (withNext)
+                            reused += copy(index, block + 1, buf, start + blockSize, writer, present);
+                    }
+                }
+                if (matched) {
+                    start += blockSize;
+                    valid = false;
+                    continue;
+                }
+
+                // roll the windows by one byte
+                int out = buf[start] & 0xff;
+                int shifted = buf[start + blockSize] & 0xff;
+                a0 = (a0 - out + shifted) & 0xffff;
+                b0 = (b0 - blockSize * out + a0) & 0xffff;
+                if (seq) {
+                    int next = buf[start + 2 * blockSize] & 0xff;
+                    a1 = (a1 - shifted + next) & 0xffff;
+                    b1 = (b1 - blockSize * shifted + a1) & 0xffff;
+                }
+                start++;
+            }
+        }
+        return reused;
+    }
+
+    /**
+     * @return byte ranges of the blocks that are not present, the ranges closer than {@link #MERGE_GAP} are merged
+     */
+    static List<long[]> missingRanges(ZsyncIndex index, BitSet present) {
+        List<long[]> ranges = new ArrayList<>();
+        int first = present.nextClearBit(0);
+        while (first < index.blockCount()) {
+            int next = present.nextSetBit(first);
+            int last = (next < 0 ? index.blockCount() : next) - 1;
+            long start = (long) first * index.blockSize();
+            long end = (long) last * index.blockSize() + index.blockLength(last) - 1;
+            long[] previous = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+            if (previous != null && start - previous[1] - 1 < MERGE_GAP)
+                previous[1] = end;
+            else
+                ranges.add(new long[]{start, end});
+            first = present.nextClearBit(last + 1);
+        }
+        return ranges;
+    }
+
+    /**
+     * @return number of bytes written, 0 if the block was already present
+     */
+    private static long copy(ZsyncIndex index, int block, byte[] buf, int offset, DestinationWriter writer, BitSet present)
+            throws IOException {
+        if (present.get(block))
+            return 0;
+        int length = index.blockLength(block);
+        writer.write((long) block * index.blockSize(), ByteBuffer.wrap(buf, offset, length));
+        present.set(block);
+        return length;
+    }
+
+    private static byte[] md4(Md4 md4, byte[] buf, int offset, int length) {
+        md4.update(buf, offset, length);
+        return md4.digest();
+    }
+
+    /**
+     * Signals that the file cannot be updated from its zsync control file, and should be downloaded in full.
+     */
+    static class DeltaUnavailableException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        DeltaUnavailableException(String msg) {
+            super(msg);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package org.monarchinitiative.biodownload;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+/**
+ * Writes the bytes of a download at their offsets in the destination file, so that the parts of a file can arrive
+ * in any order and from several threads at the same time, e.g. the segments of a {@link SegmentedDownloader}.
+ * The threads must write disjoint regions of the file, they do not block each other.
+ */
+interface DestinationWriter extends Closeable {
+
+    /**
+     * <code>false</code> on Windows, where a mapped file cannot be renamed until the garbage collector releases the
+     * mapped regions, so the part file of a download could not be moved to its destination.
+     */
+    boolean MAPPED_FILES_CAN_BE_RENAMED = !System.getProperty("os.name", "").toLowerCase(Locale.ROOT).startsWith("windows");
+
+    /**
+     * Write all remaining bytes of <code>src</code> at <code>position</code>.
+     */
+    void write(long position, ByteBuffer src) throws IOException;
+
+    /**
+     * Make the written bytes durable, before recording them as complete.
+     */
+    void force() throws IOException;
+
+    /**
+     * Writer with positional writes to a {@link FileChannel}.
+     *
+     * @param path     the file, created if it does not exist
+     * @param size     size to which the file is extended before the first write, or -1 to let the file grow with
+     *                 the writes
+     * @param truncate if <code>true</code>, discard the current content of the file
+     */
+    static DestinationWriter positional(Path path, long size, boolean truncate) throws IOException {
+        FileChannel channel = open(path, size, truncate);
+        return new Positional(channel);
+    }
+
+    /**
+     * Writer of the segments of a file of known size, which are written through a memory mapping if
+     * <code>memoryMapped</code> is set and the file can be renamed afterwards, see {@link #MAPPED_FILES_CAN_BE_RENAMED}.
+     * The file is created if it does not exist, and its current content is kept.
+     */
+    static DestinationWriter segments(Path path, long size, boolean memoryMapped) throws IOException {
+        return memoryMapped && MAPPED_FILES_CAN_BE_RENAMED
+                ? mapped(path, size)
+                : positional(path, size, false);
+    }
+
+    /**
+     * Writer that maps the file into memory, so that the bytes are copied to the page cache without a system call
+     * for each write. The file is extended to <code>size</code> and kept, it cannot grow.
+     * <p>
+     * The mapped regions are released by the garbage collector, on some platforms (e.g. Windows) the file cannot be
+     * renamed until then.
+     *
+     * @param path the file, created if it does not exist
+     * @param size size of the file
+     */
+    static DestinationWriter mapped(Path path, long size) throws IOException {
+        if (size < 0)
+            throw new IllegalArgumentException("The size of a mapped file must be known");
+        return new Mapped(open(path, size, false), size);
+    }
+
+    private static FileChannel open(Path path, long size, boolean truncate) throws IOException {
+        FileChannel channel = truncate
+                ? FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+                : FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        try {
+            if (size > 0 && channel.size() < size)
+                // extend the file, the file system allocates the blocks as they are written
+                channel.write(ByteBuffer.allocate(1), size - 1);
+            else if (size >= 0 && channel.size() > size)
+                channel.truncate(size);
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    class Positional implements DestinationWriter {
+
+        private final FileChannel channel;
+
+        private Positional(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(long position, ByteBuffer src) throws IOException {
+            while (src.hasRemaining())
+                position += channel.write(src, position);
+        }
+
+        @Override
+        public void force() throws IOException {
+            channel.force(false);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    class Mapped implements DestinationWriter {
+
+        /** Size of the regions of the file that are mapped, 64 MB. */
+        static final int REGION_SIZE = 64 * 1024 * 1024;
+
+        private final FileChannel channel;
+        private final long size;
+        private final MappedByteBuffer[] regions;
+
+        private Mapped(FileChannel channel, long size) {
+            this.channel = channel;
+            this.size = size;
+            this.regions = new MappedByteBuffer[(int) ((size + REGION_SIZE - 1) / REGION_SIZE)];
+        }
+
+        @Override
+        public void write(long position, ByteBuffer src) throws IOException {
+            if (position + src.remaining() > size)
+                throw new IOException(String.format("Write of %d bytes at %d exceeds the size of the file, %d bytes",
+                        src.remaining(), position, size));
+            while (src.hasRemaining()) {
+                int index = (int) (position / REGION_SIZE);
+                int offset = (int) (position % REGION_SIZE);
+                // the threads share the regions, each writes through its own view
+                ByteBuffer target = region(index).duplicate();
+                target.position(offset);
+                int length = Math.min(src.remaining(), target.remaining());
+                ByteBuffer chunk = src.duplicate();
+                chunk.limit(chunk.position() + length);
+                target.put(chunk);
+                src.position(src.position() + length);
+                position += length;
+            }
+        }
+
+        private synchronized MappedByteBuffer region(int index) throws IOException {
+            if (regions[index] == null) {
+                long start = (long) index * REGION_SIZE;
+                regions[index] = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(REGION_SIZE, size - start));
+            }
+            return regions[index];
+        }
+
+        @Override
+        public synchronized void force() {
+            for (MappedByteBuffer region : regions) {
+                if (region != null)
+                    region.force();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            force();
+            // the mapping stays valid after the channel is closed
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.monarchinitiative.biodownload;
+
+import java.net.URL;
+import java.time.Duration;
+
+/**
+ * Receives the events of the downloads of a {@link BioDownloader}, e.g. to export bandwidth and latency metrics.
+ * <p>
+ * The listener is registered with {@link BioDownloaderBuilder#listener(DownloadListener)}. All methods have empty
+ * default implementations, so that a listener only overrides the events it is interested in. The methods are called
+ * from the downloading threads, possibly from several threads at the same time, and should return quickly.
+ * An exception thrown by a listener is logged and does not affect the download.
+ */
+public interface DownloadListener {
+
+    /**
+     * The request for a resource is about to be sent.
+     *
+     * @param resource name of the resource (the name of the downloaded file)
+     * @param url      the requested URL
+     */
+    default void onConnect(String resource, URL url) {
+    }
+
+    /**
+     * The server redirected the request.
+     *
+     * @param resource   name of the resource
+     * @param from       the redirected URL
+     * @param to         the new location
+     * @param statusCode HTTP status of the redirect, e.g. 301 or 302
+     */
+    default void onRedirect(String resource, URL from, URL to, int statusCode) {
+    }
+
+    /**
+     * The first byte of the file has arrived.
+     *
+     * @param resource        name of the resource
+     * @param url             URL of the file after following the redirects
+     * @param timeToFirstByte time elapsed since {@link #onConnect(String, URL)}
+     */
+    default void onFirstByte(String resource, URL url, Duration timeToFirstByte) {
+    }
+
+    /**
+     * Periodic report of the bytes received so far.
+     *
+     * @param resource   name of the resource
+     * @param bytes      number of bytes received so far
+     * @param totalBytes expected number of bytes or -1 if the server did not tell
+     */
+    default void onProgress(String resource, long bytes, long totalBytes) {
+    }
+
+    /**
+     * The resource has been downloaded.
+     *
+     * @param resource       name of the resource
+     * @param url            URL of the file after following the redirects
+     * @param bytes          number of bytes received in this download (without the resumed part of a file)
+     * @param elapsed        time elapsed since {@link #onConnect(String, URL)}
+     * @param bytesPerSecond average throughput of the download
+     */
+    default void onComplete(String resource, URL url, long bytes, Duration elapsed, double bytesPerSecond) {
+    }
+
+    /**
+     * An attempt to download the resource has failed for a transient reason, the download is attempted again after
+     * a delay. The next attempt resumes from the bytes that were already downloaded, if possible.
+     *
+     * @param resource name of the resource
+     * @param url      the requested URL
+     * @param attempt  number of the failed attempt, starting with 1
+     * @param backoff  delay before the next attempt
+     * @param cause    the reason of the failure
+     */
+    default void onRetry(String resource, URL url, int attempt, Duration backoff, Exception cause) {
+    }
+
+    /**
+     * The file that is already present is up to date, see {@link BioDownloaderBuilder#updateIfModified(boolean)}.
+     * Nothing was downloaded.
+     *
+     * @param resource name of the resource
+     * @param url      the requested URL
+     */
+    default void onNotModified(String resource, URL url) {
+    }
+
+    /**
+     * The download of the resource has failed.
+     *
+     * @param resource name of the resource
+     * @param url      the requested URL
+     * @param cause    the reason of the failure
+     */
+    default void onFailure(String resource, URL url, Exception cause) {
+    }
+}
@@ -0,0 +1,127 @@
+package org.monarchinitiative.biodownload;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Sidecar file in the download directory that remembers the <code>ETag</code>, <code>Last-Modified</code>,
+ * content length and final URL of the downloaded files.
+ * <p>
+ * The values are used to send conditional requests (<code>If-None-Match</code>, <code>If-Modified-Since</code>)
+ * when a file is already present, so that an unchanged remote file costs a single <code>304 Not Modified</code>
+ * response instead of a full download. The manifest is shared by the concurrent downloads of a {@link BioDownloader}.
+ */
+class DownloadManifest {
+
+    private static final Logger logger = LoggerFactory.getLogger(DownloadManifest.class);
+
+    /** Name of the manifest file in the download directory. */
+    static final String FILE_NAME = ".biodownload.properties";
+
+    private static final String SOURCE = ".source";
+    private static final String FINAL_URL = ".url";
+    private static final String ETAG = ".etag";
+    private static final String LAST_MODIFIED = ".last-modified";
+    private static final String CONTENT_LENGTH = ".content-length";
+
+    private final Path path;
+    private final Properties properties;
+
+    DownloadManifest(Path path) {
+        this.path = path;
+        this.properties = new Properties();
+        if (Files.isRegularFile(path)) {
+            try (InputStream is = Files.newInputStream(path)) {
+                properties.load(is);
+            } catch (IOException e) {
+                logger.warn("Could not read download manifest at {}: {}", path, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @param dest local copy of the file
+     * @param src  source of the file
+     * @return request properties that ask the server to send the file only if it has changed since
+     * <code>dest</code> was downloaded, or an empty map if the manifest does not describe the local copy
+     */
+    synchronized Map<String, String> conditionalRequestProperties(File dest, URL src) {
+        String name = dest.getName();
+        Map<String, String> requestProperties = new HashMap<>();
+        if (!src.toString().equals(properties.getProperty(name + SOURCE))
+                || !Long.toString(dest.length()).equals(properties.getProperty(name + CONTENT_LENGTH)))
+            return requestProperties;
+
+        String etag = properties.getProperty(name + ETAG);
+        if (etag != null)
+            requestProperties.put("If-None-Match", etag);
+        String lastModified = properties.getProperty(name + LAST_MODIFIED);
+        if (lastModified != null)
+            requestProperties.put("If-Modified-Since", lastModified);
+        return requestProperties;
+    }
+
+    /**
+     * @param dest local copy of the file
+     * @param src  source of the file
+     * @return <code>true</code> if the manifest records a validator for the local copy of the file from
+     * <code>src</code>
+     */
+    synchronized boolean describes(File dest, URL src) {
+        return !conditionalRequestProperties(dest, src).isEmpty();
+    }
+
+    /**
+     * @param dest         local copy of the file
+     * @param src          source of the file
+     * @param etag         current <code>ETag</code> of the remote file or <code>null</code>
+     * @param lastModified current <code>Last-Modified</code> of the remote file or <code>null</code>
+     * @return <code>true</code> if the validators recorded for the local copy match the remote file
+     */
+    synchronized boolean matches(File dest, URL src, String etag, String lastModified) {
+        if (!describes(dest, src))
+            return false;
+        String name = dest.getName();
+        String recordedEtag = properties.getProperty(name + ETAG);
+        if (recordedEtag != null && etag != null)
+            return recordedEtag.equals(etag);
+        String recordedLastModified = properties.getProperty(name + LAST_MODIFIED);
+        return recordedLastModified != null && recordedLastModified.equals(lastModified);
+    }
+
+    /**
+     * Remember the metadata of a downloaded file and write the manifest.
+     *
+     * @param dest         the downloaded file
+     * @param src          source of the file
+     * @param finalUrl     URL of the file after following the redirects
+     * @param etag         <code>ETag</code> of the response or <code>null</code>
+     * @param lastModified <code>Last-Modified</code> of the response or <code>null</code>
+     */
+    synchronized void record(File dest, URL src, URL finalUrl, String etag, String lastModified) throws IOException {
+        String name = dest.getName();
+        properties.setProperty(name + SOURCE, src.toString());
+        properties.setProperty(name + FINAL_URL, finalUrl.toString());
+        properties.setProperty(name + CONTENT_LENGTH, Long.toString(dest.length()));
+        setOrRemove(name + ETAG, etag);
+        setOrRemove(name + LAST_MODIFIED, lastModified);
+        try (OutputStream os = Files.newOutputStream(path)) {
+            properties.store(os, "Metadata of the files downloaded by BioDownload");
+        }
+    }
+
+    private void setOrRemove(String key, String value) {
+        if (value == null)
+            properties.remove(key);
+        else
+            properties.setProperty(key, value);
+    }
+}
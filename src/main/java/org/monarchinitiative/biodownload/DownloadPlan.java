@@ -0,0 +1,213 @@
+package org.monarchinitiative.biodownload;
+
+import java.net.URL;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Result of {@link BioDownloader#plan()}: what the download of the resources would involve, gathered with
+ * <code>HEAD</code> requests before any file is transferred.
+ * <p>
+ * For each resource, the plan lists the final URL after the redirects, the size and the modification time of
+ * the remote file, whether the server accepts range requests and whether the local copy is current. The plan
+ * also compares the bytes to download with the usable space in the download directory.
+ */
+public class DownloadPlan {
+
+    private final Map<String, Entry> entries;
+    private final long usableSpace;
+
+    DownloadPlan(List<Entry> entries, long usableSpace) {
+        Map<String, Entry> byName = new LinkedHashMap<>();
+        for (Entry entry : entries)
+            byName.put(entry.name(), entry);
+        this.entries = Collections.unmodifiableMap(byName);
+        this.usableSpace = usableSpace;
+    }
+
+    /**
+     * @return entries of the resources, in the order in which the resources were added to the builder
+     */
+    public List<Entry> entries() {
+        return List.copyOf(entries.values());
+    }
+
+    /**
+     * @param name name of the resource (the name of the file)
+     * @return entry of the resource
+     * @throws NoSuchElementException if there is no resource with the name
+     */
+    public Entry entry(String name) {
+        Entry entry = entries.get(name);
+        if (entry == null)
+            throw new NoSuchElementException("No resource named " + name);
+        return entry;
+    }
+
+    /**
+     * @return entries of the resources whose local copy is missing or not current
+     */
+    public List<Entry> outdated() {
+        return entries.values().stream()
+                .filter(entry -> !entry.isCurrent())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @return entries of the resources that {@link BioDownloader#download()} would transfer. With
+     * <code>overwrite(true)</code>, these are all resources. Otherwise, these are the resources without a local copy,
+     * and with <code>updateIfModified(true)</code> also those whose local copy is not current.
+     */
+    public List<Entry> toDownload() {
+        return entries.values().stream()
+                .filter(Entry::isDownloaded)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @return number of bytes of the {@link #toDownload()} resources, without the bytes already in resumable
+     * <code>.part</code> files and without the resources of unknown size
+     */
+    public long bytesToDownload() {
+        return toDownload().stream()
+                .mapToLong(entry -> Math.max(entry.size() - entry.resumableLength(), 0))
+                .sum();
+    }
+
+    /**
+     * @return <code>true</code> if the size of all {@link #toDownload()} resources is known
+     */
+    public boolean isSizeKnown() {
+        return toDownload().stream().allMatch(entry -> entry.size() >= 0);
+    }
+
+    /**
+     * @return number of bytes available in the download directory
+     */
+    public long usableSpace() {
+        return usableSpace;
+    }
+
+    /**
+     * @return <code>true</code> if the {@link #bytesToDownload()} fit in the {@link #usableSpace()}
+     */
+    public boolean fitsOnDisk() {
+        return bytesToDownload() <= usableSpace;
+    }
+
+    @Override
+    public String toString() {
+        return "DownloadPlan{" +
+                "entries=" + entries.values() +
+                ", usableSpace=" + usableSpace +
+                '}';
+    }
+
+    /**
+     * What the download of a single resource would involve.
+     */
+    public static class Entry {
+
+        private final String name;
+        private final Path destination;
+        private final URL url;
+        private final URL finalUrl;
+        private final long size;
+        private final Instant lastModified;
+        private final boolean acceptsRanges;
+        private final boolean current;
+        private final boolean downloaded;
+        private final long resumableLength;
+        private final String error;
+
+        Entry(String name, Path destination, URL url, URL finalUrl, long size, Instant lastModified,
+              boolean acceptsRanges, boolean current, boolean downloaded, long resumableLength, String error) {
+            this.name = name;
+            this.destination = destination;
+            this.url = url;
+            this.finalUrl = finalUrl;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.acceptsRanges = acceptsRanges;
+            this.current = current;
+            this.downloaded = downloaded;
+            this.resumableLength = resumableLength;
+            this.error = error;
+        }
+
+        /** @return name of the resource (the name of the file) */
+        public String name() {
+            return name;
+        }
+
+        /** @return path of the local copy */
+        public Path destination() {
+            return destination;
+        }
+
+        /** @return the probed URL, the primary URL unless it failed and a mirror answered */
+        public URL url() {
+            return url;
+        }
+
+        /** @return URL of the file after following the redirects */
+        public URL finalUrl() {
+            return finalUrl;
+        }
+
+        /** @return size of the remote file in bytes or -1 if not known */
+        public long size() {
+            return size;
+        }
+
+        /** @return modification time of the remote file, if the server reported it */
+        public Optional<Instant> lastModified() {
+            return Optional.ofNullable(lastModified);
+        }
+
+        /** @return <code>true</code> if the server accepts range requests, so the download can be resumed */
+        public boolean acceptsRanges() {
+            return acceptsRanges;
+        }
+
+        /** @return <code>true</code> if the local copy is present and matches the remote file */
+        public boolean isCurrent() {
+            return current;
+        }
+
+        /**
+         * @return <code>true</code> if {@link BioDownloader#download()} would transfer the file, which depends on
+         * the <code>overwrite</code> and <code>updateIfModified</code> settings of the downloader
+         */
+        public boolean isDownloaded() {
+            return downloaded;
+        }
+
+        /** @return number of bytes of a <code>.part</code> file that the download would continue from */
+        public long resumableLength() {
+            return resumableLength;
+        }
+
+        /** @return why the remote file could not be described, e.g. an HTTP error status */
+        public Optional<String> error() {
+            return Optional.ofNullable(error);
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{" +
+                    "name='" + name + '\'' +
+                    ", finalUrl=" + finalUrl +
+                    ", size=" + size +
+                    ", lastModified=" + lastModified +
+                    ", acceptsRanges=" + acceptsRanges +
+                    ", current=" + current +
+                    ", downloaded=" + downloaded +
+                    (resumableLength == 0 ? "" : ", resumableLength=" + resumableLength) +
+                    (error == null ? "" : ", error='" + error + '\'') +
+                    '}';
+        }
+    }
+}
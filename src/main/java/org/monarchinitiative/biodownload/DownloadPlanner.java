@@ -0,0 +1,148 @@
+package org.monarchinitiative.biodownload;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Describes the remote file of a resource with a <code>HEAD</code> request and compares it with the local copy,
+ * for the {@link DownloadPlan}. Whether the file would be downloaded follows the rules of
+ * {@link BioDownloader#download()}, and a resumable <code>.part</code> file is taken into account.
+ */
+class DownloadPlanner {
+
+    private static final Logger logger = LoggerFactory.getLogger(DownloadPlanner.class);
+
+    private final FileDownloader.Options options;
+    private final boolean overwrite;
+
+    /**
+     * @param options   options of the downloads
+     * @param overwrite <code>true</code> if the existing files are downloaded again
+     */
+    DownloadPlanner(FileDownloader.Options options, boolean overwrite) {
+        this.options = options;
+        this.overwrite = overwrite;
+    }
+
+    /**
+     * @param resource    the resource
+     * @param destination path of the local copy
+     * @return entry of the resource, describing the first of its URLs that answers
+     */
+    DownloadPlan.Entry plan(DownloadableResource resource, Path destination) {
+        FileDownloader downloader = new FileDownloader(options);
+        HttpTransport transport = downloader.transport();
+        String error = null;
+        for (URL url : resource.getUrls()) {
+            try {
+                if (url.getProtocol().equals("file"))
+                    return planLocal(resource, destination, url);
+                try (HttpTransport.Response response = transport.head(url, Map.of("Accept-Encoding", ContentEncoding.IDENTITY))) {
+                    if (response.statusCode() >= 400) {
+                        error = "HTTP " + response.statusCode() + " for " + url;
+                        continue;
+                    }
+                    String etag = response.header("ETag");
+                    String lastModified = response.header("Last-Modified");
+                    long size = response.contentLength();
+                    File dest = destination.toFile();
+                    boolean gunzip = downloader.isGzipToDecompress(url);
+                    boolean current = isCurrent(dest, url, etag, lastModified, size, gunzip);
+                    boolean downloaded = isDownloaded(dest)
+                            && (options.manifest == null || !options.manifest.matches(dest, url, etag, lastModified));
+                    // the decompressed part file cannot be resumed
+                    long resumable = downloaded && !gunzip
+                            ? resumableLength(new PartFile(dest), url, resource.getUrls(), etag, lastModified, size)
+                            : 0;
+                    return new DownloadPlan.Entry(resource.getName(), destination, url, response.url(), size,
+                            parseDate(lastModified), "bytes".equalsIgnoreCase(response.header("Accept-Ranges")),
+                            current, downloaded, resumable, null);
+                }
+            } catch (IOException | IllegalStateException e) {
+                logger.debug("Could not describe {}: {}", url, e.getMessage());
+                error = e.getMessage();
+            }
+        }
+        return new DownloadPlan.Entry(resource.getName(), destination, resource.getUrl(), resource.getUrl(), -1, null,
+                false, false, isDownloaded(destination.toFile()), 0, error);
+    }
+
+    private DownloadPlan.Entry planLocal(DownloadableResource resource, Path destination, URL url) throws IOException {
+        try {
+            Path source = Path.of(url.toURI());
+            long size = Files.size(source);
+            Instant lastModified = Files.getLastModifiedTime(source).toInstant();
+            File dest = destination.toFile();
+            boolean current = dest.isFile() && dest.length() == size
+                    && dest.lastModified() >= lastModified.toEpochMilli();
+            // a local file is copied again from the beginning, even with a manifest
+            return new DownloadPlan.Entry(resource.getName(), destination, url, url, size, lastModified, true, current,
+                    isDownloaded(dest), 0, null);
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            throw new IOException("Invalid file URL " + url, e);
+        }
+    }
+
+    /**
+     * The local copy is current if the validators recorded in the manifest match the remote file, or without
+     * a manifest, if it has the size of the remote file and is not older than the remote file.
+     */
+    private boolean isCurrent(File dest, URL src, String etag, String lastModified, long size, boolean gunzip) {
+        if (!dest.isFile())
+            return false;
+        if (options.manifest != null && options.manifest.describes(dest, src))
+            return options.manifest.matches(dest, src, etag, lastModified);
+        // the size of a decompressed file does not match the remote file
+        if (!gunzip && size >= 0 && dest.length() != size)
+            return false;
+        Instant modified = parseDate(lastModified);
+        return modified == null || dest.lastModified() >= modified.toEpochMilli();
+    }
+
+    /**
+     * Like {@link BioDownloader#download()}, a missing file is downloaded, and an existing file is only downloaded
+     * again with <code>overwrite</code>, or with a manifest if it has changed (checked by the caller).
+     */
+    private boolean isDownloaded(File dest) {
+        return !dest.isFile() || overwrite || options.manifest != null;
+    }
+
+    /**
+     * @return length of the part file that the download would continue from, like the {@link FileDownloader}: a part
+     * file of <code>url</code> whose validator still matches the remote file, or a part file of another mirror of
+     * a file of the same size
+     */
+    private static long resumableLength(PartFile part, URL url, List<URL> mirrors, String etag, String lastModified,
+                                        long size) {
+        String validator = part.validator(url);
+        if (validator != null)
+            // the server sends the whole file if the validator does not match anymore
+            return validator.equals(etag) || validator.equals(lastModified) ? part.resumableLength(url) : 0;
+        if (size >= 0 && part.recordedSize() == size)
+            return part.continuableLength(mirrors);
+        return 0;
+    }
+
+    private static Instant parseDate(String value) {
+        if (value == null)
+            return null;
+        try {
+            return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
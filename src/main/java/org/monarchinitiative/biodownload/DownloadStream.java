@@ -0,0 +1,176 @@
+package org.monarchinitiative.biodownload;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+/**
+ * The content of a resource as it arrives from the network, for {@link BioDownloader#openStream(String)}.
+ * <p>
+ * The stream reports the transfer to the {@link TransferMonitor} and, when the end of the file is reached, checks
+ * the size and the checksum of the file. With a tee, the bytes are also written into the part file, which becomes
+ * the destination file at the end of the stream. A stream that is closed early leaves the part file behind, so that
+ * the next download of the resource can resume it. The stream itself always starts at the beginning of the file.
+ */
+class DownloadStream extends FilterInputStream {
+
+    private static final Logger logger = LoggerFactory.getLogger(DownloadStream.class);
+
+    /**
+     * Called at the end of the stream, once the bytes have been checked, to move the part file to its destination.
+     */
+    @FunctionalInterface
+    interface Completion {
+        void complete() throws IOException;
+    }
+
+    private final Closeable response;
+    private final URL url;
+    private final MeteredInputStream wire;
+    /** the published file, before any decompression, which is covered by the checksum */
+    private final InputStream published;
+    private final long fileSize;
+    private final TransferMonitor monitor;
+    private final Checksums.Checksum checksum;
+    private final MessageDigest digest;
+    private final String name;
+    private final PartFile part;
+    private final DestinationWriter tee;
+    private final Completion completion;
+    private long written = 0;
+    private boolean done = false;
+
+    /**
+     * @param in         the bytes handed to the consumer
+     * @param response   response that delivers the bytes, closed with the stream
+     * @param url        URL of the file after following the redirects
+     * @param wire       the bytes read from the network
+     * @param published  the decoded bytes of the published file, which feed the <code>digest</code>
+     * @param fileSize   size of the file or -1 if not known
+     * @param checksum   expected checksum or <code>null</code>
+     * @param digest     digest of the published file or <code>null</code>
+     * @param name       name of the resource, for the messages
+     * @param part       part file that receives the bytes or <code>null</code> without tee
+     * @param tee        writer of the part file or <code>null</code>
+     * @param completion called at the end of the stream
+     */
+    DownloadStream(InputStream in, Closeable response, URL url, MeteredInputStream wire, InputStream published, long fileSize,
+                   TransferMonitor monitor, Checksums.Checksum checksum, MessageDigest digest, String name,
+                   PartFile part, DestinationWriter tee, Completion completion) {
+        super(in);
+        this.response = response;
+        this.url = url;
+        this.wire = wire;
+        this.published = published;
+        this.fileSize = fileSize;
+        this.monitor = monitor;
+        this.checksum = checksum;
+        this.digest = digest;
+        this.name = name;
+        this.part = part;
+        this.tee = tee;
+        this.completion = completion;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int readCount = read(b, 0, 1);
+        return readCount == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (done)
+            return -1;
+        try {
+            int readCount = super.read(b, off, len);
+            if (readCount > 0) {
+                monitor.firstByte(url);
+                if (tee != null) {
+                    tee.write(written, ByteBuffer.wrap(b, off, readCount));
+                    written += readCount;
+                }
+                monitor.progress(wire.count());
+            } else if (readCount == -1) {
+                finish();
+            }
+            return readCount;
+        } catch (IOException | RuntimeException e) {
+            done = true;
+            monitor.failure(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // the skipped bytes still go through the checksum and the tee
+        byte[] buffer = new byte[(int) Math.min(Math.max(n, 0), 8192)];
+        long skipped = 0;
+        while (skipped < n) {
+            int readCount = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+            if (readCount == -1)
+                break;
+            skipped += readCount;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void finish() throws IOException {
+        done = true;
+        if (published != in)
+            // the decompressor may stop before the end of the .gz file, but the checksum covers all of it
+            published.transferTo(OutputStream.nullOutputStream());
+        long pos = wire.count();
+        if (fileSize != -1 && pos != fileSize)
+            throw new EOFException(String.format("Connection closed after %d of %d bytes", pos, fileSize));
+        if (checksum != null) {
+            try {
+                checksum.verify(digest, name);
+            } catch (IOException e) {
+                if (part != null) {
+                    tee.close();
+                    part.discard();
+                }
+                throw e;
+            }
+        }
+        monitor.progress(pos);
+        if (tee != null) {
+            tee.close();
+            completion.complete();
+        }
+        monitor.complete(url);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+            response.close();
+        } finally {
+            if (tee != null)
+                tee.close();
+            if (!done) {
+                done = true;
+                logger.debug("Stream of {} closed before the end of the file", name);
+                monitor.failure(new EOFException("Stream of " + name + " closed before the end of the file"));
+            }
+        }
+    }
+}
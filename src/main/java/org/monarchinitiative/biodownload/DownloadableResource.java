@@ -1,10 +1,15 @@
 package org.monarchinitiative.biodownload;
 
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 
 /**
  * Class for storing resource URL and the name under which the resource will be stored on the local file system
+ * <p>
+ * Besides the primary URL, a resource can list mirrors that serve the same file. The downloader picks the fastest
+ * of them and switches to the next one if a download fails.
  *
  * @author Baha El Kassaby
  * @author Daniel Danis
@@ -12,23 +17,49 @@ import java.util.Objects;
 class DownloadableResource {
 
     private final String name;
-    private final URL url;
+    private final List<URL> urls;
 
     /**
      * @param name how to name the downloaded file
      * @param url  {@link URL} of source file
      */
     DownloadableResource(String name, URL url) {
+        this(name, List.of(Objects.requireNonNull(url, "Url must not be null")));
+    }
+
+    /**
+     * @param name how to name the downloaded file
+     * @param urls {@link URL}s of the source file, the primary URL first and then the mirrors
+     */
+    DownloadableResource(String name, List<URL> urls) {
         this.name = Objects.requireNonNull(name, "Name must not be null");
-        this.url = Objects.requireNonNull(url, "Url must not be null");
+        if (Objects.requireNonNull(urls, "Urls must not be null").isEmpty())
+            throw new IllegalArgumentException("At least one url is required");
+        urls.forEach(url -> Objects.requireNonNull(url, "Url must not be null"));
+        this.urls = List.copyOf(urls);
     }
 
     String getName() {
         return name;
     }
 
+    /** @return the primary URL */
     URL getUrl() {
-        return url;
+        return urls.get(0);
+    }
+
+    /** @return the primary URL followed by the mirrors */
+    List<URL> getUrls() {
+        return urls;
+    }
+
+    /**
+     * @return a copy of the resource that also lists the <code>mirror</code>
+     */
+    DownloadableResource withMirror(URL mirror) {
+        List<URL> mirrors = new ArrayList<>(urls);
+        mirrors.add(Objects.requireNonNull(mirror, "Url must not be null"));
+        return new DownloadableResource(name, mirrors);
     }
 
     @Override
@@ -36,19 +67,19 @@ class DownloadableResource {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         DownloadableResource that = (DownloadableResource) o;
-        return Objects.equals(name, that.name) && Objects.equals(url, that.url);
+        return Objects.equals(name, that.name) && Objects.equals(urls, that.urls);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(name, url);
+        return Objects.hash(name, urls);
     }
 
     @Override
     public String toString() {
         return "DownloadableResource{" +
                 "name='" + name + '\'' +
-                ", url=" + url +
+                ", urls=" + urls +
                 '}';
     }
 }
@@ -1,43 +1,121 @@
 package org.monarchinitiative.biodownload;
 
-import org.monarchinitiative.biodownload.ftp.NIOftp;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.net.URLConnection;
-import java.util.HashSet;
-import java.util.Set;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.zip.GZIPInputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 
 /**
  * Helper class for downloading files over HTTP and FTP.
  * <p>
  * The implementation of FTP downloads is more complex since we need passive FTP transfer through firewalls. This is not
- * possible when just opening a stream through an {@link URL} object with Java's builtin features.
+ * possible when just opening a stream through an {@link URL} object with Java's builtin features, so the FTP downloads
+ * go through the {@link FtpTransport}, unless an FTP proxy is configured.
  *
  * @author <a href="mailto:manuel.holtgrewe@charite.de">Manuel Holtgrewe</a>
  */
 class FileDownloader {
     private static final Logger logger = LoggerFactory.getLogger(FileDownloader.class);
 
-    static class ProxyOptions {
-        String host = null;
-        int port = -1;
-        String user = null;
-        String password = null;
-    }
+    /** 5 seconds should be more than enough to connect to a server */
+    static final int CONNECTION_TIMEOUT = 5000;
+    /** A server that sends no bytes for 30 seconds has stalled, the download is retried or continued from a mirror. */
+    static final int READ_TIMEOUT = 30_000;
+    /** Default size of the buffer used to copy the data from the network to the file. */
+    static final int DEFAULT_BUFFER_SIZE = 128 * 1024;
+    /** no constant for range not satisfiable in HttpURLConnection */
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
 
     /**
      * Configuration for the {@link FileDownloader}.
      */
     static class Options {
-        boolean printProgressBar = false;
-        ProxyOptions http = new ProxyOptions();
-        ProxyOptions https = new ProxyOptions();
-        ProxyOptions ftp = new ProxyOptions();
+        /** Prints the progress of the downloads, if set. */
+        ProgressBar progressBar = null;
+        /** Number of parallel range requests used to download a single file, 1 disables segmented downloads. */
+        int segments = 1;
+        /** Size of the buffer used to copy the data from the network to the file, in bytes. */
+        int bufferSize = DEFAULT_BUFFER_SIZE;
+        /** Reusable buffers of the transfers, whose memory budget also limits the transfers in flight. */
+        BufferPool buffers = new BufferPool(BufferPool.DEFAULT_BUDGET);
+        /** If set, files that are already present are downloaded again only if the remote file has changed. */
+        DownloadManifest manifest = null;
+        /** Transport shared by the downloads, the legacy {@link UrlConnectionTransport} is used if not set. */
+        HttpTransport transport = null;
+        /** If set, the requests go directly to the final URLs of the sources that were redirected before. */
+        RedirectCache redirects = null;
+        /** Transport of the <code>ftp://</code> URLs, which keeps the control connections open between the downloads. */
+        FtpTransport ftpTransport = new FtpTransport(CONNECTION_TIMEOUT);
+        /** Expected checksums of the files, verified while the files are downloaded. */
+        Checksums checksums = new Checksums();
+        /** If true, ask for gzip/deflate compressed transfers and decode them while downloading. */
+        boolean compressedTransfer = true;
+        /** If true, decompress the <code>.gz</code> files while downloading them. */
+        boolean decompressGzip = false;
+        /** If true, the segments of a segmented download are written through a memory mapping, except on Windows. */
+        boolean memoryMappedWrites = false;
+        /** Bandwidth limits shared by the downloads. */
+        BandwidthLimits bandwidth = new BandwidthLimits();
+        /** When to attempt a failed download again. */
+        RetryPolicy retryPolicy = new RetryPolicy();
+        /** Circuit breakers of the hosts, shared by the downloads. */
+        CircuitBreakers circuitBreakers = new CircuitBreakers();
+        /** Picks the fastest mirror of a resource and detects the transfers to continue from another mirror. */
+        MirrorSelector mirrors = new MirrorSelector();
+        /** If set, limits the transfers running against the host of the chosen mirror at the same time. */
+        HostPermits hostPermits = null;
+        /** URLs of the zsync control files by the name of the resource, the existing files are updated with a delta. */
+        Map<String, URL> zsyncIndexes = new HashMap<>();
+        /** Number of writes queued for a separate writer thread, 0 writes on the thread that reads from the network. */
+        int writeBehind = 0;
+        /** When the writer thread forces the written bytes to the storage device. */
+        FsyncPolicy fsync = FsyncPolicy.NONE;
+        /** Notified of the events of the downloads. */
+        List<DownloadListener> listeners = new ArrayList<>();
+        /** Proxies of the connections, the JVM-wide proxy settings apply to the protocols without a proxy. */
+        Proxies proxies = new Proxies();
+
+        /**
+         * @return options with the same settings, which share no mutable state with these options. The progress bar,
+         * the manifest, the HTTP transport, the redirect cache and the host permits are not copied, and the copy has
+         * its own buffers and FTP connections.
+         */
+        Options copy() {
+            Options copy = new Options();
+            copy.segments = segments;
+            copy.bufferSize = bufferSize;
+            copy.checksums = checksums.copy();
+            copy.compressedTransfer = compressedTransfer;
+            copy.decompressGzip = decompressGzip;
+            copy.memoryMappedWrites = memoryMappedWrites;
+            copy.bandwidth = bandwidth.copy();
+            copy.retryPolicy = retryPolicy.copy();
+            copy.circuitBreakers = circuitBreakers.copy();
+            copy.mirrors = mirrors.copy();
+            copy.zsyncIndexes = new HashMap<>(zsyncIndexes);
+            copy.writeBehind = writeBehind;
+            copy.fsync = fsync;
+            copy.listeners = new ArrayList<>(listeners);
+            copy.proxies = proxies.copy();
+            return copy;
+        }
     }
 
     /**
@@ -63,13 +141,40 @@ class FileDownloader {
     /**
      * This method downloads a file to the specified local file path. If the file already exists, it will
      * overwrite it and emit a warning.
+     * <p>
+     * The bytes are written into a <code>.part</code> file next to the destination, which is renamed once the download
+     * is complete. A part file left behind by an interrupted HTTP(S) download is resumed from its current length.
+     * <p>
+     * If the {@link Options#manifest} is set and describes the existing destination file, the file is only downloaded
+     * if the server reports that it has changed.
+     * <p>
+     * A download that fails for a transient reason is attempted again according to the {@link Options#retryPolicy},
+     * resuming from the bytes that had already been written. The downloads from a host that keeps failing are
+     * rejected by the {@link Options#circuitBreakers}.
      *
      * @param src  {@link URL} with file to download
      * @param dest {@link File} with destination path
-     * @return File file downloaded
+     * @return File file downloaded or <code>null</code> if the existing destination file is up to date
      * @throws FileDownloadException on problems with downloading
      */
     public File copyURLToFile(URL src, File dest) throws FileDownloadException {
+        return copyURLToFile(List.of(src), dest);
+    }
+
+    /**
+     * Download a file that is served by several mirrors, like {@link #copyURLToFile(URL, File)}.
+     * <p>
+     * The mirrors are ranked by the {@link Options#mirrors} and the download starts from the fastest one. If the
+     * download fails, or if its throughput collapses, it continues right away from the next mirror, with a range
+     * request for the remaining bytes if the mirror serves a file of the same size. The last mirror is retried
+     * according to the {@link Options#retryPolicy}.
+     *
+     * @param mirrors {@link URL}s of the file to download, the primary URL first
+     * @param dest    {@link File} with destination path
+     * @return File file downloaded or <code>null</code> if the existing destination file is up to date
+     * @throws FileDownloadException on problems with downloading
+     */
+    public File copyURLToFile(List<URL> mirrors, File dest) throws FileDownloadException {
         if (dest.exists()) {
             logger.warn("Overwriting file at " + dest);
         }
@@ -80,136 +185,584 @@ class FileDownloader {
             dest.getParentFile().mkdirs();
         }
 
-        if (src.getProtocol().equals("ftp") && options.ftp.host != null)
-            return NIOftp.ftp(src, dest);
+        TransferMonitor monitor = new TransferMonitor(listeners(), dest.getName(), mirrors.get(0));
+        List<URL> candidates = options.mirrors.rank(mirrors, transport(), options.proxies);
+        int mirror = 0;
+        for (int attempt = 1; ; attempt++) {
+            URL src = candidates.get(mirror);
+            String host = src.getHost();
+            boolean failover = mirror + 1 < candidates.size();
+            boolean trial = false;
+            try {
+                if (!host.isEmpty())
+                    trial = options.circuitBreakers.check(host, dest.getName());
+                monitor.connect();
+                File file;
+                acquirePermit(host, dest);
+                try {
+                    file = copyURLToFileOnce(src, mirrors, dest, monitor, failover);
+                } finally {
+                    releasePermit(host);
+                }
+                if (!host.isEmpty())
+                    options.circuitBreakers.success(host);
+                return file;
+            } catch (FileDownloadException e) {
+                boolean isTransient = RetryPolicy.isTransient(e);
+                if (isTransient && !host.isEmpty())
+                    options.circuitBreakers.failure(host);
+                if (failover) {
+                    mirror++;
+                    logger.warn("Download of {} from {} failed ({}), continuing from {}", dest.getName(), src,
+                            e.getMessage(), candidates.get(mirror));
+                    monitor.retry(attempt, Duration.ZERO, e);
+                    // the attempts are counted for each mirror
+                    attempt = 0;
+                    continue;
+                }
+                Duration backoff = options.retryPolicy.backoff(attempt, e);
+                if (backoff == null || (!host.isEmpty() && options.circuitBreakers.isOpen(host))) {
+                    monitor.failure(e);
+                    throw e;
+                }
+                logger.warn("Attempt {} of {} to download {} failed ({}), retrying in {} ms", attempt,
+                        options.retryPolicy.maxAttempts, dest.getName(), e.getMessage(), backoff.toMillis());
+                monitor.retry(attempt, backoff, e);
+                sleep(backoff, dest);
+            } finally {
+                // a trial that neither succeeded nor failed transiently must not keep the circuit half-open forever
+                if (trial)
+                    options.circuitBreakers.endTrial(host);
+            }
+        }
+    }
+
+    /**
+     * Open the content of a file as it arrives from the network, without waiting for it to be written to disk.
+     * <p>
+     * The content is decoded and, if {@link Options#decompressGzip} is set, decompressed like by
+     * {@link #copyURLToFile(List, File)}. The size and the checksum of the file are checked when the end of the stream
+     * is reached. Opening the stream is retried and fails over to the mirrors like a download, but a stream that fails
+     * later cannot be continued, since the consumer has already seen the bytes.
+     *
+     * @param mirrors {@link URL}s of the file, the primary URL first
+     * @param dest    {@link File} with destination path
+     * @param tee     if <code>true</code>, the bytes are also written to <code>dest</code>
+     * @return the content of the file, which must be closed by the caller
+     * @throws FileDownloadException if the file could not be opened
+     */
+    InputStream openStream(List<URL> mirrors, File dest, boolean tee) throws FileDownloadException {
+        if (tee && !dest.getParentFile().exists())
+            dest.getParentFile().mkdirs();
+        TransferMonitor monitor = new TransferMonitor(listeners(), dest.getName(), mirrors.get(0));
+        List<URL> candidates = options.mirrors.rank(mirrors, transport(), options.proxies);
+        int mirror = 0;
+        for (int attempt = 1; ; attempt++) {
+            URL src = candidates.get(mirror);
+            try {
+                monitor.connect();
+                return openStreamOnce(src, dest, tee, monitor);
+            } catch (FileDownloadException e) {
+                if (mirror + 1 < candidates.size()) {
+                    mirror++;
+                    logger.warn("Opening {} from {} failed ({}), trying {}", dest.getName(), src, e.getMessage(),
+                            candidates.get(mirror));
+                    monitor.retry(attempt, Duration.ZERO, e);
+                    attempt = 0;
+                    continue;
+                }
+                Duration backoff = options.retryPolicy.backoff(attempt, e);
+                if (backoff == null) {
+                    monitor.failure(e);
+                    throw e;
+                }
+                monitor.retry(attempt, backoff, e);
+                sleep(backoff, dest);
+            }
+        }
+    }
+
+    private InputStream openStreamOnce(URL src, File dest, boolean tee, TransferMonitor monitor) throws FileDownloadException {
+        HttpTransport transport = transport();
+        boolean gunzip = isGzipToDecompress(src);
+        HttpTransport.Response response = null;
+        DestinationWriter writer = null;
+        try {
+            response = transport.get(src, Map.of("Accept-Encoding",
+                    options.compressedTransfer ? ContentEncoding.ACCEPTED : ContentEncoding.IDENTITY), monitor::redirected);
+            HttpStatusException.check(response);
+            // with Content-Encoding, this is the length of the encoded body
+            long contentLength = response.contentLength();
+            monitor.start(0, contentLength);
+
+            String resourceName = gunzip ? dest.getName() + ".gz" : dest.getName();
+            Checksums.Checksum checksum = options.checksums.expected(src, resourceName, transport);
+            MessageDigest digest = checksum == null ? null : checksum.newDigest();
+
+            MeteredInputStream wire = new MeteredInputStream(response.body(), options.bandwidth.forHost(response.url().getHost()));
+            InputStream decoded = ContentEncoding.decode(wire, response.header("Content-Encoding"), options.bufferSize);
+            if (digest != null)
+                decoded = new DigestInputStream(decoded, digest);
+            InputStream published = decoded;
+            if (gunzip)
+                decoded = new GZIPInputStream(decoded, options.bufferSize);
+
+            PartFile part = null;
+            DownloadStream.Completion completion = null;
+            if (tee) {
+                part = new PartFile(dest);
+                part.start(src, gunzip ? null : validator(response),
+                        response.header("Content-Encoding") == null ? contentLength : -1);
+                writer = pipelined(DestinationWriter.positional(part.toFile().toPath(), -1, true));
+                PartFile teePart = part;
+                HttpTransport.Response teeResponse = response;
+                completion = () -> complete(teePart, src, teeResponse);
+            }
+            return new DownloadStream(decoded, response, response.url(), wire, published, contentLength, monitor,
+                    checksum, digest, dest.getName(), part, writer, completion);
+        } catch (IOException | IllegalStateException e) {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ignored) {
+                    // the failure is reported
+                }
+            }
+            closeQuietly(response);
+            throw new FileDownloadException("ERROR: Problem opening file: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the listeners of the downloads, including the {@link Options#progressBar}
+     */
+    private List<DownloadListener> listeners() {
+        if (options.progressBar == null)
+            return options.listeners;
+        List<DownloadListener> listeners = new ArrayList<>(options.listeners);
+        listeners.add(options.progressBar);
+        return listeners;
+    }
+
+    /**
+     * @param mirrors  all {@link URL}s of the file, whose part files can be continued from <code>src</code>
+     * @param failover <code>true</code> if there is another mirror to continue from if the transfer becomes slow
+     */
+    private File copyURLToFileOnce(URL src, List<URL> mirrors, File dest, TransferMonitor monitor, boolean failover) throws FileDownloadException {
+        if (isGzipToDecompress(src))
+            // the other routes store the bytes as they are
+            return copyURLToFileThroughURL(src, mirrors, dest, monitor, failover);
+        else if (src.getProtocol().equals("file"))
+            return copyLocalFile(src, dest, monitor);
         else
-            return copyURLToFileThroughURL(src, dest);
+            return copyURLToFileThroughURL(src, mirrors, dest, monitor, failover);
+    }
+
+    /**
+     * Wait for a permit of <code>host</code> in the {@link Options#hostPermits}, if set.
+     */
+    private void acquirePermit(String host, File dest) throws FileDownloadException {
+        if (options.hostPermits == null || host.isEmpty())
+            return;
+        try {
+            options.hostPermits.acquire(host);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FileDownloadException("Interrupted while waiting to download " + dest.getName() + " from " + host, e);
+        }
+    }
+
+    private void releasePermit(String host) {
+        if (options.hostPermits != null && !host.isEmpty())
+            options.hostPermits.release(host);
+    }
+
+    private static void sleep(Duration backoff, File dest) throws FileDownloadException {
+        try {
+            Thread.sleep(backoff.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FileDownloadException("Interrupted while waiting to retry the download of " + dest.getName(), e);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the file at <code>src</code> should be decompressed while it is downloaded
+     */
+    boolean isGzipToDecompress(URL src) {
+        return options.decompressGzip && src.getPath().endsWith(".gz");
+    }
+
+    /**
+     * Copy a file from a local (e.g. network-mounted) mirror with {@link FileChannel#transferTo(long, long, WritableByteChannel)},
+     * which lets the operating system copy the data without passing it through the JVM.
+     */
+    private File copyLocalFile(URL src, File dest, TransferMonitor monitor) throws FileDownloadException {
+        PartFile part = new PartFile(dest);
+        try (FileChannel in = FileChannel.open(Path.of(src.toURI()), StandardOpenOption.READ)) {
+            part.discard();
+            try (FileChannel out = FileChannel.open(part.toFile().toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                long size = in.size();
+                long pos = 0;
+                while (pos < size)
+                    pos += in.transferTo(pos, size - pos, out);
+            }
+            // the data does not pass through the JVM, so the checksum needs another pass over the (local) file
+            Checksums.Checksum checksum = options.checksums.expected(src, dest.getName(), transport());
+            if (checksum != null) {
+                MessageDigest digest = checksum.newDigest();
+                Checksums.Checksum.update(digest, part.toFile(), part.toFile().length());
+                verify(checksum, digest, part, dest);
+            }
+            monitor.complete(src, part.toFile().length());
+            return part.complete();
+        } catch (IOException | URISyntaxException | IllegalArgumentException e) {
+            logger.error(String.format("Failed to copy file from %s", src), e);
+            throw new FileDownloadException("ERROR: Problem downloading file: " + e.getMessage(), e);
+        }
     }
 
     /**
      * Copy contents of a URL to a file using the {@link URL} class.
      * <p>
-     * This works for the HTTP and the HTTPS protocol and for FTP through a proxy. For plain FTP, we need to use the
-     * passive mode.
+     * This works for the HTTP and the HTTPS protocol and for FTP, which is downloaded in passive mode by
+     * the {@link FtpTransport} or through the proxy.
+     * <p>
+     * A part file left behind by a download from another of the <code>mirrors</code> is continued if the mirror serves
+     * a file of the same size. With <code>failover</code>, a single stream transfer whose throughput collapses is aborted with
+     * a {@link MirrorSelector.SlowTransferException}.
      */
-    private File copyURLToFileThroughURL(URL src, File dest) throws FileDownloadException {
-        setProxyProperties();
-
-        // actually copy the file
-        BufferedInputStream in;
-        FileOutputStream out;
+    private File copyURLToFileThroughURL(URL src, List<URL> mirrors, File dest, TransferMonitor monitor, boolean failover) throws FileDownloadException {
+        HttpTransport transport = transport();
+        PartFile part = new PartFile(dest);
+        // the decompressed part file cannot be resumed, since its length does not match the remote file
+        boolean gunzip = isGzipToDecompress(src);
+        // the byte ranges of resumed and segmented downloads refer to the unencoded file
+        Map<String, String> acceptEncoding = Map.of("Accept-Encoding",
+                options.compressedTransfer && options.segments < 2 ? ContentEncoding.ACCEPTED : ContentEncoding.IDENTITY);
+        HttpTransport.Response response = null;
         try {
-            int connectionTimeout = 5000; // 5 seconds should be more than enough to connect to a server
-            final String TEXTPLAIN_REQUEST_TYPE = ", text/plain; q=0.1";
-            URLConnection connection = connect(src.openConnection(), connectionTimeout, TEXTPLAIN_REQUEST_TYPE, new HashSet<>());
-            final int fileSize = connection.getContentLength();
-            in = new BufferedInputStream(connection.getInputStream());
-            out = new FileOutputStream(dest);
-
-            ProgressBar pb = null;
-            if (fileSize != -1)
-                pb = new ProgressBar(0, fileSize, options.printProgressBar);
-            else
-                logger.info("(server did not tell us the file size, no progress bar)");
+            long offset = gunzip ? 0 : part.resumableLength(src);
+            // size of the file on the mirror that the part file was downloaded from
+            long mirrorSize = -1;
+            if (offset == 0 && !gunzip && part.continuableLength(mirrors) > 0) {
+                offset = part.continuableLength(mirrors);
+                mirrorSize = part.recordedSize();
+            }
+            Map<String, String> requestProperties = new HashMap<>(acceptEncoding);
+            if (offset > 0) {
+                requestProperties.put("Range", "bytes=" + offset + "-");
+                // the validators of the mirrors differ, the size of the file is checked instead
+                if (mirrorSize < 0)
+                    requestProperties.put("If-Range", part.validator(src));
+                requestProperties.put("Accept-Encoding", ContentEncoding.IDENTITY);
+            } else if (options.manifest != null && dest.isFile()) {
+                requestProperties.putAll(options.manifest.conditionalRequestProperties(dest, src));
+            }
+            response = transport.get(src, requestProperties, monitor::redirected);
+            if (offset == 0 || response.statusCode() != HTTP_RANGE_NOT_SATISFIABLE)
+                HttpStatusException.check(response);
+            if (offset > 0) {
+                offset = resumedOffset(response, offset, mirrorSize);
+                if (offset == 0 && response.statusCode() != HttpURLConnection.HTTP_OK) {
+                    // the part file does not fit the remote file anymore
+                    response.close();
+                    part.discard();
+                    response = transport.get(src, acceptEncoding, monitor::redirected);
+                    HttpStatusException.check(response);
+                }
+            }
+            if (response.statusCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                logger.info("\"{}\" has not changed since the last download", dest.getName());
+                monitor.notModified();
+                return null;
+            }
+            URL zsyncIndex = options.zsyncIndexes.get(dest.getName());
+            if (zsyncIndex != null && offset == 0 && !gunzip && dest.isFile()
+                    && response.statusCode() == HttpURLConnection.HTTP_OK) {
+                response.close();
+                try {
+                    return deltaUpdate(src, zsyncIndex, dest, part, response, monitor);
+                } catch (DeltaUpdater.DeltaUnavailableException e) {
+                    logger.info("{}, downloading the whole file", e.getMessage());
+                    part.discard();
+                    response = transport.get(src, acceptEncoding, monitor::redirected);
+                    HttpStatusException.check(response);
+                }
+            }
+            // with Content-Encoding, this is the length of the encoded body
+            long contentLength = response.contentLength();
+            final long fileSize = contentLength == -1 ? -1 : offset + contentLength;
+
+            if (fileSize == -1)
+                logger.info("(server did not tell us the file size)");
+            monitor.start(offset, fileSize);
+
+            // the resource keeps the .gz suffix in its name, even if it is decompressed
+            String resourceName = gunzip ? dest.getName() + ".gz" : dest.getName();
+            Checksums.Checksum checksum = options.checksums.expected(src, resourceName, transport);
+            MessageDigest digest = checksum == null ? null : checksum.newDigest();
+
+            SegmentedDownloader segmentedDownloader = new SegmentedDownloader(transport, options.segments, options.bufferSize,
+                    options.buffers, options.bandwidth.forHost(response.url().getHost()));
+            if (offset == 0 && !gunzip && segmentedDownloader.supportsSegments(response)) {
+                URL url = response.url();
+                String validator = validator(response);
+                response.close();
+                // the segments are not written in order, the part file is resumed from its completed blocks
+                CompletionBitmap blocks = part.resumableBlocks(src, validator, fileSize);
+                if (blocks == null) {
+                    part.discard();
+                    blocks = part.startSegmented(src, validator, fileSize);
+                } else {
+                    logger.info("Resuming download of {} with {} of {} bytes present", dest.getName(),
+                            blocks.completedBytes(), fileSize);
+                }
+                try {
+                    monitor.start(blocks.completedBytes(), fileSize);
+                    try (DestinationWriter writer = pipelined(
+                            DestinationWriter.segments(part.toFile().toPath(), fileSize, options.memoryMappedWrites))) {
+                        segmentedDownloader.download(url, fileSize, writer, blocks, monitor);
+                    }
+                    if (checksum != null) {
+                        // the segments arrive out of order, so the digest needs a pass over the complete file
+                        Checksums.Checksum.update(digest, part.toFile(), fileSize);
+                        verify(checksum, digest, part, dest);
+                    }
+                    monitor.complete(url);
+                    return complete(part, src, response);
+                } catch (SegmentedDownloader.RangeNotSatisfiedException e) {
+                    logger.info("{}, falling back to a single stream download", e.getMessage());
+                    part.discard();
+                    monitor.start(0, fileSize);
+                    response = transport.get(url, acceptEncoding, monitor::redirected);
+                    HttpStatusException.check(response);
+                }
+            }
+
+            if (offset > 0) {
+                logger.info("Resuming download of {} at byte {}", dest.getName(), offset);
+                if (digest != null)
+                    Checksums.Checksum.update(digest, part.toFile(), offset);
+                if (mirrorSize >= 0)
+                    // the next resume continues from this mirror
+                    part.start(src, validator(response), fileSize);
+            } else {
+                part.start(src, gunzip ? null : validator(response), fileSize);
+            }
+            MirrorSelector.ThroughputWatchdog watchdog = failover ? options.mirrors.watchdog() : null;
 
             // Download file.
-            byte[] buffer = new byte[128 * 1024];
-            int readCount;
-            long pos = 0;
-            if (pb != null)
-                pb.print(pos);
-
-            while ((readCount = in.read(buffer)) > 0) {
-                out.write(buffer, 0, readCount);
-                pos += readCount;
-                if (pb != null)
-                    pb.print(pos);
-            }
-            in.close();
-            out.close();
-            if (pb != null && pos != pb.getMax())
-                pb.print(fileSize);
+            MeteredInputStream wire = new MeteredInputStream(response.body(), options.bandwidth.forHost(response.url().getHost()));
+            // content decoding -> checksum of the published file -> optional decompression of .gz files
+            InputStream decoded = ContentEncoding.decode(wire, response.header("Content-Encoding"), options.bufferSize);
+            if (digest != null)
+                decoded = new DigestInputStream(decoded, digest);
+            InputStream published = decoded;
+            if (gunzip)
+                decoded = new GZIPInputStream(decoded, options.bufferSize);
+            long pos = offset;
+            // the decompressed bytes are written after the position of the published file
+            long written = offset;
+            ByteBuffer buffer = options.buffers.acquire(options.bufferSize);
+            try (InputStream in = decoded;
+                 DestinationWriter out = pipelined(DestinationWriter.positional(part.toFile().toPath(), -1, offset == 0))) {
+                int readCount;
+                monitor.progress(pos);
+
+                while ((readCount = in.read(buffer.array(), 0, buffer.capacity())) > 0) {
+                    monitor.firstByte(response.url());
+                    out.write(written, buffer.clear().limit(readCount));
+                    written += readCount;
+                    long received = offset + wire.count() - pos;
+                    pos += received;
+                    monitor.progress(pos);
+                    if (watchdog != null)
+                        watchdog.update(received);
+                }
+                if (gunzip)
+                    // the decompressor may stop before the end of the .gz file, but the checksum covers all of it
+                    published.transferTo(OutputStream.nullOutputStream());
+            } finally {
+                options.buffers.release(buffer);
+            }
+            pos = offset + wire.count();
+            if (fileSize != -1 && pos != fileSize)
+                throw new EOFException(String.format("Connection closed after %d of %d bytes", pos, fileSize));
+            if (checksum != null)
+                verify(checksum, digest, part, dest);
+            monitor.progress(pos);
+            monitor.complete(response.url());
             // return file
-            return dest;
+            return complete(part, src, response);
         } catch (IOException | IllegalStateException e) {
             logger.error(String.format("Failed to downloaded file from %s", src.getHost()), e);
-            throw new FileDownloadException("ERROR: Problem downloading file: " + e.getMessage());
-        }
-    }
-
-
-    protected static URLConnection connect(URLConnection conn, int connectionTimeout, String acceptHeaders, Set<String> visited)
-            throws IOException {
-        if (conn instanceof HttpURLConnection) {
-            // follow redirects to HTTPS
-            HttpURLConnection con = (HttpURLConnection) conn;
-            // we set the Accept encoding property to empty to force the download of files unzipped
-            conn.setRequestProperty("Accept-Encoding", "");
-            con.connect();
-            int responseCode = con.getResponseCode();
-            // redirect
-            if (responseCode == HttpURLConnection.HTTP_MOVED_TEMP
-                    || responseCode == HttpURLConnection.HTTP_MOVED_PERM
-                    || responseCode == HttpURLConnection.HTTP_SEE_OTHER
-                    // no constants for temporary and permanent redirect in HttpURLConnection
-                    || responseCode == 307 || responseCode == 308) {
-                String location = con.getHeaderField("Location");
-                if (visited.add(location)) {
-                    URL newURL = new URL(location);
-                    return connect(rebuildConnection(connectionTimeout, newURL, acceptHeaders),
-                            connectionTimeout, acceptHeaders, visited);
-                } else {
-                    throw new IllegalStateException(
-                            "Infinite loop: redirect cycle detected. " + visited);
-                }
-            }
+            throw new FileDownloadException("ERROR: Problem downloading file: " + e.getMessage(), e);
+        } finally {
+            closeQuietly(response);
+        }
+    }
+
+    /**
+     * Update the existing destination file with the blocks described by its zsync control file: the blocks that are
+     * still present in the existing file are copied from it, and only the others are downloaded with range requests.
+     *
+     * @param index    URL of the zsync control file
+     * @param response response to the request for the whole file, which has been closed
+     * @return the updated file or <code>null</code> if the existing file is up to date
+     * @throws DeltaUpdater.DeltaUnavailableException if the file has to be downloaded in full
+     */
+    private File deltaUpdate(URL src, URL index, File dest, PartFile part, HttpTransport.Response response,
+                             TransferMonitor monitor) throws IOException {
+        HttpTransport transport = transport();
+        DeltaUpdater updater = new DeltaUpdater(transport, options.bufferSize, options.buffers,
+                options.bandwidth.forHost(response.url().getHost()));
+        ZsyncIndex zsync = updater.fetchIndex(index);
+        if (response.header("Content-Encoding") == null && response.contentLength() >= 0
+                && response.contentLength() != zsync.length())
+            throw new DeltaUpdater.DeltaUnavailableException("The zsync control file of " + dest.getName()
+                    + " describes another version of the file");
+        Checksums.Checksum sha1 = new Checksums.Checksum(ChecksumAlgorithm.SHA1, zsync.sha1());
+        if (dest.length() == zsync.length() && sha1.matches(dest)) {
+            logger.info("\"{}\" matches its zsync control file", dest.getName());
+            monitor.notModified();
+            if (options.manifest != null)
+                options.manifest.record(dest, src, response.url(), response.header("ETag"), response.header("Last-Modified"));
+            return null;
+        }
+
+        part.discard();
+        // the blocks are written out of order, so the part file must not be resumed from its length
+        part.startSegmented(src, validator(response), zsync.length());
+        long downloaded;
+        try (DestinationWriter writer = pipelined(DestinationWriter.positional(part.toFile().toPath(), zsync.length(), true))) {
+            downloaded = updater.update(response.url(), zsync, dest, writer, monitor);
+        }
+        if (!sha1.matches(part.toFile())) {
+            part.discard();
+            throw new DeltaUpdater.DeltaUnavailableException("The delta update of " + dest.getName()
+                    + " does not match the SHA-1 of its zsync control file");
+        }
+        Checksums.Checksum checksum = options.checksums.expected(src, dest.getName(), transport);
+        if (checksum != null) {
+            MessageDigest digest = checksum.newDigest();
+            Checksums.Checksum.update(digest, part.toFile(), zsync.length());
+            verify(checksum, digest, part, dest);
         }
-        return conn;
+        monitor.complete(response.url(), downloaded);
+        return complete(part, src, response);
     }
 
-    protected static URLConnection rebuildConnection(int connectionTimeout, URL newURL, String acceptHeaders) throws IOException {
-        URLConnection conn;
-        conn = newURL.openConnection();
-        final String ACCEPTABLE_CONTENT_ENCODING = "xz,gzip,deflate";
-        conn.addRequestProperty("Accept", acceptHeaders);
-        conn.setRequestProperty("Accept-Encoding", ACCEPTABLE_CONTENT_ENCODING);
-        conn.setConnectTimeout(connectionTimeout);
-        return conn;
+    /**
+     * @return <code>writer</code>, or a {@link WriteBehindWriter} around it if {@link Options#writeBehind} is set
+     */
+    private DestinationWriter pipelined(DestinationWriter writer) {
+        if (options.writeBehind < 1)
+            return writer;
+        return new WriteBehindWriter(writer, options.buffers, options.bufferSize, options.writeBehind, options.fsync);
     }
 
+    /**
+     * Verify the digest of the downloaded bytes, the part file is discarded if the digest does not match.
+     */
+    private static void verify(Checksums.Checksum checksum, MessageDigest digest, PartFile part, File dest) throws IOException {
+        try {
+            checksum.verify(digest, dest.getName());
+        } catch (IOException e) {
+            part.discard();
+            throw e;
+        }
+    }
 
     /**
-     * Set system properties from {@link #options}.
+     * @return the transport of the downloads, which sends the <code>ftp://</code> requests to
+     * the {@link Options#ftpTransport} unless an FTP proxy is configured, through the {@link Options#redirects}
+     * if set
      */
-    private void setProxyProperties() {
-        if (options.ftp.host != null)
-            System.setProperty("ftp.proxyHost", options.ftp.host);
-        if (options.ftp.port != -1)
-            System.setProperty("ftp.proxyPort", Integer.toString(options.ftp.port));
-        if (options.ftp.user != null)
-            System.setProperty("ftp.proxyUser", options.ftp.user);
-        if (options.ftp.password != null)
-            System.setProperty("ftp.proxyPassword", options.ftp.password);
+    HttpTransport transport() {
+        HttpTransport transport = options.transport != null
+                ? options.transport
+                : new UrlConnectionTransport(CONNECTION_TIMEOUT, options.proxies);
+        if (options.proxies.ftp.host == null)
+            // the proxy is only known to the URL connections
+            transport = withFtpTransport(transport);
+        return options.redirects != null
+                ? options.redirects.cached(transport)
+                : transport;
+    }
 
-        if (options.http.host != null)
-            System.setProperty("http.proxyHost", options.http.host);
-        if (options.http.port != -1)
-            System.setProperty("http.proxyPort", Integer.toString(options.http.port));
-        if (options.http.user != null)
-            System.setProperty("http.proxyUser", options.http.user);
-        if (options.http.password != null)
-            System.setProperty("http.proxyPassword", options.http.password);
+    private HttpTransport withFtpTransport(HttpTransport transport) {
+        return new HttpTransport() {
+            @Override
+            public Response get(URL url, Map<String, String> requestProperties, RedirectListener redirects) throws IOException {
+                return url.getProtocol().equals("ftp")
+                        ? options.ftpTransport.get(url, requestProperties, redirects)
+                        : transport.get(url, requestProperties, redirects);
+            }
 
-        if (options.https.host != null)
-            System.setProperty("https.proxyHost", options.https.host);
-        if (options.https.port != -1)
-            System.setProperty("https.proxyPort", Integer.toString(options.https.port));
-        if (options.https.user != null)
-            System.setProperty("https.proxyUser", options.https.user);
-        if (options.https.password != null)
-            System.setProperty("https.proxyPassword", options.https.password);
+            @Override
+            public Response head(URL url, Map<String, String> requestProperties) throws IOException {
+                return url.getProtocol().equals("ftp")
+                        ? options.ftpTransport.head(url, requestProperties)
+                        : transport.head(url, requestProperties);
+            }
+        };
     }
 
+    private static void closeQuietly(HttpTransport.Response response) {
+        if (response == null)
+            return;
+        try {
+            response.close();
+        } catch (IOException e) {
+            logger.debug("Error closing the connection to {}: {}", response.url(), e.getMessage());
+        }
+    }
+
+    /**
+     * Move the part file to its destination and record the metadata of the response in the {@link Options#manifest}.
+     */
+    private File complete(PartFile part, URL src, HttpTransport.Response response) throws IOException {
+        File dest = part.complete();
+        if (options.manifest != null)
+            options.manifest.record(dest, src, response.url(), response.header("ETag"), response.header("Last-Modified"));
+        return dest;
+    }
+
+    /**
+     * Check the response to a request for the remaining bytes of a partial download.
+     *
+     * @param size size of the file on the mirror that the partial download came from, or -1 if it came from
+     *             the same source
+     * @return <code>offset</code> if the server sent the remaining bytes, or 0 if the server sent the whole file,
+     * did not accept the range or serves a file of another size
+     */
+    private static long resumedOffset(HttpTransport.Response response, long offset, long size) throws IOException {
+        if (response.statusCode() != HttpURLConnection.HTTP_PARTIAL) {
+            // 200 means that the remote file has changed since the part file was written
+            logger.info("Server sent HTTP {} for the resumed download from {}, starting from the beginning", response.statusCode(), response.url());
+            return 0;
+        }
+        String contentRange = response.header("Content-Range");
+        if (contentRange == null || !contentRange.startsWith("bytes " + offset + "-"))
+            throw new IOException("Unexpected Content-Range for the resumed download from " + response.url() + ": " + contentRange);
+        if (size >= 0 && !contentRange.endsWith("/" + size)) {
+            logger.info("{} serves a file of another size than the mirror of the partial download, starting from the beginning", response.url());
+            return 0;
+        }
+        return offset;
+    }
+
+    /**
+     * @return a strong <code>ETag</code> or <code>Last-Modified</code> value of the response, suitable for
+     * the <code>If-Range</code> header, or <code>null</code> if there is none
+     */
+    private static String validator(HttpTransport.Response response) {
+        String etag = response.header("ETag");
+        if (etag != null && !etag.startsWith("W/"))
+            return etag;
+        return response.header("Last-Modified");
+    }
 }
 
 
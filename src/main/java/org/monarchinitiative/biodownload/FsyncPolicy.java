@@ -0,0 +1,14 @@
+package org.monarchinitiative.biodownload;
+
+/**
+ * When the write-behind stage forces the downloaded bytes to the storage device, see
+ * {@link BioDownloaderBuilder#writeBehind(int, FsyncPolicy)}.
+ */
+public enum FsyncPolicy {
+    /** The operating system writes the bytes back when it sees fit. */
+    NONE,
+    /** Every 2 seconds and when the file is complete, which bounds the unwritten bytes of a slow file system. */
+    PERIODIC,
+    /** When the file is complete, before it gets its final name. */
+    ON_COMPLETE
+}
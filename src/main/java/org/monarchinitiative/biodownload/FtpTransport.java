@@ -0,0 +1,222 @@
+package org.monarchinitiative.biodownload;
+
+import org.monarchinitiative.biodownload.ftp.FtpConnection;
+import org.monarchinitiative.biodownload.ftp.FtpConnectionPool;
+import org.monarchinitiative.biodownload.ftp.FtpException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * {@link HttpTransport} for <code>ftp://</code> URLs, built on the passive-mode {@link FtpConnection}.
+ * <p>
+ * The FTP commands are presented to the {@link FileDownloader} as HTTP responses, so that the FTP downloads are
+ * resumed, checked for changes and retried like the HTTP downloads: the size and the modification time of the file
+ * (<code>SIZE</code> and <code>MDTM</code>) become the <code>Content-Length</code> and <code>Last-Modified</code>
+ * headers, a <code>Range</code> request becomes a <code>REST</code> command and an unchanged file is reported
+ * as <code>304 Not Modified</code>. The control connections are kept in a {@link FtpConnectionPool}, so that
+ * the files from the same server are downloaded after a single login.
+ */
+class FtpTransport implements HttpTransport {
+
+    private static final Logger logger = LoggerFactory.getLogger(FtpTransport.class);
+
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-");
+    /** no constant for range not satisfiable in HttpURLConnection */
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    private final FtpConnectionPool pool;
+
+    /**
+     * @param connectionTimeout connection timeout in milliseconds
+     */
+    FtpTransport(int connectionTimeout) {
+        this.pool = new FtpConnectionPool(connectionTimeout);
+    }
+
+    @Override
+    public Response get(URL url, Map<String, String> requestProperties, RedirectListener redirects) throws IOException {
+        return request(url, requestProperties, true);
+    }
+
+    /**
+     * Describe the file with <code>SIZE</code> and <code>MDTM</code>, without transferring it. The response announces
+     * <code>Accept-Ranges: bytes</code>, since the transfers are resumed with <code>REST</code>.
+     */
+    @Override
+    public Response head(URL url, Map<String, String> requestProperties) throws IOException {
+        return request(url, requestProperties, false);
+    }
+
+    private Response request(URL url, Map<String, String> requestProperties, boolean retrieve) throws IOException {
+        String path = path(url);
+        FtpConnection connection = pool.acquire(url);
+        try {
+            long size = connection.size(path);
+            Instant modified = connection.modificationTime(path);
+            String lastModified = modified == null ? null
+                    : DateTimeFormatter.RFC_1123_DATE_TIME.format(modified.atZone(ZoneOffset.UTC));
+            Map<String, String> headers = new HashMap<>();
+            if (lastModified != null)
+                headers.put("last-modified", lastModified);
+
+            if (modified != null && notModifiedSince(modified, requestProperties.get("If-Modified-Since"))) {
+                logger.debug("{} has not been modified since {}", url, requestProperties.get("If-Modified-Since"));
+                return new FtpResponse(url, connection, HttpURLConnection.HTTP_NOT_MODIFIED, headers, -1, null);
+            }
+            if (!retrieve) {
+                headers.put("accept-ranges", "bytes");
+                return new FtpResponse(url, connection, HttpURLConnection.HTTP_OK, headers, size, null);
+            }
+
+            long offset = offset(requestProperties.get("Range"));
+            String ifRange = requestProperties.get("If-Range");
+            if (offset > 0 && (size < 0 || ifRange != null && !ifRange.equals(lastModified)))
+                // the file has changed or the remaining range cannot be described, send all of it
+                offset = 0;
+            if (offset > 0 && offset >= size) {
+                headers.put("content-range", "bytes */" + size);
+                return new FtpResponse(url, connection, HTTP_RANGE_NOT_SATISFIABLE, headers, -1, null);
+            }
+
+            InputStream body = connection.retrieve(path, offset);
+            long contentLength = size < 0 ? -1 : size - offset;
+            if (offset > 0) {
+                headers.put("content-range", "bytes " + offset + "-" + (size - 1) + "/" + size);
+                return new FtpResponse(url, connection, HttpURLConnection.HTTP_PARTIAL, headers, contentLength, body);
+            }
+            return new FtpResponse(url, connection, HttpURLConnection.HTTP_OK, headers, contentLength, body);
+        } catch (FtpException e) {
+            logger.debug("FTP request for {} failed: {}", url, e.getMessage());
+            return new FtpResponse(url, connection, statusCode(e), Map.of(), -1, null);
+        } catch (IOException | RuntimeException e) {
+            pool.release(connection);
+            throw e;
+        }
+    }
+
+    /**
+     * Close the control connections kept open for the next transfers. The transport stays usable, the next
+     * transfers open new connections.
+     */
+    void closeIdleConnections() {
+        pool.close();
+    }
+
+    /** @return the path of the file on the server, without the <code>;type=</code> suffix */
+    private static String path(URL url) {
+        String path = url.getPath();
+        int semicolon = path.indexOf(';');
+        if (semicolon >= 0)
+            path = path.substring(0, semicolon);
+        return URLDecoder.decode(path, StandardCharsets.UTF_8);
+    }
+
+    private static long offset(String range) {
+        if (range == null)
+            return 0;
+        Matcher matcher = RANGE.matcher(range.trim());
+        return matcher.matches() ? Long.parseLong(matcher.group(1)) : 0;
+    }
+
+    private static boolean notModifiedSince(Instant modified, String ifModifiedSince) {
+        if (ifModifiedSince == null)
+            return false;
+        try {
+            Instant since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+            return !modified.isAfter(since);
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the HTTP status that corresponds to an FTP error reply: 404 for a missing file, 503 for the transient
+     * 4xx replies, so that the download is retried, and 400 for the other replies
+     */
+    private static int statusCode(FtpException e) {
+        if (e.replyCode() == 550)
+            return HttpURLConnection.HTTP_NOT_FOUND;
+        if (e.isTransient())
+            return HttpURLConnection.HTTP_UNAVAILABLE;
+        return HttpURLConnection.HTTP_BAD_REQUEST;
+    }
+
+    /**
+     * Response backed by a pooled connection, which is returned to the pool when the response is closed.
+     */
+    private class FtpResponse implements Response {
+
+        private final URL url;
+        private final FtpConnection connection;
+        private final int statusCode;
+        private final Map<String, String> headers;
+        private final long contentLength;
+        private final InputStream body;
+        private boolean closed = false;
+
+        private FtpResponse(URL url, FtpConnection connection, int statusCode, Map<String, String> headers,
+                            long contentLength, InputStream body) {
+            this.url = url;
+            this.connection = connection;
+            this.statusCode = statusCode;
+            this.headers = headers;
+            this.contentLength = contentLength;
+            this.body = body;
+        }
+
+        @Override
+        public int statusCode() {
+            return statusCode;
+        }
+
+        @Override
+        public URL url() {
+            return url;
+        }
+
+        @Override
+        public String header(String name) {
+            return headers.get(name.toLowerCase(Locale.ROOT));
+        }
+
+        @Override
+        public long contentLength() {
+            return contentLength;
+        }
+
+        @Override
+        public InputStream body() {
+            return body == null ? InputStream.nullInputStream() : body;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed)
+                return;
+            closed = true;
+            try {
+                if (body != null)
+                    body.close();
+            } finally {
+                pool.release(connection);
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package org.monarchinitiative.biodownload;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Limits the number of transfers running against a single host at the same time, shared by the downloads of
+ * a {@link BioDownloader}. A transfer takes a permit of the host that actually serves it, i.e. of the mirror chosen
+ * by the {@link MirrorSelector} rather than of the primary URL of the resource.
+ */
+class HostPermits {
+
+    private final int permitsPerHost;
+    private final Map<String, Semaphore> hosts = new ConcurrentHashMap<>();
+
+    HostPermits(int permitsPerHost) {
+        this.permitsPerHost = permitsPerHost;
+    }
+
+    /**
+     * Wait for a permit of <code>host</code>, which must be {@link #release(String) released}. The waiting transfers
+     * get the permits in the order of their arrival.
+     */
+    void acquire(String host) throws InterruptedException {
+        semaphore(host).acquire();
+    }
+
+    void release(String host) {
+        semaphore(host).release();
+    }
+
+    private Semaphore semaphore(String host) {
+        return hosts.computeIfAbsent(host.toLowerCase(Locale.ROOT), h -> new Semaphore(permitsPerHost, true));
+    }
+}
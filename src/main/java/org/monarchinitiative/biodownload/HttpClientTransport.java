@@ -0,0 +1,238 @@
+package org.monarchinitiative.biodownload;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link HttpTransport} built on {@link HttpClient}.
+ * <p>
+ * A single client is shared by all downloads of a {@link BioDownloader}, so that the connections (and their TLS
+ * sessions) to a host are kept alive and reused, and HTTP/2 requests to the same host are multiplexed over
+ * a single connection. The redirects are followed by the client. URLs other than HTTP(S) are delegated
+ * to the {@link UrlConnectionTransport}. The requests go through the {@link Proxies} of the downloader.
+ * <p>
+ * The client only bounds the wait for the response headers, a body that stops arriving is closed after the read
+ * timeout by a timer shared by the transports.
+ */
+class HttpClientTransport implements HttpTransport {
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "biodownload-read-timeout");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final HttpClient client;
+    private final HttpTransport fallback;
+    private final Duration readTimeout;
+
+    HttpClientTransport(int connectionTimeout) {
+        this(connectionTimeout, new Proxies());
+    }
+
+    HttpClientTransport(int connectionTimeout, Proxies proxies) {
+        this(connectionTimeout, FileDownloader.READ_TIMEOUT, proxies);
+    }
+
+    /**
+     * @param connectionTimeout connection timeout in milliseconds
+     * @param readTimeout       time in milliseconds after which a request that receives no bytes fails
+     * @param proxies           proxies of the connections
+     */
+    HttpClientTransport(int connectionTimeout, int readTimeout, Proxies proxies) {
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofMillis(connectionTimeout))
+                .proxy(proxies)
+                .authenticator(proxies.authenticator())
+                .build();
+        this.fallback = new UrlConnectionTransport(connectionTimeout, readTimeout, proxies);
+        this.readTimeout = Duration.ofMillis(readTimeout);
+    }
+
+    @Override
+    public Response get(URL url, Map<String, String> requestProperties, RedirectListener redirects) throws IOException {
+        String protocol = url.getProtocol();
+        if (!protocol.equals("http") && !protocol.equals("https"))
+            return fallback.get(url, requestProperties, redirects);
+
+        try {
+            HttpRequest.Builder builder = HttpRequest.newBuilder(url.toURI()).timeout(readTimeout).GET();
+            requestProperties.forEach(builder::setHeader);
+            HttpResponse<InputStream> response = client.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+            reportRedirects(response, redirects);
+            return new HttpClientResponse(response, readTimeout);
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid URL " + url, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while connecting to " + url, e);
+        } catch (IOException e) {
+            throw failure(url, e);
+        }
+    }
+
+    @Override
+    public Response head(URL url, Map<String, String> requestProperties) throws IOException {
+        String protocol = url.getProtocol();
+        if (!protocol.equals("http") && !protocol.equals("https"))
+            return fallback.head(url, requestProperties);
+
+        try {
+            HttpRequest.Builder builder = HttpRequest.newBuilder(url.toURI()).timeout(readTimeout).method("HEAD", HttpRequest.BodyPublishers.noBody());
+            requestProperties.forEach(builder::setHeader);
+            return new HttpClientResponse(client.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream()),
+                    readTimeout);
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid URL " + url, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while connecting to " + url, e);
+        } catch (IOException e) {
+            throw failure(url, e);
+        }
+    }
+
+    /**
+     * @return an exception naming <code>url</code>, since the exceptions of the client, e.g. a
+     * {@link java.net.ConnectException}, often have no message
+     */
+    private static IOException failure(URL url, IOException e) {
+        return new IOException("Request to " + url + " failed: " + e, e);
+    }
+
+    /**
+     * The client follows the redirects by itself, the hops are reported once the final response has arrived.
+     */
+    private static void reportRedirects(HttpResponse<?> response, RedirectListener redirects) throws IOException {
+        Deque<HttpResponse<?>> hops = new ArrayDeque<>();
+        for (HttpResponse<?> previous = response.previousResponse().orElse(null); previous != null;
+             previous = previous.previousResponse().orElse(null))
+            hops.push(previous);
+        URI to = response.uri();
+        HttpResponse<?> hop;
+        while ((hop = hops.poll()) != null) {
+            URI next = hops.isEmpty() ? to : hops.peek().uri();
+            redirects.redirected(hop.uri().toURL(), next.toURL(), hop.statusCode());
+        }
+    }
+
+    private static class HttpClientResponse implements Response {
+
+        private final HttpResponse<InputStream> response;
+        private final InputStream body;
+
+        private HttpClientResponse(HttpResponse<InputStream> response, Duration readTimeout) {
+            this.response = response;
+            this.body = new TimedInputStream(response.body(), readTimeout.toMillis());
+        }
+
+        @Override
+        public int statusCode() {
+            return response.statusCode();
+        }
+
+        @Override
+        public URL url() {
+            try {
+                return response.uri().toURL();
+            } catch (IOException e) {
+                // the URI was created from a URL
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public String header(String name) {
+            return response.headers().firstValue(name).orElse(null);
+        }
+
+        @Override
+        public long contentLength() {
+            return response.headers().firstValueAsLong("Content-Length").orElse(-1);
+        }
+
+        @Override
+        public InputStream body() throws IOException {
+            if (response.statusCode() >= 400)
+                throw new IOException("Server returned HTTP response code: " + response.statusCode() + " for URL: " + response.uri());
+            return body;
+        }
+
+        @Override
+        public void close() throws IOException {
+            body.close();
+        }
+    }
+
+    /**
+     * Body whose reads fail with a {@link SocketTimeoutException} if no bytes arrive within the timeout: the body is
+     * closed from the timer, which ends the blocked read.
+     */
+    private static class TimedInputStream extends FilterInputStream {
+
+        private final long timeoutMillis;
+        private volatile boolean timedOut = false;
+
+        private TimedInputStream(InputStream in, long timeoutMillis) {
+            super(in);
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        @Override
+        public int read() throws IOException {
+            ScheduledFuture<?> timeout = TIMER.schedule(this::timeOut, timeoutMillis, TimeUnit.MILLISECONDS);
+            try {
+                return super.read();
+            } catch (IOException e) {
+                throw timedOut ? timeoutException(e) : e;
+            } finally {
+                timeout.cancel(false);
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            ScheduledFuture<?> timeout = TIMER.schedule(this::timeOut, timeoutMillis, TimeUnit.MILLISECONDS);
+            try {
+                return super.read(b, off, len);
+            } catch (IOException e) {
+                throw timedOut ? timeoutException(e) : e;
+            } finally {
+                timeout.cancel(false);
+            }
+        }
+
+        private void timeOut() {
+            timedOut = true;
+            try {
+                in.close();
+            } catch (IOException e) {
+                // the blocked read fails anyway
+            }
+        }
+
+        private IOException timeoutException(IOException e) {
+            SocketTimeoutException timeout = new SocketTimeoutException("Read timed out after " + timeoutMillis + " ms");
+            timeout.initCause(e);
+            return timeout;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.monarchinitiative.biodownload;
+
+import java.io.IOException;
+import java.net.URL;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Signals that the server answered a request with an error status.
+ */
+class HttpStatusException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+    /** delay requested by the <code>Retry-After</code> header, or <code>null</code> */
+    private final transient Duration retryAfter;
+
+    HttpStatusException(int statusCode, URL url, Duration retryAfter) {
+        super("Server returned HTTP response code: " + statusCode + " for URL: " + url);
+        this.statusCode = statusCode;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @throws HttpStatusException if the response has an error status
+     */
+    static void check(HttpTransport.Response response) throws IOException {
+        int statusCode = response.statusCode();
+        if (statusCode >= 400)
+            throw new HttpStatusException(statusCode, response.url(), parseRetryAfter(response.header("Retry-After")));
+    }
+
+    int statusCode() {
+        return statusCode;
+    }
+
+    Duration retryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * @param value value of the <code>Retry-After</code> header, either a number of seconds or an HTTP date
+     * @return the delay or <code>null</code> if the value is missing or invalid
+     */
+    static Duration parseRetryAfter(String value) {
+        if (value == null)
+            return null;
+        value = value.trim();
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(value)));
+        } catch (NumberFormatException e) {
+            // not a number of seconds
+        }
+        try {
+            Instant date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+            Duration delay = Duration.between(Instant.now(), date);
+            return delay.isNegative() ? Duration.ZERO : delay;
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.monarchinitiative.biodownload;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * The way the {@link FileDownloader} sends its requests. The redirects are followed by the transport, the response
+ * describes the final location.
+ */
+interface HttpTransport {
+
+    /**
+     * Send a <code>GET</code> request and follow the redirects.
+     *
+     * @param url               the requested URL
+     * @param requestProperties additional request headers, e.g. <code>Range</code>
+     * @return the response to the request, which must be closed by the caller
+     * @throws IOException if the request could not be sent
+     */
+    default Response get(URL url, Map<String, String> requestProperties) throws IOException {
+        return get(url, requestProperties, (from, to, statusCode) -> {
+        });
+    }
+
+    /**
+     * Send a <code>GET</code> request and follow the redirects, reporting each redirect hop.
+     *
+     * @param url               the requested URL
+     * @param requestProperties additional request headers, e.g. <code>Range</code>
+     * @param redirects         notified of the redirects that were followed
+     * @return the response to the request, which must be closed by the caller
+     * @throws IOException if the request could not be sent
+     */
+    Response get(URL url, Map<String, String> requestProperties, RedirectListener redirects) throws IOException;
+
+    /**
+     * Ask for the headers of a file, following the redirects. The default implementation sends a <code>GET</code>
+     * request whose body is not read.
+     *
+     * @param url               the requested URL
+     * @param requestProperties additional request headers
+     * @return the response to the request without a body, which must be closed by the caller
+     * @throws IOException if the request could not be sent
+     */
+    default Response head(URL url, Map<String, String> requestProperties) throws IOException {
+        return get(url, requestProperties);
+    }
+
+    /**
+     * Notified of the redirects followed by a transport.
+     */
+    @FunctionalInterface
+    interface RedirectListener {
+        void redirected(URL from, URL to, int statusCode);
+    }
+
+    /**
+     * Response to a request. Responses to non-HTTP requests (e.g. FTP) report status 200 and no headers.
+     */
+    interface Response extends Closeable {
+
+        int statusCode() throws IOException;
+
+        /** @return URL of the response after following the redirects */
+        URL url();
+
+        /** @return the first value of the header or <code>null</code> if the header is not present */
+        String header(String name);
+
+        /** @return the value of the <code>Content-Length</code> header or -1 if not known */
+        long contentLength();
+
+        InputStream body() throws IOException;
+    }
+}
@@ -0,0 +1,116 @@
+package org.monarchinitiative.biodownload;
+
+import java.security.MessageDigest;
+
+/**
+ * The MD4 message digest (RFC 1320), which the zsync control files use as the strong checksum of the blocks.
+ * <p>
+ * The Java platforms are not required to provide MD4, and the providers that have it do not register it.
+ */
+class Md4 extends MessageDigest {
+
+    private static final int BLOCK_LENGTH = 64;
+    private static final int ROUND_2 = 0x5a827999;
+    private static final int ROUND_3 = 0x6ed9eba1;
+
+    private final int[] state = new int[4];
+    private final int[] x = new int[16];
+    private final byte[] buffer = new byte[BLOCK_LENGTH];
+    /** number of bytes digested so far */
+    private long count;
+
+    Md4() {
+        super("MD4");
+        engineReset();
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return 16;
+    }
+
+    @Override
+    protected void engineReset() {
+        state[0] = 0x67452301;
+        state[1] = 0xefcdab89;
+        state[2] = 0x98badcfe;
+        state[3] = 0x10325476;
+        count = 0;
+    }
+
+    @Override
+    protected void engineUpdate(byte input) {
+        engineUpdate(new byte[]{input}, 0, 1);
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int len) {
+        int index = (int) (count % BLOCK_LENGTH);
+        count += len;
+        int i = 0;
+        if (index + len >= BLOCK_LENGTH) {
+            i = BLOCK_LENGTH - index;
+            System.arraycopy(input, offset, buffer, index, i);
+            transform(buffer, 0);
+            for (; i + BLOCK_LENGTH <= len; i += BLOCK_LENGTH)
+                transform(input, offset + i);
+            index = 0;
+        }
+        System.arraycopy(input, offset + i, buffer, index, len - i);
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        long bits = count << 3;
+        int index = (int) (count % BLOCK_LENGTH);
+        int padding = index < 56 ? 56 - index : 120 - index;
+        byte[] tail = new byte[padding + 8];
+        tail[0] = (byte) 0x80;
+        for (int i = 0; i < 8; i++)
+            tail[padding + i] = (byte) (bits >>> (8 * i));
+        engineUpdate(tail, 0, tail.length);
+
+        byte[] digest = new byte[16];
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++)
+                digest[4 * i + j] = (byte) (state[i] >>> (8 * j));
+        }
+        engineReset();
+        return digest;
+    }
+
+    private void transform(byte[] block, int offset) {
+        for (int i = 0; i < 16; i++) {
+            int p = offset + 4 * i;
+            x[i] = (block[p] & 0xff) | (block[p + 1] & 0xff) << 8 | (block[p + 2] & 0xff) << 16 | (block[p + 3] & 0xff) << 24;
+        }
+        int a = state[0];
+        int b = state[1];
+        int c = state[2];
+        int d = state[3];
+
+        for (int i = 0; i < 16; i += 4) {
+            a = Integer.rotateLeft(a + ((b & c) | (~b & d)) + x[i], 3);
+            d = Integer.rotateLeft(d + ((a & b) | (~a & c)) + x[i + 1], 7);
+            c = Integer.rotateLeft(c + ((d & a) | (~d & b)) + x[i + 2], 11);
+            b = Integer.rotateLeft(b + ((c & d) | (~c & a)) + x[i + 3], 19);
+        }
+        for (int i = 0; i < 4; i++) {
+            a = Integer.rotateLeft(a + ((b & c) | (b & d) | (c & d)) + x[i] + ROUND_2, 3);
+            d = Integer.rotateLeft(d + ((a & b) | (a & c) | (b & c)) + x[i + 4] + ROUND_2, 5);
+            c = Integer.rotateLeft(c + ((d & a) | (d & b) | (a & b)) + x[i + 8] + ROUND_2, 9);
+            b = Integer.rotateLeft(b + ((c & d) | (c & a) | (d & a)) + x[i + 12] + ROUND_2, 13);
+        }
+        for (int i : new int[]{0, 2, 1, 3}) {
+            a = Integer.rotateLeft(a + (b ^ c ^ d) + x[i] + ROUND_3, 3);
+            d = Integer.rotateLeft(d + (a ^ b ^ c) + x[i + 8] + ROUND_3, 9);
+            c = Integer.rotateLeft(c + (d ^ a ^ b) + x[i + 4] + ROUND_3, 11);
+            b = Integer.rotateLeft(b + (c ^ d ^ a) + x[i + 12] + ROUND_3, 15);
+        }
+
+        state[0] += a;
+        state[1] += b;
+        state[2] += c;
+        state[3] += d;
+    }
+}
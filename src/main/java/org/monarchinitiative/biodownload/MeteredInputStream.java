@@ -0,0 +1,53 @@
+package org.monarchinitiative.biodownload;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stream that counts the bytes read from the network, before any decoding, and holds the reads back
+ * to the bandwidth limit of its {@link Throttle}.
+ */
+class MeteredInputStream extends FilterInputStream {
+
+    private final Throttle throttle;
+    private long count = 0;
+
+    MeteredInputStream(InputStream in, Throttle throttle) {
+        super(in);
+        this.throttle = throttle;
+    }
+
+    /** @return number of bytes read so far */
+    long count() {
+        return count;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            count++;
+            throttle.acquire(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int readCount = super.read(b, off, len);
+        if (readCount > 0) {
+            count += readCount;
+            throttle.acquire(readCount);
+        }
+        return readCount;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        count += skipped;
+        throttle.acquire(skipped);
+        return skipped;
+    }
+}
@@ -0,0 +1,179 @@
+package org.monarchinitiative.biodownload;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Orders the mirrors of a resource by their latency and detects the transfers whose throughput collapses, so that
+ * the {@link FileDownloader} can continue them from the next mirror.
+ * <p>
+ * The mirrors are probed in parallel: the time to open a TCP connection, plus for HTTP(S) the time to answer a request
+ * for the first byte of the file. A local (<code>file:</code>) mirror needs no probe and comes first. The mirrors that
+ * fail the probe come last, in their original order. The mirrors reached through a proxy are only probed with
+ * the request.
+ */
+class MirrorSelector {
+
+    private static final Logger logger = LoggerFactory.getLogger(MirrorSelector.class);
+
+    /** Time after which a mirror that does not answer the probe is considered unreachable. */
+    Duration probeTimeout = Duration.ofSeconds(5);
+    /** Length of the windows in which the throughput of a transfer is measured. */
+    Duration throughputWindow = Duration.ofSeconds(5);
+    /** A transfer collapses when the throughput of a window drops below the best window divided by this factor. */
+    int collapseFactor = 10;
+
+    MirrorSelector copy() {
+        MirrorSelector copy = new MirrorSelector();
+        copy.probeTimeout = probeTimeout;
+        copy.throughputWindow = throughputWindow;
+        copy.collapseFactor = collapseFactor;
+        return copy;
+    }
+
+    /**
+     * @param mirrors   URLs of the same file
+     * @param transport transport that sends the probes
+     * @return the mirrors, the fastest first
+     */
+    List<URL> rank(List<URL> mirrors, HttpTransport transport) {
+        return rank(mirrors, transport, new Proxies());
+    }
+
+    /**
+     * @param mirrors   URLs of the same file
+     * @param transport transport that sends the probes
+     * @param proxies   proxies of the transport
+     * @return the mirrors, the fastest first
+     */
+    List<URL> rank(List<URL> mirrors, HttpTransport transport, Proxies proxies) {
+        if (mirrors.size() < 2)
+            return mirrors;
+        ExecutorService executor = Executors.newFixedThreadPool(mirrors.size(), r -> {
+            Thread thread = new Thread(r, "biodownload-probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<CompletableFuture<Long>> probes = new ArrayList<>();
+            // a mirror that accepts the connection but never answers is as good as unreachable
+            for (URL mirror : mirrors)
+                probes.add(CompletableFuture.supplyAsync(() -> probe(mirror, transport, proxies), executor)
+                        .completeOnTimeout(Long.MAX_VALUE, probeTimeout.toMillis(), TimeUnit.MILLISECONDS));
+            List<Map.Entry<URL, Long>> latencies = new ArrayList<>();
+            for (int i = 0; i < mirrors.size(); i++)
+                latencies.add(Map.entry(mirrors.get(i), probes.get(i).join()));
+            // a stable sort keeps the order of the mirrors with the same latency
+            latencies.sort(Comparator.comparingLong(Map.Entry::getValue));
+            List<URL> ranked = new ArrayList<>();
+            for (Map.Entry<URL, Long> latency : latencies) {
+                logger.debug("Mirror {}: {}", latency.getKey(),
+                        latency.getValue() == Long.MAX_VALUE ? "unreachable" : latency.getValue() / 1_000_000 + " ms");
+                ranked.add(latency.getKey());
+            }
+            return ranked;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return latency of the mirror in nanoseconds, or {@link Long#MAX_VALUE} if the mirror cannot be reached
+     */
+    private long probe(URL mirror, HttpTransport transport, Proxies proxies) {
+        long start = System.nanoTime();
+        try {
+            if (mirror.getProtocol().equals("file"))
+                return Files.isReadable(Path.of(mirror.toURI())) ? 0 : Long.MAX_VALUE;
+            if (proxies.proxy(mirror).type() == Proxy.Type.DIRECT) {
+                int port = mirror.getPort() == -1 ? mirror.getDefaultPort() : mirror.getPort();
+                try (Socket socket = new Socket()) {
+                    socket.connect(new InetSocketAddress(mirror.getHost(), port), (int) probeTimeout.toMillis());
+                }
+            }
+            if (mirror.getProtocol().startsWith("http")) {
+                try (HttpTransport.Response response = transport.get(mirror,
+                        Map.of("Range", "bytes=0-0", "Accept-Encoding", ContentEncoding.IDENTITY))) {
+                    if (response.statusCode() >= 400)
+                        return Long.MAX_VALUE;
+                }
+            }
+            return System.nanoTime() - start;
+        } catch (IOException | URISyntaxException | IllegalArgumentException e) {
+            logger.debug("Probe of mirror {} failed: {}", mirror, e.getMessage());
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * @return a new watchdog of the throughput of a transfer
+     */
+    ThroughputWatchdog watchdog() {
+        return new ThroughputWatchdog(throughputWindow.toNanos(), collapseFactor);
+    }
+
+    /**
+     * Follows the throughput of a single transfer in consecutive windows.
+     */
+    static class ThroughputWatchdog {
+
+        private final long windowNanos;
+        private final int collapseFactor;
+        private long windowStart = System.nanoTime();
+        private long windowBytes = 0;
+        private double bestRate = 0;
+
+        ThroughputWatchdog(long windowNanos, int collapseFactor) {
+            this.windowNanos = windowNanos;
+            this.collapseFactor = collapseFactor;
+        }
+
+        /**
+         * @param bytes number of bytes received since the previous update
+         * @throws SlowTransferException if the throughput of the last window collapsed
+         */
+        void update(long bytes) throws SlowTransferException {
+            windowBytes += bytes;
+            long now = System.nanoTime();
+            long elapsed = now - windowStart;
+            if (elapsed < windowNanos)
+                return;
+            double rate = windowBytes * 1e9 / elapsed;
+            if (rate * collapseFactor < bestRate)
+                throw new SlowTransferException(String.format("Throughput dropped to %d bytes/s from %d bytes/s",
+                        (long) rate, (long) bestRate));
+            bestRate = Math.max(bestRate, rate);
+            windowStart = now;
+            windowBytes = 0;
+        }
+    }
+
+    /**
+     * Signals that a transfer became too slow and should be continued from another mirror.
+     */
+    static class SlowTransferException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        SlowTransferException(String msg) {
+            super(msg);
+        }
+    }
+}
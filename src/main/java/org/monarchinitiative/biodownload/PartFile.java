@@ -0,0 +1,205 @@
+package org.monarchinitiative.biodownload;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * The <code>.part</code> file that receives the bytes of an ongoing download, together with a small properties file
+ * that records where the bytes came from.
+ * <p>
+ * The destination file only appears when the download is complete, by renaming the part file. A part file left
+ * behind by an interrupted download can be resumed if the metadata records the same source {@link URL} and a
+ * validator (<code>ETag</code> or <code>Last-Modified</code>) which lets the server check that the remote file
+ * has not changed in the meantime.
+ * <p>
+ * A part file written out of order, by a segmented download, is filled to its full size from the start. Its length
+ * says nothing about the downloaded bytes, which are recorded in a {@link CompletionBitmap} instead.
+ */
+class PartFile {
+
+    private static final Logger logger = LoggerFactory.getLogger(PartFile.class);
+
+    private static final String URL_KEY = "url";
+    private static final String VALIDATOR_KEY = "validator";
+    private static final String SIZE_KEY = "size";
+
+    private final File destination;
+    private final File part;
+    private final File metadata;
+    private final File blocks;
+
+    PartFile(File destination) {
+        this.destination = destination;
+        this.part = new File(destination.getParentFile(), destination.getName() + ".part");
+        this.metadata = new File(destination.getParentFile(), destination.getName() + ".part.properties");
+        this.blocks = new File(destination.getParentFile(), destination.getName() + ".part.blocks");
+    }
+
+    /** @return the file that receives the downloaded bytes */
+    File toFile() {
+        return part;
+    }
+
+    /**
+     * @param src source of the download
+     * @return number of bytes already downloaded from <code>src</code> that can be resumed, 0 if the download must start
+     * from the beginning
+     */
+    long resumableLength(URL src) {
+        if (!part.isFile() || blocks.isFile() || validator(src) == null)
+            return 0;
+        return part.length();
+    }
+
+    /**
+     * @param src source of the download
+     * @return the validator recorded for a download from <code>src</code> or <code>null</code> if there is none
+     */
+    String validator(URL src) {
+        Properties properties = readMetadata();
+        if (!src.toString().equals(properties.getProperty(URL_KEY)))
+            return null;
+        return properties.getProperty(VALIDATOR_KEY);
+    }
+
+    /**
+     * @param mirrors current {@link URL}s of the resource
+     * @return number of bytes downloaded from one of the <code>mirrors</code> that recorded the size of the file, which
+     * can be continued from another mirror serving a file of the same size, or 0 if there are none. A part file left
+     * behind by a source that is no longer a mirror of the resource may hold another file of the same size.
+     */
+    long continuableLength(List<URL> mirrors) {
+        if (!part.isFile() || blocks.isFile() || recordedSize() < 0 || part.length() >= recordedSize())
+            return 0;
+        String recorded = readMetadata().getProperty(URL_KEY);
+        for (URL mirror : mirrors) {
+            if (mirror.toString().equals(recorded))
+                return part.length();
+        }
+        return 0;
+    }
+
+    /**
+     * @return the size of the file recorded by {@link #start(URL, String, long)} or -1 if it is not known
+     */
+    long recordedSize() {
+        Properties properties = readMetadata();
+        if (properties.getProperty(VALIDATOR_KEY) == null)
+            return -1;
+        try {
+            return Long.parseLong(properties.getProperty(SIZE_KEY, "-1"));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Record the source of a download starting from the beginning. Without a validator the download cannot be
+     * resumed safely, so no metadata is written.
+     *
+     * @param src       source of the download
+     * @param validator <code>ETag</code> or <code>Last-Modified</code> value of the remote file, may be <code>null</code>
+     */
+    void start(URL src, String validator) throws IOException {
+        start(src, validator, -1);
+    }
+
+    /**
+     * Record the source of a download, like {@link #start(URL, String)}, together with the size of the file.
+     *
+     * @param src       source of the download
+     * @param validator <code>ETag</code> or <code>Last-Modified</code> value of the remote file, may be <code>null</code>
+     * @param size      size of the remote file or -1 if not known
+     */
+    void start(URL src, String validator, long size) throws IOException {
+        Files.deleteIfExists(blocks.toPath());
+        if (validator == null) {
+            Files.deleteIfExists(metadata.toPath());
+            return;
+        }
+        Properties properties = new Properties();
+        properties.setProperty(URL_KEY, src.toString());
+        properties.setProperty(VALIDATOR_KEY, validator);
+        if (size >= 0)
+            properties.setProperty(SIZE_KEY, Long.toString(size));
+        try (OutputStream os = new FileOutputStream(metadata)) {
+            properties.store(os, "Partial download of " + destination.getName());
+        }
+    }
+
+    /**
+     * Record the source of a download written out of order, see {@link #start(URL, String, long)}.
+     *
+     * @return an empty bitmap of the blocks of the file, which is saved next to the part file if the download can
+     * be resumed
+     */
+    CompletionBitmap startSegmented(URL src, String validator, long size) throws IOException {
+        start(src, validator, size);
+        CompletionBitmap bitmap = new CompletionBitmap(size, CompletionBitmap.BLOCK_SIZE,
+                validator == null ? null : blocks.toPath());
+        bitmap.save();
+        return bitmap;
+    }
+
+    /**
+     * @param src       source of the download
+     * @param validator current <code>ETag</code> or <code>Last-Modified</code> value of the remote file
+     * @param size      current size of the remote file
+     * @return the bitmap of a download from <code>src</code> written out of order, or <code>null</code> if there
+     * is none or if the remote file has changed
+     */
+    CompletionBitmap resumableBlocks(URL src, String validator, long size) {
+        if (!part.isFile() || part.length() != size || validator == null || !validator.equals(validator(src))
+                || recordedSize() != size)
+            return null;
+        return CompletionBitmap.load(blocks.toPath(), size);
+    }
+
+    /**
+     * Delete the part file and its metadata.
+     */
+    void discard() throws IOException {
+        Files.deleteIfExists(part.toPath());
+        Files.deleteIfExists(metadata.toPath());
+        Files.deleteIfExists(blocks.toPath());
+    }
+
+    /**
+     * Move the complete part file to the destination, replacing any previous version of the destination file.
+     *
+     * @return the destination file
+     */
+    File complete() throws IOException {
+        Path source = part.toPath();
+        Path target = destination.toPath();
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.deleteIfExists(metadata.toPath());
+        Files.deleteIfExists(blocks.toPath());
+        return destination;
+    }
+
+    private Properties readMetadata() {
+        Properties properties = new Properties();
+        if (metadata.isFile()) {
+            try (InputStream is = new FileInputStream(metadata)) {
+                properties.load(is);
+            } catch (IOException e) {
+                logger.warn("Could not read {}: {}", metadata, e.getMessage());
+            }
+        }
+        return properties;
+    }
+}
@@ -1,69 +1,233 @@
 package org.monarchinitiative.biodownload;
 
+import java.io.PrintStream;
+import java.net.URL;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * A simple status bar that only work on terminals where "\r" has an affect.
- *
- * The progress is done/shown in the closed interval <code>[min, max]</code>.
+ * <p>
+ * The bar shows the progress of all downloads that run at the same time in a single line: the percentage and
+ * the number of bytes downloaded, the transfer rate, the estimated remaining time and the number of active downloads.
+ * The line is only printed when the percentage changes or after {@link #REFRESH_INTERVAL_NANOS}, but not more often than
+ * every {@link #MIN_INTERVAL_NANOS}. The line is rendered into a reused buffer of ASCII bytes, so that printing does not
+ * allocate.
  *
  * @author <a href="mailto:manuel.holtgrewe@charite.de">Manuel Holtgrewe</a>
  */
-class ProgressBar {
-
-    /** smallest value */
-    private final long min;
-    /** largest value */
-    private final long max;
-    /** whether or not to print */
-    private final boolean doPrint;
-
-    /** Initialize progress bar with the given settings */
-    public ProgressBar(long min, long max) {
-        this(min, max, true);
+class ProgressBar implements DownloadListener {
+
+    /** the line is not printed more often than every 0.1 seconds */
+    static final long MIN_INTERVAL_NANOS = 100_000_000L;
+    /** the rate and the remaining time are refreshed every second, even if the percentage does not change */
+    static final long REFRESH_INTERVAL_NANOS = 1_000_000_000L;
+
+    private static final int WIDTH = 50;
+    private static final long MB = 1024 * 1024;
+
+    /** where to print */
+    private final PrintStream out;
+    /** the line being rendered */
+    private final byte[] line = new byte[128];
+    private int length = 0;
+
+    /** progress of the resources of the current batch */
+    private final Map<String, Transfer> transfers = new HashMap<>();
+    private int active = 0;
+    private long started;
+    private long lastPrinted;
+    private int lastPercent = -1;
+
+    /** Initialize progress bar printing to <code>System.err</code> */
+    ProgressBar() {
+        this(System.err);
+    }
+
+    /** Initialize progress bar printing to <code>out</code> */
+    ProgressBar(PrintStream out) {
+        this.out = out;
     }
 
-    /** Initialize progress bar with the given settings */
-    ProgressBar(long min, long max, boolean doPrint) {
-        this.min = min;
-        this.max = max;
-        this.doPrint = true;
+    @Override
+    public synchronized void onConnect(String resource, URL url) {
+        if (active == 0) {
+            // a new batch of downloads
+            transfers.clear();
+            started = System.nanoTime();
+            lastPrinted = started;
+            lastPercent = -1;
+        }
+        Transfer transfer = transfers.get(resource);
+        if (transfer == null) {
+            transfers.put(resource, new Transfer());
+            active++;
+        } else {
+            // the resource is downloaded again or a failed download is retried
+            if (transfer.done)
+                active++;
+            transfer.reset();
+        }
     }
 
-    /** @return smallest value to represent */
-    long getMin() {
-        return min;
+    @Override
+    public synchronized void onProgress(String resource, long bytes, long totalBytes) {
+        Transfer transfer = transfers.get(resource);
+        if (transfer == null)
+            return;
+        if (transfer.initial < 0)
+            // the part of a resumed download does not count for the rate
+            transfer.initial = bytes;
+        transfer.bytes = bytes;
+        transfer.total = totalBytes;
+        print(false);
     }
 
-    /** @return largest value to represent */
-    long getMax() {
-        return max;
+    @Override
+    public synchronized void onComplete(String resource, URL url, long bytes, Duration elapsed, double bytesPerSecond) {
+        Transfer transfer = transfers.get(resource);
+        if (transfer != null && transfer.initial < 0) {
+            // a transfer without progress events, e.g. from a local mirror
+            transfer.initial = 0;
+            transfer.bytes = bytes;
+            transfer.total = bytes;
+        } else if (transfer != null && transfer.total >= 0) {
+            transfer.bytes = transfer.total;
+        }
+        done(transfer);
     }
 
-    /** @return <code>true</code> if the progress bar has printing enabled */
-    public boolean doPrint() {
-        return doPrint;
+    @Override
+    public synchronized void onNotModified(String resource, URL url) {
+        done(transfers.get(resource));
     }
 
-    /** print progress up to position <code>pos</code>, if {@link #doPrint} */
-    void print(long pos) {
-        if (!doPrint)
+    @Override
+    public synchronized void onFailure(String resource, URL url, Exception cause) {
+        done(transfers.get(resource));
+    }
+
+    private void done(Transfer transfer) {
+        if (transfer == null || transfer.done)
             return;
-        int percent = (int) Math.ceil(100.0 * (pos - this.min) / (this.max - this.min));
-        StringBuilder bar = new StringBuilder("[");
-
-        for (int i = 0; i < 50; i++) {
-            if (i < (percent / 2)) {
-                bar.append("=");
-            } else if (i == (percent / 2)) {
-                bar.append(">");
-            } else {
-                bar.append(" ");
-            }
+        transfer.done = true;
+        active--;
+        if (active == 0) {
+            print(true);
+            out.println();
         }
+    }
 
-        bar.append("]   ").append(percent).append("%     ");
-        System.err.print("\r" + bar);
-        if (pos == max)
-            System.err.println();
+    /**
+     * Render the progress of the current batch and print it, if the line is due or if <code>force</code>.
+     */
+    private void print(boolean force) {
+        long bytes = 0;
+        long total = 0;
+        long transferred = 0;
+        boolean sizeKnown = true;
+        for (Transfer transfer : transfers.values()) {
+            if (transfer.initial < 0)
+                // no progress reported
+                continue;
+            bytes += transfer.bytes;
+            transferred += transfer.bytes - Math.max(transfer.initial, 0);
+            if (transfer.total < 0)
+                sizeKnown = false;
+            else
+                total += transfer.total;
+        }
+        int percent = sizeKnown && total > 0 ? (int) (100 * bytes / total) : -1;
+        long now = System.nanoTime();
+        long sinceLastPrint = now - lastPrinted;
+        if (!force && (sinceLastPrint < MIN_INTERVAL_NANOS
+                || (percent == lastPercent && sinceLastPrint < REFRESH_INTERVAL_NANOS)))
+            return;
+        lastPrinted = now;
+        lastPercent = percent;
+
+        double seconds = (now - started) / 1e9;
+        long bytesPerSecond = seconds > 0 ? (long) (transferred / seconds) : 0;
+        length = 0;
+        append('\r');
+        if (percent >= 0) {
+            append('[');
+            for (int i = 0; i < WIDTH; i++)
+                append(i < percent / 2 ? '=' : i == percent / 2 ? '>' : ' ');
+            append("]  ");
+            append(percent);
+            append("%  ");
+        }
+        appendMegabytes(bytes);
+        if (percent >= 0) {
+            append(" of ");
+            appendMegabytes(total);
+        }
+        append(" MB  ");
+        appendMegabytes(bytesPerSecond);
+        append(" MB/s");
+        if (percent >= 0 && bytesPerSecond > 0) {
+            long eta = (total - bytes) / bytesPerSecond;
+            append("  ETA ");
+            append(eta / 60);
+            append(':');
+            if (eta % 60 < 10)
+                append('0');
+            append(eta % 60);
+        }
+        if (active > 1) {
+            append("  ");
+            append(active);
+            append(" files");
+        }
+        append("    ");
+        out.write(line, 0, length);
+        out.flush();
+    }
+
+    private void append(char c) {
+        if (length < line.length)
+            line[length++] = (byte) c;
+    }
+
+    private void append(String s) {
+        for (int i = 0; i < s.length(); i++)
+            append(s.charAt(i));
     }
 
+    private void append(long value) {
+        if (value < 0) {
+            append('-');
+            value = -value;
+        }
+        long divisor = 1;
+        while (value / divisor >= 10)
+            divisor *= 10;
+        for (; divisor > 0; divisor /= 10)
+            append((char) ('0' + value / divisor % 10));
+    }
+
+    /** append the number of megabytes with one decimal */
+    private void appendMegabytes(long bytes) {
+        long tenths = bytes * 10 / MB;
+        append(tenths / 10);
+        append('.');
+        append((char) ('0' + tenths % 10));
+    }
+
+    /** progress of a single resource */
+    private static class Transfer {
+        long initial = -1;
+        long bytes = 0;
+        long total = -1;
+        boolean done = false;
+
+        void reset() {
+            initial = -1;
+            bytes = 0;
+            total = -1;
+            done = false;
+        }
+    }
 }
@@ -0,0 +1,138 @@
+package org.monarchinitiative.biodownload;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.Authenticator;
+import java.net.InetSocketAddress;
+import java.net.PasswordAuthentication;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The proxies of a {@link BioDownloader}, applied to each of its connections rather than through the JVM-wide
+ * <code>http.proxyHost</code> and similar system properties, so that downloaders with different proxies can run
+ * in the same JVM.
+ * <p>
+ * A protocol without a configured proxy uses the default {@link ProxySelector} of the JVM, which still honors
+ * the proxy system properties given on the command line. The proxies are HTTP proxies: the <code>ftp://</code>
+ * requests are tunneled through them by the Java URL handler. The credentials answer the proxy authentication
+ * challenges of the HTTP(S) connections.
+ */
+class Proxies extends ProxySelector {
+
+    private static final Logger logger = LoggerFactory.getLogger(Proxies.class);
+
+    /**
+     * Proxy of a protocol.
+     */
+    static class ProxyOptions {
+        String host = null;
+        int port = -1;
+        String user = null;
+        String password = null;
+
+        private void copyTo(ProxyOptions copy) {
+            copy.host = host;
+            copy.port = port;
+            copy.user = user;
+            copy.password = password;
+        }
+    }
+
+    final ProxyOptions http = new ProxyOptions();
+    final ProxyOptions https = new ProxyOptions();
+    final ProxyOptions ftp = new ProxyOptions();
+
+    private final Authenticator authenticator = new Authenticator() {
+        @Override
+        protected PasswordAuthentication getPasswordAuthentication() {
+            if (getRequestorType() != RequestorType.PROXY)
+                return null;
+            for (String protocol : List.of("http", "https", "ftp")) {
+                ProxyOptions proxy = forProtocol(protocol);
+                if (proxy.host != null && proxy.user != null && proxy.host.equalsIgnoreCase(getRequestingHost())
+                        && port(proxy, protocol) == getRequestingPort())
+                    return new PasswordAuthentication(proxy.user,
+                            proxy.password == null ? new char[0] : proxy.password.toCharArray());
+            }
+            return null;
+        }
+    };
+
+    Proxies copy() {
+        Proxies copy = new Proxies();
+        http.copyTo(copy.http);
+        https.copyTo(copy.https);
+        ftp.copyTo(copy.ftp);
+        return copy;
+    }
+
+    /**
+     * @param protocol <code>http</code>, <code>https</code> or <code>ftp</code>
+     * @return the proxy of the protocol, or <code>null</code> for the other protocols
+     */
+    ProxyOptions forProtocol(String protocol) {
+        switch (protocol.toLowerCase(Locale.ROOT)) {
+            case "http":
+                return http;
+            case "https":
+                return https;
+            case "ftp":
+                return ftp;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return answers the proxy authentication challenges with the configured credentials
+     */
+    Authenticator authenticator() {
+        return authenticator;
+    }
+
+    /**
+     * @return the proxy of the first connection to <code>url</code>, {@link Proxy#NO_PROXY} for a direct connection
+     */
+    Proxy proxy(URL url) {
+        try {
+            List<Proxy> proxies = select(url.toURI());
+            return proxies.isEmpty() ? Proxy.NO_PROXY : proxies.get(0);
+        } catch (URISyntaxException e) {
+            return Proxy.NO_PROXY;
+        }
+    }
+
+    @Override
+    public List<Proxy> select(URI uri) {
+        ProxyOptions proxy = uri.getScheme() == null ? null : forProtocol(uri.getScheme());
+        if (proxy != null && proxy.host != null)
+            return List.of(new Proxy(Proxy.Type.HTTP, InetSocketAddress.createUnresolved(proxy.host, port(proxy, uri.getScheme()))));
+        ProxySelector system = ProxySelector.getDefault();
+        return system == null || system == this
+                ? List.of(Proxy.NO_PROXY)
+                : system.select(uri);
+    }
+
+    @Override
+    public void connectFailed(URI uri, SocketAddress sa, IOException ioe) {
+        logger.debug("Could not connect to the proxy {} for {}: {}", sa, uri, ioe.getMessage());
+    }
+
+    /**
+     * @return the port of the proxy, by default 443 for HTTPS and 80 for the other protocols like the JDK
+     */
+    private static int port(ProxyOptions proxy, String protocol) {
+        if (proxy.port != -1)
+            return proxy.port;
+        return "https".equalsIgnoreCase(protocol) ? 443 : 80;
+    }
+}
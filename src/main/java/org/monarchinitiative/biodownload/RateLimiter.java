@@ -0,0 +1,43 @@
+package org.monarchinitiative.biodownload;
+
+/**
+ * Token bucket that limits a transfer rate to a number of bytes per second.
+ * <p>
+ * The bucket holds at most one second worth of tokens. A transfer takes the tokens for the bytes it has read, even
+ * if there are not enough of them, and then waits until the bucket would have refilled. This keeps the average rate
+ * at the limit no matter how many bytes are read at a time, and the threads sharing the bucket are served in the order
+ * of their reservations.
+ */
+class RateLimiter {
+
+    private final long bytesPerSecond;
+    private final double capacity;
+    private double tokens;
+    private long lastRefill;
+
+    RateLimiter(long bytesPerSecond) {
+        if (bytesPerSecond < 1)
+            throw new IllegalArgumentException("Rate must be at least 1 byte per second");
+        this.bytesPerSecond = bytesPerSecond;
+        this.capacity = bytesPerSecond;
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    long bytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Take the tokens for <code>bytes</code> bytes.
+     *
+     * @return time in nanoseconds the caller has to wait before transferring more bytes
+     */
+    synchronized long reserve(long bytes) {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * bytesPerSecond / 1e9);
+        lastRefill = now;
+        tokens -= bytes;
+        return tokens >= 0 ? 0 : (long) (-tokens * 1e9 / bytesPerSecond);
+    }
+}
@@ -0,0 +1,179 @@
+package org.monarchinitiative.biodownload;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Remembers the final URL of the requests that were redirected, e.g. from <code>purl.obolibrary.org</code> or
+ * the <code>?raw=true</code> links of GitHub, so that the next requests go to the final location directly instead of
+ * following the redirects again.
+ * <p>
+ * A source whose redirects were all permanent (301, 308) is kept until its target fails, the other sources expire
+ * after the time to live. If the cached target fails, the entry is dropped and the source is requested again. With
+ * a path, the cache is stored in a sidecar file of the download directory and shared by the later runs. The cache is
+ * shared by the concurrent downloads of a {@link BioDownloader}.
+ */
+class RedirectCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedirectCache.class);
+
+    /** Name of the cache file in the download directory. */
+    static final String FILE_NAME = ".biodownload-redirects.properties";
+
+    private static final String PERMANENT = "permanent";
+
+    private final Duration ttl;
+    private final Path path;
+    private final Clock clock;
+    /** source URL to <code>expiry target</code>, the expiry being {@link #PERMANENT} or epoch milliseconds */
+    private final Properties entries = new Properties();
+
+    /**
+     * @param ttl  time to live of the temporary redirects
+     * @param path file where the cache is stored, or <code>null</code> to keep it in memory
+     */
+    RedirectCache(Duration ttl, Path path) {
+        this(ttl, path, Clock.systemUTC());
+    }
+
+    RedirectCache(Duration ttl, Path path, Clock clock) {
+        this.ttl = ttl;
+        this.path = path;
+        this.clock = clock;
+        if (path != null && Files.isRegularFile(path)) {
+            try (InputStream is = Files.newInputStream(path)) {
+                entries.load(is);
+            } catch (IOException e) {
+                logger.warn("Could not read redirect cache at {}: {}", path, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return the final URL of <code>src</code>, or <code>null</code> if it is not known or has expired
+     */
+    synchronized URL lookup(URL src) {
+        String entry = entries.getProperty(src.toString());
+        if (entry == null)
+            return null;
+        int space = entry.indexOf(' ');
+        try {
+            String expiry = entry.substring(0, space);
+            if (expiry.equals(PERMANENT) || Long.parseLong(expiry) > clock.millis())
+                return new URL(entry.substring(space + 1));
+        } catch (IndexOutOfBoundsException | NumberFormatException | MalformedURLException e) {
+            logger.debug("Ignoring malformed redirect cache entry for {}: {}", src, entry);
+        }
+        remove(src);
+        return null;
+    }
+
+    /**
+     * @param src       the requested URL
+     * @param target    URL of the response after following the redirects
+     * @param permanent <code>true</code> if all redirects were permanent
+     */
+    synchronized void record(URL src, URL target, boolean permanent) {
+        String expiry = permanent ? PERMANENT : Long.toString(clock.millis() + ttl.toMillis());
+        entries.setProperty(src.toString(), expiry + " " + target);
+        store();
+    }
+
+    /**
+     * Forget the final URL of <code>src</code>, e.g. because it failed.
+     */
+    synchronized void remove(URL src) {
+        if (entries.remove(src.toString()) != null)
+            store();
+    }
+
+    /**
+     * @return a transport that sends the requests to the cached final URLs, and records the redirects followed by
+     * <code>transport</code>
+     */
+    HttpTransport cached(HttpTransport transport) {
+        return new HttpTransport() {
+            @Override
+            public Response get(URL url, Map<String, String> requestProperties, RedirectListener redirects) throws IOException {
+                URL target = lookup(url);
+                if (target != null) {
+                    Response response = tryTarget(url, target, () -> transport.get(target, requestProperties, redirects));
+                    if (response != null)
+                        return response;
+                }
+                boolean[] permanent = {true};
+                boolean[] redirected = {false};
+                Response response = transport.get(url, requestProperties, (from, to, statusCode) -> {
+                    redirected[0] = true;
+                    permanent[0] &= statusCode == 301 || statusCode == 308;
+                    redirects.redirected(from, to, statusCode);
+                });
+                if (redirected[0] && response.statusCode() < 400)
+                    record(url, response.url(), permanent[0]);
+                return response;
+            }
+
+            @Override
+            public Response head(URL url, Map<String, String> requestProperties) throws IOException {
+                URL target = lookup(url);
+                if (target != null) {
+                    Response response = tryTarget(url, target, () -> transport.head(target, requestProperties));
+                    if (response != null)
+                        return response;
+                }
+                return transport.head(url, requestProperties);
+            }
+        };
+    }
+
+    /**
+     * @return the response of the cached target, or <code>null</code> if it failed and was removed from the cache
+     */
+    private HttpTransport.Response tryTarget(URL src, URL target, Request request) {
+        HttpTransport.Response response = null;
+        try {
+            response = request.send();
+            if (response.statusCode() < 400)
+                return response;
+            logger.debug("Cached target {} of {} answered HTTP {}", target, src, response.statusCode());
+        } catch (IOException | IllegalStateException e) {
+            logger.debug("Cached target {} of {} failed: {}", target, src, e.getMessage());
+        }
+        if (response != null) {
+            try {
+                response.close();
+            } catch (IOException e) {
+                logger.debug("Error closing the connection to {}: {}", target, e.getMessage());
+            }
+        }
+        remove(src);
+        return null;
+    }
+
+    private void store() {
+        if (path == null)
+            return;
+        try (OutputStream os = Files.newOutputStream(path)) {
+            entries.store(os, "Final URLs of the redirected requests of BioDownload");
+        } catch (IOException e) {
+            logger.warn("Could not write redirect cache at {}: {}", path, e.getMessage());
+        }
+    }
+
+    @FunctionalInterface
+    private interface Request {
+        HttpTransport.Response send() throws IOException;
+    }
+}
@@ -0,0 +1,88 @@
+package org.monarchinitiative.biodownload;
+
+import org.monarchinitiative.biodownload.ftp.FtpException;
+
+import java.io.EOFException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides whether and when a failed download is attempted again.
+ * <p>
+ * Only the transient failures are retried: timeouts, refused or reset connections, transfers that end prematurely, and
+ * the HTTP statuses 408, 429, 500, 502, 503 and 504 and the 4xx FTP replies. The delay grows exponentially from {@link #initialBackoff} up to
+ * {@link #maxBackoff}, and a random jitter of up to half of the delay keeps the clients that failed together from
+ * retrying together. A longer delay requested by the server with <code>Retry-After</code> is honored, unless it
+ * exceeds {@link #maxBackoff}, in which case the download is not retried.
+ */
+class RetryPolicy {
+
+    private static final Set<Integer> TRANSIENT_STATUSES = Set.of(408, 429, 500, 502, 503, 504);
+
+    /** Number of attempts to download a file, 1 disables the retries. */
+    int maxAttempts = 3;
+    /** Delay before the first retry. */
+    Duration initialBackoff = Duration.ofSeconds(1);
+    /** Upper limit of the delay between two attempts. */
+    Duration maxBackoff = Duration.ofMinutes(1);
+
+    RetryPolicy copy() {
+        RetryPolicy copy = new RetryPolicy();
+        copy.maxAttempts = maxAttempts;
+        copy.initialBackoff = initialBackoff;
+        copy.maxBackoff = maxBackoff;
+        return copy;
+    }
+
+    /**
+     * @return <code>true</code> if the failure is likely to go away, e.g. a timeout or a 503 response
+     */
+    static boolean isTransient(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof HttpStatusException)
+                return TRANSIENT_STATUSES.contains(((HttpStatusException) cause).statusCode());
+            if (cause instanceof FtpException)
+                return ((FtpException) cause).isTransient();
+            if (cause instanceof SocketTimeoutException
+                    || cause instanceof HttpTimeoutException
+                    || cause instanceof ConnectException
+                    || cause instanceof SocketException
+                    || cause instanceof EOFException)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param attempt number of the failed attempt, starting with 1
+     * @param failure the failure of the attempt
+     * @return delay before the next attempt, or <code>null</code> if the download should not be attempted again
+     */
+    Duration backoff(int attempt, Throwable failure) {
+        if (attempt >= maxAttempts || !isTransient(failure))
+            return null;
+        long base = initialBackoff.toMillis() << Math.min(attempt - 1, 30);
+        base = Math.min(Math.max(base, 0), maxBackoff.toMillis());
+        long delay = base / 2 + ThreadLocalRandom.current().nextLong(base / 2 + 1);
+        Duration retryAfter = retryAfter(failure);
+        if (retryAfter != null) {
+            if (retryAfter.compareTo(maxBackoff) > 0)
+                return null;
+            delay = Math.max(delay, retryAfter.toMillis());
+        }
+        return Duration.ofMillis(delay);
+    }
+
+    private static Duration retryAfter(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof HttpStatusException)
+                return ((HttpStatusException) cause).retryAfter();
+        }
+        return null;
+    }
+}
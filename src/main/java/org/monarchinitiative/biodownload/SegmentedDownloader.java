@@ -0,0 +1,198 @@
+package org.monarchinitiative.biodownload;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Download a file over several HTTP connections at once, each fetching a byte range of the file with
+ * a <code>Range</code> request and writing it at its offset in the destination file through
+ * a {@link DestinationWriter}. The completed blocks are recorded in a {@link CompletionBitmap}, so that an interrupted
+ * download only fetches the missing blocks when it is resumed.
+ * <p>
+ * Segmenting is only used if the server advertises <code>Accept-Ranges: bytes</code> together with
+ * the content length, and if the file is large enough to make the additional connections worthwhile.
+ */
+class SegmentedDownloader {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentedDownloader.class);
+
+    /** Files smaller than this are not worth splitting into segments. */
+    static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+    /** The completed blocks are saved every 2 seconds. */
+    static final long CHECKPOINT_INTERVAL_NANOS = 2_000_000_000L;
+
+    private final HttpTransport transport;
+    private final int segments;
+    private final int bufferSize;
+    private final BufferPool buffers;
+    private final Throttle throttle;
+
+    SegmentedDownloader(HttpTransport transport, int segments, int bufferSize, BufferPool buffers, Throttle throttle) {
+        this.transport = transport;
+        this.segments = segments;
+        this.bufferSize = bufferSize;
+        this.buffers = buffers;
+        this.throttle = throttle;
+    }
+
+    /**
+     * @param response response to a request for the whole file
+     * @return <code>true</code> if the response allows to fetch the file in segments
+     */
+    boolean supportsSegments(HttpTransport.Response response) throws IOException {
+        if (segments < 2 || response.statusCode() != HttpURLConnection.HTTP_OK)
+            return false;
+        return "bytes".equalsIgnoreCase(response.header("Accept-Ranges"))
+                && response.header("Content-Encoding") == null
+                && response.contentLength() >= 2 * MIN_SEGMENT_SIZE;
+    }
+
+    /**
+     * Download the blocks of the file that are missing from <code>blocks</code>, each segment writing its bytes
+     * straight into its region of the file. The runs of missing blocks are split into at most {@link #segments}
+     * segments. The progress is saved every {@link #CHECKPOINT_INTERVAL_NANOS}, and when the download ends,
+     * so that a failed download can be resumed.
+     *
+     * @throws RangeNotSatisfiedException if the server did not honor a range request, in which case the caller
+     *                                    should fall back to a single stream download
+     * @throws IOException on other problems with the download
+     */
+    void download(URL url, long length, DestinationWriter writer, CompletionBitmap blocks, TransferMonitor monitor)
+            throws IOException {
+        List<int[]> runs = split(blocks.missingRuns());
+        logger.info("Downloading {} bytes from {} in {} segments", length - blocks.completedBytes(), url, runs.size());
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(runs.size(), 1));
+        AtomicLong downloaded = new AtomicLong(blocks.completedBytes());
+        Checkpoint checkpoint = new Checkpoint(writer, blocks);
+        try {
+            List<Future<Void>> futures = new ArrayList<>(runs.size());
+            for (int[] run : runs) {
+                futures.add(executor.submit(() -> {
+                    downloadSegment(url, run[0], run[1], writer, blocks, checkpoint, downloaded, monitor);
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures)
+                future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while downloading " + url, e);
+        } finally {
+            executor.shutdownNow();
+            try {
+                checkpoint.save();
+            } catch (IOException e) {
+                logger.warn("Could not save the progress of the download from {}: {}", url, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Split the largest runs of blocks in halves until there are {@link #segments} runs or the runs cannot be split.
+     */
+    private List<int[]> split(List<int[]> runs) {
+        List<int[]> segmentRuns = new ArrayList<>(runs);
+        while (segmentRuns.size() < segments) {
+            int[] largest = segmentRuns.stream().max(Comparator.comparingInt(run -> run[1] - run[0])).orElse(null);
+            if (largest == null || largest[1] == largest[0])
+                break;
+            int middle = largest[0] + (largest[1] - largest[0]) / 2;
+            int index = segmentRuns.indexOf(largest);
+            segmentRuns.set(index, new int[]{largest[0], middle});
+            segmentRuns.add(index + 1, new int[]{middle + 1, largest[1]});
+        }
+        return segmentRuns;
+    }
+
+    private void downloadSegment(URL url, int firstBlock, int lastBlock, DestinationWriter writer, CompletionBitmap blocks,
+                                 Checkpoint checkpoint, AtomicLong downloaded, TransferMonitor monitor) throws IOException {
+        long start = blocks.start(firstBlock);
+        long end = blocks.end(lastBlock);
+        // the byte ranges refer to the unencoded file
+        Map<String, String> requestProperties = Map.of(
+                "Accept-Encoding", "identity",
+                "Range", "bytes=" + start + "-" + end);
+        try (HttpTransport.Response response = transport.get(url, requestProperties)) {
+            HttpStatusException.check(response);
+            if (response.statusCode() != HttpURLConnection.HTTP_PARTIAL)
+                throw new RangeNotSatisfiedException("Server did not honor the range request for " + url
+                        + ", got HTTP " + response.statusCode());
+
+            long position = start;
+            int block = firstBlock;
+            ByteBuffer buffer = buffers.acquire(bufferSize);
+            try (InputStream in = new MeteredInputStream(response.body(), throttle)) {
+                int readCount;
+                while (position <= end && (readCount = in.read(buffer.array(), 0, (int) Math.min(buffer.capacity(), end + 1 - position))) > 0) {
+                    monitor.firstByte(url);
+                    writer.write(position, buffer.clear().limit(readCount));
+                    position += readCount;
+                    // the blocks that were written completely
+                    for (; block <= lastBlock && blocks.end(block) < position; block++)
+                        blocks.complete(block);
+                    checkpoint.saveIfDue();
+                    monitor.progress(downloaded.addAndGet(readCount));
+                }
+            } finally {
+                buffers.release(buffer);
+            }
+            if (position != end + 1)
+                throw new IOException(String.format("Segment %d-%d of %s ended prematurely at %d", start, end, url, position));
+        }
+    }
+
+    /**
+     * Saves the completed blocks, after making them durable.
+     */
+    private static class Checkpoint {
+
+        private final DestinationWriter writer;
+        private final CompletionBitmap blocks;
+        private long lastSaved = System.nanoTime();
+
+        private Checkpoint(DestinationWriter writer, CompletionBitmap blocks) {
+            this.writer = writer;
+            this.blocks = blocks;
+        }
+
+        synchronized void saveIfDue() throws IOException {
+            if (System.nanoTime() - lastSaved >= CHECKPOINT_INTERVAL_NANOS)
+                save();
+        }
+
+        synchronized void save() throws IOException {
+            lastSaved = System.nanoTime();
+            writer.force();
+            blocks.save();
+        }
+    }
+
+    /**
+     * Signals that the server does not support the range requests after all.
+     */
+    static class RangeNotSatisfiedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        RangeNotSatisfiedException(String msg) {
+            super(msg);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package org.monarchinitiative.biodownload;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Limits the rate of a transfer.
+ */
+@FunctionalInterface
+interface Throttle {
+
+    /** Throttle that does not limit the transfer. */
+    Throttle NONE = bytes -> {
+    };
+
+    /**
+     * Account for <code>bytes</code> transferred bytes, blocking as long as needed to keep the transfer rate
+     * within the limit.
+     *
+     * @param bytes number of bytes that were transferred
+     * @throws InterruptedIOException if the thread is interrupted while waiting
+     */
+    void acquire(long bytes) throws InterruptedIOException;
+}
@@ -0,0 +1,134 @@
+package org.monarchinitiative.biodownload;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URL;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Follows the download of a single resource and reports it to the {@link DownloadListener}s.
+ * <p>
+ * The progress can be reported from several threads, e.g. by the segments of a {@link SegmentedDownloader}.
+ * The listeners are notified of the progress at most once per {@link #PROGRESS_INTERVAL_NANOS}.
+ */
+class TransferMonitor {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransferMonitor.class);
+
+    /** Minimal time between two progress events, 0.5 seconds. */
+    static final long PROGRESS_INTERVAL_NANOS = 500_000_000L;
+
+    private final List<DownloadListener> listeners;
+    private final String resource;
+    private final URL src;
+
+    private long started;
+    private boolean firstByte = false;
+    private long offset = 0;
+    private long fileSize = -1;
+    private long position = 0;
+    private long lastProgress;
+
+    TransferMonitor(List<DownloadListener> listeners, String resource, URL src) {
+        this.listeners = listeners;
+        this.resource = resource;
+        this.src = src;
+    }
+
+    /** The request is about to be sent. */
+    void connect() {
+        started = System.nanoTime();
+        notify(l -> l.onConnect(resource, src));
+    }
+
+    /** @see HttpTransport.RedirectListener */
+    void redirected(URL from, URL to, int statusCode) {
+        notify(l -> l.onRedirect(resource, from, to, statusCode));
+    }
+
+    /**
+     * The transfer of the file is about to start.
+     *
+     * @param offset   number of bytes of the file that are already present, e.g. in the part file of a resumed download
+     * @param fileSize size of the file or -1 if not known
+     */
+    synchronized void start(long offset, long fileSize) {
+        this.offset = offset;
+        this.fileSize = fileSize;
+        this.position = offset;
+        // the first progress event is sent right away
+        this.lastProgress = System.nanoTime() - PROGRESS_INTERVAL_NANOS;
+    }
+
+    /** Bytes have arrived from <code>url</code>, the first call reports the time to first byte. */
+    synchronized void firstByte(URL url) {
+        if (firstByte)
+            return;
+        firstByte = true;
+        Duration ttfb = Duration.ofNanos(System.nanoTime() - started);
+        notify(l -> l.onFirstByte(resource, url, ttfb));
+    }
+
+    /**
+     * @param position number of bytes of the file downloaded so far, including the offset
+     */
+    synchronized void progress(long position) {
+        this.position = position;
+        long now = System.nanoTime();
+        if (now - lastProgress >= PROGRESS_INTERVAL_NANOS || position == fileSize) {
+            lastProgress = now;
+            notify(l -> l.onProgress(resource, position, fileSize));
+        }
+    }
+
+    /**
+     * The file has been downloaded.
+     *
+     * @param url   URL of the file after following the redirects
+     * @param bytes number of bytes transferred, without the offset of a resumed download
+     */
+    void complete(URL url, long bytes) {
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - started);
+        double seconds = elapsed.toNanos() / 1e9;
+        double bytesPerSecond = seconds > 0 ? bytes / seconds : 0;
+        notify(l -> l.onComplete(resource, url, bytes, elapsed, bytesPerSecond));
+    }
+
+    /**
+     * The file has been downloaded, the number of bytes is derived from the reported progress.
+     */
+    void complete(URL url) {
+        long bytes;
+        synchronized (this) {
+            bytes = position - offset;
+        }
+        complete(url, bytes);
+    }
+
+    /** A failed attempt will be retried after <code>backoff</code>. */
+    void retry(int attempt, Duration backoff, Exception cause) {
+        notify(l -> l.onRetry(resource, src, attempt, backoff, cause));
+    }
+
+    /** The existing file is up to date. */
+    void notModified() {
+        notify(l -> l.onNotModified(resource, src));
+    }
+
+    void failure(Exception cause) {
+        notify(l -> l.onFailure(resource, src, cause));
+    }
+
+    private void notify(Consumer<DownloadListener> event) {
+        for (DownloadListener listener : listeners) {
+            try {
+                event.accept(listener);
+            } catch (RuntimeException e) {
+                logger.warn("Download listener {} failed: {}", listener, e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package org.monarchinitiative.biodownload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link HttpTransport} built on {@link URLConnection}. This is the legacy transport which also handles non-HTTP URLs,
+ * such as FTP. The connections go through the {@link Proxies} of the downloader.
+ */
+class UrlConnectionTransport implements HttpTransport {
+
+    private static final String TEXTPLAIN_REQUEST_TYPE = ", text/plain; q=0.1";
+
+    private final int connectionTimeout;
+    private final int readTimeout;
+    private final Proxies proxies;
+
+    UrlConnectionTransport(int connectionTimeout) {
+        this(connectionTimeout, new Proxies());
+    }
+
+    UrlConnectionTransport(int connectionTimeout, Proxies proxies) {
+        this(connectionTimeout, FileDownloader.READ_TIMEOUT, proxies);
+    }
+
+    /**
+     * @param connectionTimeout connection timeout in milliseconds
+     * @param readTimeout       time in milliseconds after which a request that receives no bytes fails
+     * @param proxies           proxies of the connections
+     */
+    UrlConnectionTransport(int connectionTimeout, int readTimeout, Proxies proxies) {
+        this.connectionTimeout = connectionTimeout;
+        this.readTimeout = readTimeout;
+        this.proxies = proxies;
+    }
+
+    @Override
+    public Response get(URL url, Map<String, String> requestProperties, RedirectListener redirects) throws IOException {
+        URLConnection connection = open(url);
+        connection.setConnectTimeout(connectionTimeout);
+        connection.setReadTimeout(readTimeout);
+        return new UrlConnectionResponse(connect(connection, TEXTPLAIN_REQUEST_TYPE, requestProperties,
+                redirects, new HashSet<>()));
+    }
+
+    @Override
+    public Response head(URL url, Map<String, String> requestProperties) throws IOException {
+        Set<String> visited = new HashSet<>();
+        while (true) {
+            URLConnection connection = open(url);
+            connection.setConnectTimeout(connectionTimeout);
+            connection.setReadTimeout(readTimeout);
+            if (!(connection instanceof HttpURLConnection))
+                return new UrlConnectionResponse(connection);
+            HttpURLConnection con = (HttpURLConnection) connection;
+            con.setRequestMethod("HEAD");
+            con.setInstanceFollowRedirects(false);
+            con.setRequestProperty("Accept-Encoding", "");
+            requestProperties.forEach(con::setRequestProperty);
+            int responseCode = con.getResponseCode();
+            String location = con.getHeaderField("Location");
+            if (responseCode / 100 != 3 || location == null)
+                return new UrlConnectionResponse(con);
+            if (!visited.add(location))
+                throw new IllegalStateException("Infinite loop: redirect cycle detected. " + visited);
+            con.disconnect();
+            url = new URL(con.getURL(), location);
+        }
+    }
+
+    /**
+     * Open a connection through the proxy of the URL, which answers the proxy authentication challenges with
+     * the credentials of the downloader.
+     */
+    private URLConnection open(URL url) throws IOException {
+        String protocol = url.getProtocol();
+        if (!protocol.equals("http") && !protocol.equals("https") && !protocol.equals("ftp"))
+            // the other URL handlers do not support proxies
+            return url.openConnection();
+        URLConnection connection = url.openConnection(proxies.proxy(url));
+        if (connection instanceof HttpURLConnection)
+            ((HttpURLConnection) connection).setAuthenticator(proxies.authenticator());
+        return connection;
+    }
+
+    protected URLConnection connect(URLConnection conn, String acceptHeaders, Map<String, String> requestProperties,
+                                    RedirectListener redirects, Set<String> visited)
+            throws IOException {
+        if (conn instanceof HttpURLConnection) {
+            // follow redirects to HTTPS
+            HttpURLConnection con = (HttpURLConnection) conn;
+            // the redirects are followed here, rather than by the connection, so that each hop is reported
+            con.setInstanceFollowRedirects(false);
+            // we set the Accept encoding property to empty to force the download of files unzipped
+            conn.setRequestProperty("Accept-Encoding", "");
+            requestProperties.forEach(conn::setRequestProperty);
+            con.connect();
+            int responseCode = con.getResponseCode();
+            // redirect
+            if (responseCode == HttpURLConnection.HTTP_MOVED_TEMP
+                    || responseCode == HttpURLConnection.HTTP_MOVED_PERM
+                    || responseCode == HttpURLConnection.HTTP_SEE_OTHER
+                    // no constants for temporary and permanent redirect in HttpURLConnection
+                    || responseCode == 307 || responseCode == 308) {
+                String location = con.getHeaderField("Location");
+                if (visited.add(location)) {
+                    URL newURL = new URL(con.getURL(), location);
+                    redirects.redirected(con.getURL(), newURL, responseCode);
+                    return connect(rebuildConnection(newURL, acceptHeaders, requestProperties),
+                            acceptHeaders, requestProperties, redirects, visited);
+                } else {
+                    throw new IllegalStateException(
+                            "Infinite loop: redirect cycle detected. " + visited);
+                }
+            }
+        }
+        return conn;
+    }
+
+    protected URLConnection rebuildConnection(URL newURL, String acceptHeaders, Map<String, String> requestProperties)
+            throws IOException {
+        URLConnection conn;
+        conn = open(newURL);
+        conn.addRequestProperty("Accept", acceptHeaders);
+        // like for the first request, the encodings are only accepted if the caller asks for them and decodes them
+        conn.setRequestProperty("Accept-Encoding", "");
+        requestProperties.forEach(conn::setRequestProperty);
+        conn.setConnectTimeout(connectionTimeout);
+        conn.setReadTimeout(readTimeout);
+        return conn;
+    }
+
+    private static class UrlConnectionResponse implements Response {
+
+        private final URLConnection connection;
+        private InputStream body;
+
+        private UrlConnectionResponse(URLConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public int statusCode() throws IOException {
+            return connection instanceof HttpURLConnection
+                    ? ((HttpURLConnection) connection).getResponseCode()
+                    : HttpURLConnection.HTTP_OK;
+        }
+
+        @Override
+        public URL url() {
+            return connection.getURL();
+        }
+
+        @Override
+        public String header(String name) {
+            return connection instanceof HttpURLConnection
+                    ? connection.getHeaderField(name)
+                    : null;
+        }
+
+        @Override
+        public long contentLength() {
+            return connection.getContentLengthLong();
+        }
+
+        @Override
+        public InputStream body() throws IOException {
+            if (body == null)
+                body = connection.getInputStream();
+            return body;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (body != null) {
+                // closing the body, rather than disconnecting, lets the JDK reuse a keep-alive connection
+                body.close();
+            } else if (connection instanceof HttpURLConnection) {
+                ((HttpURLConnection) connection).disconnect();
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package org.monarchinitiative.biodownload;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes to a {@link DestinationWriter} on a separate thread, so that the network reads go on while the disk is busy,
+ * instead of alternating with the writes.
+ * <p>
+ * The written bytes are copied into buffers of the {@link BufferPool} and queued. At most <code>depth</code> writes
+ * are queued, a write waits while the queue is full. The writes do not wait for the budget of the pool, since the
+ * writing threads hold buffers of their own: if the budget is taken, the bytes are written right away.
+ * <p>
+ * The writer thread forces the bytes to the storage device according to the {@link FsyncPolicy}. A failure of the
+ * writer thread is thrown by the next write, {@link #force()} or {@link #close()}.
+ */
+class WriteBehindWriter implements DestinationWriter {
+
+    /** With {@link FsyncPolicy#PERIODIC}, the bytes are forced every 2 seconds. */
+    static final long FSYNC_INTERVAL_NANOS = 2_000_000_000L;
+
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+    /** Stops the writer thread. */
+    private static final Write END = new Write(-1, null);
+
+    private final DestinationWriter delegate;
+    private final BufferPool buffers;
+    private final int bufferSize;
+    private final FsyncPolicy fsync;
+    private final BlockingQueue<Write> queue;
+    private final Thread thread;
+
+    private long submitted = 0;
+    private long completed = 0;
+    private volatile IOException failure = null;
+    private boolean closed = false;
+
+    WriteBehindWriter(DestinationWriter delegate, BufferPool buffers, int bufferSize, int depth, FsyncPolicy fsync) {
+        this.delegate = delegate;
+        this.buffers = buffers;
+        this.bufferSize = bufferSize;
+        this.fsync = fsync;
+        this.queue = new ArrayBlockingQueue<>(depth);
+        this.thread = new Thread(this::drain, "biodownload-writer-" + THREAD_COUNTER.incrementAndGet());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void write(long position, ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            checkFailure();
+            ByteBuffer buffer = buffers.tryAcquire(bufferSize);
+            if (buffer == null) {
+                // the regions of the file are disjoint, so the queued writes may still be pending
+                delegate.write(position, src);
+                return;
+            }
+            int length = Math.min(src.remaining(), buffer.capacity());
+            buffer.put(src.duplicate().limit(src.position() + length)).flip();
+            src.position(src.position() + length);
+            synchronized (this) {
+                submitted++;
+            }
+            try {
+                queue.put(new Write(position, buffer));
+            } catch (InterruptedException e) {
+                buffers.release(buffer);
+                done();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while queueing a write");
+            }
+            position += length;
+        }
+    }
+
+    /**
+     * Wait until the writes queued so far are written, and force them to the storage device.
+     */
+    @Override
+    public void force() throws IOException {
+        awaitWritten();
+        delegate.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+        }
+        try {
+            awaitWritten();
+            if (fsync != FsyncPolicy.NONE && failure == null)
+                delegate.force();
+        } finally {
+            if (!queue.offer(END))
+                thread.interrupt();
+            delegate.close();
+        }
+        checkFailure();
+    }
+
+    private void drain() {
+        long lastForce = System.nanoTime();
+        while (true) {
+            Write write;
+            try {
+                write = queue.take();
+            } catch (InterruptedException e) {
+                // interrupted by close() if the queue was too full for the end marker
+                return;
+            }
+            if (write == END)
+                return;
+            try {
+                // after a failure, the remaining writes are dropped
+                if (failure == null) {
+                    delegate.write(write.position, write.buffer);
+                    if (fsync == FsyncPolicy.PERIODIC && System.nanoTime() - lastForce >= FSYNC_INTERVAL_NANOS) {
+                        delegate.force();
+                        lastForce = System.nanoTime();
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                failure = e instanceof IOException ? (IOException) e : new IOException(e);
+            } finally {
+                buffers.release(write.buffer);
+                done();
+            }
+        }
+    }
+
+    private synchronized void done() {
+        completed++;
+        notifyAll();
+    }
+
+    private void awaitWritten() throws IOException {
+        synchronized (this) {
+            long target = submitted;
+            while (completed < target) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the queued writes");
+                }
+            }
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() throws IOException {
+        IOException e = failure;
+        if (e != null)
+            throw new IOException("Write-behind failed: " + e.getMessage(), e);
+    }
+
+    private static class Write {
+        private final long position;
+        private final ByteBuffer buffer;
+
+        private Write(long position, ByteBuffer buffer) {
+            this.position = position;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package org.monarchinitiative.biodownload;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Block checksums of a file in the format of the zsync control files (<code>.zsync</code>), which let a client find
+ * the blocks of an old version of the file that are still present in the new version.
+ * <p>
+ * A control file starts with <code>Key: value</code> header lines and an empty line, followed by the checksums of
+ * each block of the file: the last <code>rsumBytes</code> bytes of the rolling checksum and the first
+ * <code>checksumBytes</code> bytes of the MD4 digest. The last block is padded with zeros. With two sequential
+ * matches, a block only matches if the next block matches too, which lets the control file use shorter checksums.
+ */
+class ZsyncIndex {
+
+    static final String VERSION = "0.6.2";
+
+    private final long length;
+    private final int blockSize;
+    private final int seqMatches;
+    private final int rsumBytes;
+    private final int checksumBytes;
+    private final String sha1;
+    private final int[] rsums;
+    private final byte[] checksums;
+
+    /** first block of each bucket of the rolling checksums, plus 1 */
+    private final int[] heads;
+    /** next block in the bucket of each block, plus 1 */
+    private final int[] next;
+    private final int shift;
+
+    ZsyncIndex(long length, int blockSize, int seqMatches, int rsumBytes, int checksumBytes, String sha1,
+               int[] rsums, byte[] checksums) {
+        this.length = length;
+        this.blockSize = blockSize;
+        this.seqMatches = seqMatches;
+        this.rsumBytes = rsumBytes;
+        this.checksumBytes = checksumBytes;
+        this.sha1 = sha1.toLowerCase(Locale.ROOT);
+        this.rsums = rsums;
+        this.checksums = checksums;
+
+        int buckets = Integer.highestOneBit(Math.max(2, rsums.length) * 2);
+        this.shift = 32 - Integer.numberOfTrailingZeros(buckets);
+        this.heads = new int[buckets];
+        this.next = new int[rsums.length];
+        for (int block = rsums.length - 1; block >= 0; block--) {
+            int bucket = bucket(rsums[block], nextRsum(block));
+            next[block] = heads[bucket];
+            heads[bucket] = block + 1;
+        }
+    }
+
+    /**
+     * Read a control file.
+     *
+     * @throws IOException if the control file is malformed, or describes a compressed file
+     */
+    static ZsyncIndex read(InputStream is) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+        Map<String, String> headers = new HashMap<>();
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon < 0)
+                throw new IOException("Malformed zsync header: " + line);
+            headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+        }
+        if (!headers.containsKey("zsync"))
+            throw new IOException("Not a zsync control file");
+        if (headers.containsKey("z-map2") || headers.containsKey("recompress"))
+            throw new IOException("zsync control files of compressed files are not supported");
+        String sha1 = headers.get("sha-1");
+        if (sha1 == null)
+            throw new IOException("The zsync control file has no SHA-1");
+        try {
+            long length = Long.parseLong(required(headers, "length"));
+            int blockSize = Integer.parseInt(required(headers, "blocksize"));
+            String[] hashLengths = headers.getOrDefault("hash-lengths", "1,4,16").split(",");
+            int seqMatches = Integer.parseInt(hashLengths[0].trim());
+            int rsumBytes = Integer.parseInt(hashLengths[1].trim());
+            int checksumBytes = Integer.parseInt(hashLengths[2].trim());
+            if (length < 0 || blockSize <= 0 || Integer.bitCount(blockSize) != 1 || seqMatches < 1 || seqMatches > 2
+                    || rsumBytes < 1 || rsumBytes > 4 || checksumBytes < 3 || checksumBytes > 16)
+                throw new IOException("Unsupported zsync parameters: " + headers);
+
+            int blocks = (int) ((length + blockSize - 1) / blockSize);
+            int[] rsums = new int[blocks];
+            byte[] checksums = new byte[blocks * checksumBytes];
+            byte[] rsum = new byte[rsumBytes];
+            for (int block = 0; block < blocks; block++) {
+                in.readFully(rsum);
+                int value = 0;
+                for (byte b : rsum)
+                    value = value << 8 | (b & 0xff);
+                rsums[block] = value;
+                in.readFully(checksums, block * checksumBytes, checksumBytes);
+            }
+            return new ZsyncIndex(length, blockSize, seqMatches, rsumBytes, checksumBytes, sha1, rsums, checksums);
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Malformed zsync header: " + headers, e);
+        }
+    }
+
+    /**
+     * Compute the control file of a local file, e.g. to host the control files of an internal mirror. The checksums
+     * are not truncated.
+     */
+    static ZsyncIndex create(Path file, int blockSize) throws IOException {
+        long length = Files.size(file);
+        int blocks = (int) ((length + blockSize - 1) / blockSize);
+        int[] rsums = new int[blocks];
+        byte[] checksums = new byte[blocks * 16];
+        MessageDigest sha1 = ChecksumAlgorithm.SHA1.newDigest();
+        Md4 md4 = new Md4();
+        byte[] block = new byte[blockSize];
+        try (InputStream in = Files.newInputStream(file)) {
+            for (int i = 0; i < blocks; i++) {
+                int n = in.readNBytes(block, 0, blockSize);
+                if (n == 0)
+                    throw new EOFException(file + " has changed while computing its checksums");
+                sha1.update(block, 0, n);
+                Arrays.fill(block, n, blockSize, (byte) 0);
+                rsums[i] = rsum(block, 0, blockSize);
+                md4.update(block);
+                System.arraycopy(md4.digest(), 0, checksums, i * 16, 16);
+            }
+        }
+        return new ZsyncIndex(length, blockSize, 1, 4, 16, Checksums.Checksum.toHex(sha1.digest()), rsums, checksums);
+    }
+
+    /**
+     * Write the control file.
+     *
+     * @param filename name of the file, which is also the relative URL of the file
+     */
+    void write(OutputStream out, String filename) throws IOException {
+        String header = "zsync: " + VERSION + "\n"
+                + "Filename: " + filename + "\n"
+                + "Blocksize: " + blockSize + "\n"
+                + "Length: " + length + "\n"
+                + "Hash-Lengths: " + seqMatches + "," + rsumBytes + "," + checksumBytes + "\n"
+                + "URL: " + filename + "\n"
+                + "SHA-1: " + sha1 + "\n"
+                + "\n";
+        out.write(header.getBytes(StandardCharsets.US_ASCII));
+        byte[] rsum = new byte[rsumBytes];
+        for (int block = 0; block < rsums.length; block++) {
+            for (int i = 0; i < rsumBytes; i++)
+                rsum[i] = (byte) (rsums[block] >>> (8 * (rsumBytes - 1 - i)));
+            out.write(rsum);
+            out.write(checksums, block * checksumBytes, checksumBytes);
+        }
+        out.flush();
+    }
+
+    /**
+     * @return the rolling checksum of zsync, with the sum of the bytes in the upper and the weighted sum in the lower
+     * 16 bits
+     */
+    static int rsum(byte[] data, int offset, int len) {
+        int a = 0;
+        int b = 0;
+        for (int i = offset; i < offset + len; i++) {
+            a += data[i] & 0xff;
+            b += a;
+        }
+        return (a & 0xffff) << 16 | (b & 0xffff);
+    }
+
+    long length() {
+        return length;
+    }
+
+    int blockSize() {
+        return blockSize;
+    }
+
+    int blockCount() {
+        return rsums.length;
+    }
+
+    int seqMatches() {
+        return seqMatches;
+    }
+
+    String sha1() {
+        return sha1;
+    }
+
+    /** @return number of bytes of the file in the block, the last block may be shorter than the block size */
+    int blockLength(int block) {
+        return (int) Math.min(blockSize, length - (long) block * blockSize);
+    }
+
+    /** @return the bits of the rolling checksum that are stored in the control file */
+    int rsumMask() {
+        return rsumBytes == 4 ? -1 : (1 << (8 * rsumBytes)) - 1;
+    }
+
+    /**
+     * @param rsum     masked rolling checksum of a window
+     * @param nextRsum masked rolling checksum of the following window, only used with two sequential matches
+     * @return the first block whose rolling checksums match, or -1
+     */
+    int firstCandidate(int rsum, int nextRsum) {
+        return candidate(heads[bucket(rsum, nextRsum)] - 1, rsum, nextRsum);
+    }
+
+    /**
+     * @return the next block after <code>block</code> whose rolling checksums match, or -1
+     */
+    int nextCandidate(int block, int rsum, int nextRsum) {
+        return candidate(next[block] - 1, rsum, nextRsum);
+    }
+
+    /**
+     * @param md4 MD4 digest of a block padded with zeros
+     */
+    boolean checksumMatches(int block, byte[] md4) {
+        return Arrays.equals(checksums, block * checksumBytes, (block + 1) * checksumBytes, md4, 0, checksumBytes);
+    }
+
+    private int candidate(int block, int rsum, int nextRsum) {
+        while (block >= 0 && (rsums[block] != rsum || (seqMatches > 1 && nextRsum(block) != nextRsum)))
+            block = next[block] - 1;
+        return block;
+    }
+
+    /** @return the rolling checksum of the block after <code>block</code>, the end of the file is all zeros */
+    private int nextRsum(int block) {
+        if (seqMatches < 2)
+            return 0;
+        return block + 1 < rsums.length ? rsums[block + 1] : 0;
+    }
+
+    private int bucket(int rsum, int nextRsum) {
+        return ((rsum * 31 + nextRsum) * 0x9E3779B1) >>> shift;
+    }
+
+    private static String required(Map<String, String> headers, String key) throws IOException {
+        String value = headers.get(key);
+        if (value == null)
+            throw new IOException("The zsync control file has no " + key + " header");
+        return value;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1)
+                throw new EOFException("The zsync control file ends in its header");
+            if (b != '\r')
+                line.write(b);
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+}
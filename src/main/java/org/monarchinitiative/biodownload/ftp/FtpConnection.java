@@ -0,0 +1,333 @@
+package org.monarchinitiative.biodownload.ftp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An authenticated FTP control connection (RFC 959) that transfers files in binary type over passive data connections.
+ * <p>
+ * The connection supports <code>SIZE</code> and <code>MDTM</code> (RFC 3659) to describe a file and <code>REST</code>
+ * to resume a transfer. The connection can be used for any number of transfers, one at a time, which saves the login
+ * for each file from the same server.
+ */
+public class FtpConnection implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(FtpConnection.class);
+
+    private static final Pattern PASV_REPLY = Pattern.compile("\\((\\d+),(\\d+),(\\d+),(\\d+),(\\d+),(\\d+)\\)");
+    private static final Pattern EPSV_REPLY = Pattern.compile("\\(\\|\\|\\|(\\d+)\\|\\)");
+    private static final DateTimeFormatter MDTM_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+
+    private final String host;
+    private final int port;
+    private final String user;
+    private final int timeout;
+    private final Socket control;
+    private final BufferedReader in;
+    private final Writer out;
+    /** the server does not support EPSV, use PASV */
+    private boolean pasvOnly = false;
+    /** the connection can be used for another command */
+    private boolean reusable = true;
+    private long lastUsed = System.nanoTime();
+
+    private FtpConnection(String host, int port, String user, int timeout) throws IOException {
+        this.host = host;
+        this.port = port;
+        this.user = user;
+        this.timeout = timeout;
+        this.control = new Socket();
+        control.connect(new InetSocketAddress(host, port), timeout);
+        control.setSoTimeout(Math.max(timeout, 30_000));
+        this.in = new BufferedReader(new InputStreamReader(control.getInputStream(), StandardCharsets.UTF_8));
+        this.out = new BufferedWriter(new OutputStreamWriter(control.getOutputStream(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Connect to an FTP server, log in and switch to the binary type.
+     *
+     * @param host     host of the server
+     * @param port     port of the server, usually 21
+     * @param user     user name, e.g. <code>anonymous</code>
+     * @param password password of the user
+     * @param timeout  connection timeout in milliseconds
+     * @return the authenticated connection
+     * @throws IOException if the server cannot be reached or rejects the login
+     */
+    public static FtpConnection open(String host, int port, String user, String password, int timeout) throws IOException {
+        FtpConnection connection = new FtpConnection(host, port, user, timeout);
+        try {
+            connection.expect(connection.reply(), 2);
+            Reply reply = connection.command("USER " + user);
+            if (reply.code == 331)
+                reply = connection.command("PASS " + password);
+            connection.expect(reply, 2);
+            connection.expect(connection.command("TYPE I"), 2);
+            logger.debug("Logged in to {}:{} as {}", host, port, user);
+            return connection;
+        } catch (IOException e) {
+            connection.closeQuietly();
+            throw e;
+        }
+    }
+
+    public String host() {
+        return host;
+    }
+
+    public int port() {
+        return port;
+    }
+
+    public String user() {
+        return user;
+    }
+
+    /** @return time of the last command, from {@link System#nanoTime()} */
+    long lastUsed() {
+        return lastUsed;
+    }
+
+    /** @return <code>false</code> if the connection is in an unknown state and must be closed */
+    public boolean isReusable() {
+        return reusable && !control.isClosed();
+    }
+
+    /**
+     * @return size of the file in bytes or -1 if the server does not support <code>SIZE</code>
+     * @throws FtpException if the file does not exist
+     */
+    public long size(String path) throws IOException {
+        Reply reply = command("SIZE " + path);
+        if (reply.code == 213)
+            return Long.parseLong(reply.text.trim());
+        if (reply.code == 500 || reply.code == 502)
+            return -1;
+        throw new FtpException(reply.code, "SIZE " + path + " failed: " + reply);
+    }
+
+    /**
+     * @return last modification time of the file or <code>null</code> if the server does not support <code>MDTM</code>
+     * @throws FtpException if the file does not exist
+     */
+    public Instant modificationTime(String path) throws IOException {
+        Reply reply = command("MDTM " + path);
+        if (reply.code == 213) {
+            String value = reply.text.trim();
+            try {
+                // fractions of seconds are optional
+                return LocalDateTime.parse(value.substring(0, Math.min(14, value.length())), MDTM_FORMAT)
+                        .toInstant(ZoneOffset.UTC);
+            } catch (DateTimeParseException e) {
+                logger.debug("Invalid MDTM reply from {}: {}", host, reply);
+                return null;
+            }
+        }
+        if (reply.code == 500 || reply.code == 502)
+            return null;
+        throw new FtpException(reply.code, "MDTM " + path + " failed: " + reply);
+    }
+
+    /**
+     * Start the transfer of a file. The connection must not be used until the returned stream has been closed.
+     *
+     * @param path   path of the file on the server
+     * @param offset number of bytes to skip with <code>REST</code>, 0 to transfer the whole file
+     * @return the content of the file, closing the stream completes the transfer
+     */
+    public InputStream retrieve(String path, long offset) throws IOException {
+        Socket data = openDataConnection();
+        try {
+            if (offset > 0) {
+                Reply reply = command("REST " + offset);
+                if (reply.code != 350)
+                    throw new FtpException(reply.code, "REST " + offset + " failed: " + reply);
+            }
+            Reply reply = command("RETR " + path);
+            if (reply.code != 125 && reply.code != 150)
+                throw new FtpException(reply.code, "RETR " + path + " failed: " + reply);
+            return new RetrieveStream(data);
+        } catch (IOException e) {
+            data.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the server answers a <code>NOOP</code>
+     */
+    boolean isAlive() {
+        try {
+            return isReusable() && command("NOOP").code == 200;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private Socket openDataConnection() throws IOException {
+        int dataPort = -1;
+        if (!pasvOnly) {
+            Reply reply = command("EPSV");
+            Matcher matcher = EPSV_REPLY.matcher(reply.text);
+            if (reply.code == 229 && matcher.find())
+                dataPort = Integer.parseInt(matcher.group(1));
+            else
+                pasvOnly = true;
+        }
+        if (dataPort < 0) {
+            Reply reply = command("PASV");
+            Matcher matcher = PASV_REPLY.matcher(reply.text);
+            if (reply.code != 227 || !matcher.find())
+                throw new FtpException(reply.code, "PASV failed: " + reply);
+            // the address in the reply is ignored, it is often wrong behind NAT
+            dataPort = Integer.parseInt(matcher.group(5)) * 256 + Integer.parseInt(matcher.group(6));
+        }
+        Socket data = new Socket();
+        data.connect(new InetSocketAddress(control.getInetAddress(), dataPort), timeout);
+        // like on the control connection, a transfer that stalls fails rather than blocking forever
+        data.setSoTimeout(control.getSoTimeout());
+        return data;
+    }
+
+    private Reply command(String command) throws IOException {
+        lastUsed = System.nanoTime();
+        logger.trace("> {}", command.startsWith("PASS ") ? "PASS ****" : command);
+        try {
+            out.write(command);
+            out.write("\r\n");
+            out.flush();
+            return reply();
+        } catch (IOException e) {
+            reusable = false;
+            throw e;
+        }
+    }
+
+    /**
+     * Read a reply, which may span several lines: <code>123-first line ... 123 last line</code>.
+     */
+    private Reply reply() throws IOException {
+        String line = in.readLine();
+        if (line == null || line.length() < 3)
+            throw new EOFException("Connection to " + host + " closed");
+        String code = line.substring(0, 3);
+        StringBuilder text = new StringBuilder(line.length() > 4 ? line.substring(4) : "");
+        if (line.length() > 3 && line.charAt(3) == '-') {
+            while (true) {
+                line = in.readLine();
+                if (line == null)
+                    throw new EOFException("Connection to " + host + " closed");
+                if (line.startsWith(code + " ")) {
+                    text.append('\n').append(line.substring(4));
+                    break;
+                }
+                text.append('\n').append(line);
+            }
+        }
+        logger.trace("< {} {}", code, text);
+        try {
+            return new Reply(Integer.parseInt(code), text.toString());
+        } catch (NumberFormatException e) {
+            reusable = false;
+            throw new IOException("Invalid reply from " + host + ": " + line);
+        }
+    }
+
+    private void expect(Reply reply, int category) throws FtpException {
+        if (reply.code / 100 != category)
+            throw new FtpException(reply.code, "Unexpected reply from " + host + ": " + reply);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (isReusable())
+                command("QUIT");
+        } finally {
+            reusable = false;
+            control.close();
+        }
+    }
+
+    void closeQuietly() {
+        try {
+            close();
+        } catch (IOException e) {
+            logger.debug("Error closing the FTP connection to {}: {}", host, e.getMessage());
+        }
+    }
+
+    private static class Reply {
+        private final int code;
+        private final String text;
+
+        private Reply(int code, String text) {
+            this.code = code;
+            this.text = text;
+        }
+
+        @Override
+        public String toString() {
+            return code + " " + text;
+        }
+    }
+
+    /**
+     * Content of a file on the data connection. Closing the stream reads the reply that completes the transfer.
+     */
+    private class RetrieveStream extends FilterInputStream {
+
+        private final Socket data;
+        private boolean eof = false;
+        private boolean closed = false;
+
+        private RetrieveStream(Socket data) throws IOException {
+            super(data.getInputStream());
+            this.data = data;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1)
+                eof = true;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int readCount = super.read(b, off, len);
+            if (readCount == -1)
+                eof = true;
+            return readCount;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed)
+                return;
+            closed = true;
+            data.close();
+            if (!eof) {
+                // the transfer was abandoned, the state of the control connection is unknown
+                reusable = false;
+                return;
+            }
+            Reply reply = reply();
+            if (reply.code / 100 != 2)
+                throw new FtpException(reply.code, "Transfer from " + host + " failed: " + reply);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.monarchinitiative.biodownload.ftp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the authenticated {@link FtpConnection}s to the FTP servers open between the transfers, so that the files from
+ * the same server are downloaded over a single control connection. The connections that stay idle for longer than
+ * {@link #MAX_IDLE_NANOS} are closed, since the servers drop them anyway.
+ */
+public class FtpConnectionPool implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(FtpConnectionPool.class);
+
+    /** Idle connections are closed after 30 seconds. */
+    static final long MAX_IDLE_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final int timeout;
+    private final Map<String, Deque<FtpConnection>> idle = new HashMap<>();
+
+    /**
+     * @param timeout connection timeout in milliseconds
+     */
+    public FtpConnectionPool(int timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * @param url <code>ftp://</code> URL, with optional user and password
+     * @return a connection to the server of the URL, which must be {@link #release(FtpConnection) released}
+     */
+    public FtpConnection acquire(URL url) throws IOException {
+        String user = "anonymous";
+        String password = "anonymous@";
+        if (url.getUserInfo() != null) {
+            String[] userInfo = url.getUserInfo().split(":", 2);
+            user = URLDecoder.decode(userInfo[0], StandardCharsets.UTF_8);
+            password = userInfo.length > 1 ? URLDecoder.decode(userInfo[1], StandardCharsets.UTF_8) : "";
+        }
+        int port = url.getPort() == -1 ? 21 : url.getPort();
+        String key = key(url.getHost(), port, user);
+        while (true) {
+            FtpConnection connection;
+            synchronized (this) {
+                Deque<FtpConnection> connections = idle.get(key);
+                connection = connections == null ? null : connections.pollFirst();
+            }
+            if (connection == null)
+                break;
+            if (System.nanoTime() - connection.lastUsed() < MAX_IDLE_NANOS && connection.isAlive()) {
+                logger.debug("Reusing the FTP connection to {}", url.getHost());
+                return connection;
+            }
+            connection.closeQuietly();
+        }
+        logger.debug("Opening an FTP connection to {}:{}", url.getHost(), port);
+        return FtpConnection.open(url.getHost(), port, user, password, timeout);
+    }
+
+    /**
+     * Return a connection to the pool, or close it if it cannot be reused.
+     */
+    public void release(FtpConnection connection) {
+        if (!connection.isReusable()) {
+            connection.closeQuietly();
+            return;
+        }
+        synchronized (this) {
+            idle.computeIfAbsent(key(connection.host(), connection.port(), connection.user()), k -> new ArrayDeque<>())
+                    .addFirst(connection);
+        }
+    }
+
+    /**
+     * Close the idle connections.
+     */
+    @Override
+    public void close() {
+        Deque<FtpConnection> connections = new ArrayDeque<>();
+        synchronized (this) {
+            idle.values().forEach(connections::addAll);
+            idle.clear();
+        }
+        connections.forEach(FtpConnection::closeQuietly);
+    }
+
+    private static String key(String host, int port, String user) {
+        return user + "@" + host + ":" + port;
+    }
+}
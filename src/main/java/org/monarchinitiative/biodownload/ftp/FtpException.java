@@ -0,0 +1,27 @@
+package org.monarchinitiative.biodownload.ftp;
+
+import java.io.IOException;
+
+/**
+ * Signals that an FTP server answered a command with an error reply.
+ */
+public class FtpException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int replyCode;
+
+    public FtpException(int replyCode, String msg) {
+        super(msg);
+        this.replyCode = replyCode;
+    }
+
+    /** @return the reply code, e.g. 550 if the file does not exist */
+    public int replyCode() {
+        return replyCode;
+    }
+
+    /** @return <code>true</code> for the 4xx replies, which signal a transient problem */
+    public boolean isTransient() {
+        return replyCode >= 400 && replyCode < 500;
+    }
+}
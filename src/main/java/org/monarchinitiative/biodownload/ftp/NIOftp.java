@@ -6,11 +6,10 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 import java.nio.ByteBuffer;
-import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
-import java.nio.channels.ReadableByteChannel;
 import java.nio.file.StandardOpenOption;
 import java.util.Objects;
 
@@ -21,7 +20,7 @@ public class NIOftp {
 
     private static final Logger logger = LoggerFactory.getLogger(NIOftp.class);
 
-    private static final int FTP_BUFFER_CAPACITY = 2048;
+    private static final int FTP_BUFFER_CAPACITY = 128 * 1024;
 
     private NIOftp() {
         throw new IllegalStateException("This is not an instantiable class.");
@@ -36,6 +35,19 @@ public class NIOftp {
      * @throws FileDownloadException in case of errors
      */
     public static File ftp(URL from, File target) throws FileDownloadException {
+        return ftp(from, target, FTP_BUFFER_CAPACITY);
+    }
+
+    /**
+     * Download a file from a given ftp URL
+     *
+     * @param from           ftp url to download from
+     * @param target         Full path to target file to download to
+     * @param bufferCapacity size of the buffer used to copy the data, in bytes
+     * @return file downloaded
+     * @throws FileDownloadException in case of errors
+     */
+    public static File ftp(URL from, File target, int bufferCapacity) throws FileDownloadException {
         if (from == null) {
             throw new FileDownloadException("URL required for ftp source");
         }
@@ -51,7 +63,7 @@ public class NIOftp {
         try {
             logger.info("Starting ftp download from {}", from);
 
-            ByteBuffer buffer = ByteBuffer.allocate(FTP_BUFFER_CAPACITY);
+            ByteBuffer buffer = ByteBuffer.allocate(bufferCapacity);
             while (reader.read(buffer) >= 0) {
                 writer.write(buffer.flip());
 
@@ -77,11 +89,15 @@ public class NIOftp {
 
 final class FileReader {
 
-    private final ReadableByteChannel from;
+    /*
+     * We read from the stream directly instead of wrapping it into a channel, since the channel adapter
+     * reads at most 8 KB at a time, no matter how large the buffer is.
+     */
+    private final InputStream from;
 
     FileReader(URL url) throws FileDownloadException {
         try {
-            from = Channels.newChannel(url.openStream());
+            from = url.openStream();
         } catch (IOException e) {
             throw new FileDownloadException("Problem connecting when downloading file.", e);
         }
@@ -89,7 +105,10 @@ final class FileReader {
 
     int read(ByteBuffer buffer) throws FileDownloadException {
         try {
-            return from.read(buffer);
+            int readCount = from.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            if (readCount > 0)
+                buffer.position(buffer.position() + readCount);
+            return readCount;
         } catch (IOException e) {
             throw new FileDownloadException("Problem connecting when downloading file.", e);
         }
@@ -110,7 +129,8 @@ final class FileWriter {
 
     FileWriter(File file) throws FileDownloadException {
         try {
-            target = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            target = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
         } catch (IOException e) {
             throw new FileDownloadException("Problem connecting when downloading file.", e);
         }
@@ -118,9 +138,7 @@ final class FileWriter {
 
     void write(ByteBuffer buffer) throws FileDownloadException {
         try {
-            target.write(buffer);
             while (buffer.hasRemaining()) {
-                buffer.compact();
                 target.write(buffer);
             }
         } catch (IOException e) {
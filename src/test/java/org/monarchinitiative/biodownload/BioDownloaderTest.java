@@ -3,12 +3,20 @@ package org.monarchinitiative.biodownload;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.InputStream;
 import java.net.URL;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -85,6 +93,352 @@ public class BioDownloaderTest {
         assertEquals("Duplicated resource: [abc.json, https://example.com/abc.json]", e.getMessage());
     }
 
+    @Test
+    public void concurrentDownloadKeepsResourceOrder(@TempDir Path target) throws Exception {
+        byte[] hp = Files.readAllBytes(resourcePath.resolve("hp.json"));
+        byte[] mock = Files.readAllBytes(resourcePath.resolve("mock.txt"));
+        try (TestHttpServer first = new TestHttpServer().serve("/hp.json", hp).serve("/mock.txt", mock).latency(200);
+             TestHttpServer second = new TestHttpServer().serve("/hp.json", hp).serve("/mock.txt", mock).latency(200)) {
+            BioDownloader bioDownloader = BioDownloader.builder(target)
+                    .parallelism(3)
+                    .maxConnectionsPerHost(1)
+                    .custom("a.json", first.url("/hp.json"))
+                    .custom("b.txt", first.url("/mock.txt"))
+                    // another host name of the loopback interface
+                    .custom("c.json", second.url("localhost", "/hp.json"))
+                    .custom("d.txt", second.url("localhost", "/mock.txt"))
+                    .build();
+
+            List<File> files = bioDownloader.download();
+
+            assertEquals(List.of("a.json", "b.txt", "c.json", "d.txt"),
+                    files.stream().map(File::getName).collect(Collectors.toList()));
+            for (File file : files)
+                assertTrue(file.isFile());
+            // one download at a time from each host, but both hosts at the same time
+            assertEquals(0, overlaps(first.intervals(), first.intervals()));
+            assertEquals(0, overlaps(second.intervals(), second.intervals()));
+            assertTrue(overlaps(first.intervals(), second.intervals()) > 0);
+        }
+    }
+
+    @Test
+    public void hostLimitAppliesToChosenMirror(@TempDir Path target) throws Exception {
+        byte[] hp = Files.readAllBytes(resourcePath.resolve("hp.json"));
+        byte[] mock = Files.readAllBytes(resourcePath.resolve("mock.txt"));
+        try (TestHttpServer mirror = new TestHttpServer().serve("/hp.json", hp).serve("/mock.txt", mock).latency(200)) {
+            // the primary hosts never resolve, both resources are downloaded from the mirror
+            BioDownloader bioDownloader = BioDownloader.builder(target)
+                    .overwrite(true)
+                    .parallelism(2)
+                    .maxConnectionsPerHost(1)
+                    .custom("a.json", new URL("http://primary-a.invalid/hp.json"), mirror.url("/hp.json"))
+                    .custom("b.txt", new URL("http://primary-b.invalid/mock.txt"), mirror.url("/mock.txt"))
+                    .build();
+
+            assertEquals(2, bioDownloader.download().size());
+            assertEquals(2, mirror.intervals().size());
+            assertEquals(0, overlaps(mirror.intervals(), mirror.intervals()));
+
+            assertEquals(2, bioDownloader.downloadAsync().all().get().size());
+            assertEquals(4, mirror.intervals().size());
+            assertEquals(0, overlaps(mirror.intervals(), mirror.intervals()));
+        }
+    }
+
+    /**
+     * @return number of pairs of distinct requests that were answered at the same time
+     */
+    private static int overlaps(List<long[]> requests, List<long[]> others) {
+        int overlaps = 0;
+        for (long[] request : requests) {
+            for (long[] other : others) {
+                if (request != other && request[0] < other[1] && other[0] < request[1])
+                    overlaps++;
+            }
+        }
+        return overlaps;
+    }
+
+    @Test
+    public void unchangedFileIsNotDownloadedAgain(@TempDir Path target) throws Exception {
+        try (TestHttpServer server = new TestHttpServer()) {
+            server.serve("/hp.json", Files.readAllBytes(resourcePath.resolve("hp.json")));
+            BioDownloader bioDownloader = BioDownloader.builder(target)
+                    .updateIfModified(true)
+                    .custom(server.url("/hp.json"))
+                    .build();
+
+            assertEquals(1, bioDownloader.download().size());
+            assertTrue(bioDownloader.download().isEmpty());
+
+            server.serve("/hp.json", "{}".getBytes());
+            assertEquals(1, bioDownloader.download().size());
+            assertEquals("{}", Files.readString(target.resolve("hp.json")));
+        }
+    }
+
+    @Test
+    public void laterBuildDoesNotChangeEarlierDownloader(@TempDir Path target) throws Exception {
+        try (TestHttpServer server = new TestHttpServer()) {
+            server.serve("/hp.json", "{}".getBytes());
+            BioDownloaderBuilder builder = BioDownloader.builder(target)
+                    .updateIfModified(true)
+                    .custom(server.url("/hp.json"));
+            BioDownloader first = builder.build();
+            builder.overwrite(true)
+                    .checksum("hp.json", ChecksumAlgorithm.SHA256, "0".repeat(64))
+                    .build();
+
+            // the first downloader still skips the unchanged file, and does not expect the later checksum
+            assertEquals(1, first.download().size());
+            assertTrue(first.download().isEmpty());
+        }
+    }
+
+    @Test
+    public void ftpConnectionsAreClosedAfterDownloads(@TempDir Path target) throws Exception {
+        try (TestFtpServer server = new TestFtpServer().serve("/pub/hp.obo", "hp".getBytes()).serve("/pub/mondo.obo", "mondo".getBytes())) {
+            BioDownloader bioDownloader = BioDownloader.builder(target)
+                    .overwrite(true)
+                    .custom("hp.obo", server.url("/pub/hp.obo"))
+                    .custom("mondo.obo", server.url("/pub/mondo.obo"))
+                    .build();
+
+            assertEquals(2, bioDownloader.download().size());
+            awaitClosedConnections(server);
+
+            assertEquals(2, bioDownloader.downloadAsync().all().get().size());
+            awaitClosedConnections(server);
+        }
+    }
+
+    private static void awaitClosedConnections(TestFtpServer server) throws InterruptedException {
+        // the server notices the closed connections asynchronously
+        for (int i = 0; i < 100 && server.openConnections() > 0; i++)
+            Thread.sleep(20);
+        assertEquals(0, server.openConnections());
+    }
+
+    @Test
+    public void overwriteIgnoresUpdateIfModified(@TempDir Path target) throws Exception {
+        try (TestHttpServer server = new TestHttpServer()) {
+            server.serve("/hp.json", "{}".getBytes());
+            BioDownloader bioDownloader = BioDownloader.builder(target)
+                    .overwrite(true)
+                    .updateIfModified(true)
+                    .custom(server.url("/hp.json"))
+                    .build();
+
+            assertEquals(1, bioDownloader.download().size());
+            // an unchanged file is downloaded again
+            assertEquals(1, bioDownloader.download().size());
+            assertEquals(2, server.requests("/hp.json"));
+            assertFalse(Files.exists(target.resolve(DownloadManifest.FILE_NAME)));
+        }
+    }
+
+    @Test
+    public void asyncDownload(@TempDir Path target) throws Exception {
+        URL hpoUrl = resourcePath.resolve("hp.json").toUri().toURL();
+        URL mockUrl = resourcePath.resolve("mock.txt").toUri().toURL();
+        BioDownloader bioDownloader = BioDownloader.builder(target)
+                .custom("a.json", hpoUrl)
+                .custom("b.txt", mockUrl)
+                .build();
+
+        AsyncDownload download = bioDownloader.downloadAsync();
+
+        assertEquals(target.resolve("a.json").toFile(), download.resource("a.json").get().orElseThrow());
+        assertEquals(List.of("a.json", "b.txt"),
+                download.all().get().stream().map(File::getName).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void asyncDownloadReportsFailure(@TempDir Path target) throws Exception {
+        BioDownloader bioDownloader = BioDownloader.builder(target)
+                .custom("missing.json", resourcePath.resolve("missing.json").toUri().toURL())
+                .build();
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> bioDownloader.downloadAsync(Runnable::run).all().get());
+
+        assertTrue(e.getCause() instanceof FileDownloadException);
+    }
+
+    @Test
+    public void failuresAreReportedTogether(@TempDir Path target) throws Exception {
+        try (TestHttpServer server = new TestHttpServer()) {
+            server.serve("/hp.json", Files.readAllBytes(resourcePath.resolve("hp.json")))
+                    .fail("/a.json", Integer.MAX_VALUE)
+                    .fail("/b.json", Integer.MAX_VALUE);
+            BioDownloader bioDownloader = BioDownloader.builder(target)
+                    .maxAttempts(1)
+                    .circuitBreaker(1, Duration.ofMinutes(1))
+                    .custom(server.url("/a.json"))
+                    .custom(server.url("/b.json"))
+                    .custom("hp.json", resourcePath.resolve("hp.json").toUri().toURL())
+                    .build();
+
+            FileDownloadException e = assertThrows(FileDownloadException.class, bioDownloader::download);
+
+            assertEquals("ERROR: 2 of 3 downloads failed: a.json, b.json", e.getMessage());
+            assertEquals(2, e.getSuppressed().length);
+            // the circuit of the host opened after the first failure
+            assertTrue(e.getSuppressed()[1].getMessage().startsWith("ERROR: Skipping download of b.json"));
+            assertTrue(target.resolve("hp.json").toFile().isFile());
+        }
+    }
+
+    @Test
+    public void planDescribesRemoteFiles(@TempDir Path target) throws Exception {
+        byte[] hp = Files.readAllBytes(resourcePath.resolve("hp.json"));
+        try (TestHttpServer server = new TestHttpServer()) {
+            server.serve("/hp.json", hp)
+                    .serve("/mondo.json", new byte[1000])
+                    .redirect("/latest/mondo.json", "/mondo.json");
+            Files.write(target.resolve("hp.json"), hp);
+            BioDownloader bioDownloader = BioDownloader.builder(target)
+                    .custom("hp.json", server.url("/hp.json"))
+                    .custom("mondo.json", server.url("/latest/mondo.json"))
+                    .custom("missing.json", server.url("/missing.json"))
+                    .build();
+
+            DownloadPlan plan = bioDownloader.plan();
+
+            assertTrue(plan.entry("hp.json").isCurrent());
+            DownloadPlan.Entry mondo = plan.entry("mondo.json");
+            assertFalse(mondo.isCurrent());
+            assertEquals(server.url("/mondo.json"), mondo.finalUrl());
+            assertEquals(1000, mondo.size());
+            assertTrue(mondo.acceptsRanges());
+            assertEquals("HTTP 404 for " + server.url("/missing.json"), plan.entry("missing.json").error().orElseThrow());
+            assertEquals(List.of(mondo, plan.entry("missing.json")), plan.outdated());
+            assertEquals(1000, plan.bytesToDownload());
+            assertFalse(plan.isSizeKnown());
+            // nothing was downloaded
+            assertFalse(target.resolve("mondo.json").toFile().exists());
+        }
+    }
+
+    @Test
+    public void planDetectsFullDisk() throws Exception {
+        DownloadPlan.Entry entry = new DownloadPlan.Entry("gencode.gtf.gz", Path.of("gencode.gtf.gz"),
+                new URL("https://example.com/gencode.gtf.gz"), new URL("https://example.com/gencode.gtf.gz"),
+                2000, null, true, false, true, 0, null);
+
+        assertTrue(new DownloadPlan(List.of(entry), 2000).fitsOnDisk());
+        assertFalse(new DownloadPlan(List.of(entry), 1999).fitsOnDisk());
+    }
+
+    @Test
+    public void planCountsBytesLikeDownload(@TempDir Path target) throws Exception {
+        byte[] content = new byte[1000];
+        try (TestHttpServer server = new TestHttpServer()) {
+            server.serve("/current.bin", content).serve("/changed.bin", content).serve("/partial.bin", content);
+            Files.write(target.resolve("current.bin"), content);
+            Files.write(target.resolve("changed.bin"), new byte[10]);
+            PartFile part = new PartFile(target.resolve("partial.bin").toFile());
+            Files.write(part.toFile().toPath(), new byte[400]);
+            part.start(server.url("/partial.bin"), TestHttpServer.etag(content), content.length);
+
+            DownloadPlan plan = BioDownloader.builder(target)
+                    .custom(server.url("/current.bin"))
+                    .custom(server.url("/changed.bin"))
+                    .custom(server.url("/partial.bin"))
+                    .build()
+                    .plan();
+            // existing files are kept, the part file is continued
+            assertEquals(List.of(plan.entry("partial.bin")), plan.toDownload());
+            assertEquals(400, plan.entry("partial.bin").resumableLength());
+            assertEquals(600, plan.bytesToDownload());
+
+            plan = BioDownloader.builder(target)
+                    .overwrite(true)
+                    .custom(server.url("/current.bin"))
+                    .custom(server.url("/changed.bin"))
+                    .custom(server.url("/partial.bin"))
+                    .build()
+                    .plan();
+            // the current file is downloaded again too
+            assertEquals(plan.entries(), plan.toDownload());
+            assertEquals(2600, plan.bytesToDownload());
+        }
+    }
+
+    @Test
+    public void streamReadsResourceWithoutWritingIt(@TempDir Path target) throws Exception {
+        byte[] hp = Files.readAllBytes(resourcePath.resolve("hp.json"));
+        try (TestHttpServer server = new TestHttpServer()) {
+            server.serve("/hp.json", hp);
+            BioDownloader bioDownloader = BioDownloader.builder(target)
+                    .custom("hp.json", server.url("/hp.json"))
+                    .build();
+
+            try (InputStream stream = bioDownloader.openStream("hp.json")) {
+                assertArrayEquals(hp, stream.readAllBytes());
+            }
+            ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+            bioDownloader.stream("hp.json", chunk -> {
+                byte[] bytes = new byte[chunk.remaining()];
+                chunk.get(bytes);
+                chunks.writeBytes(bytes);
+            });
+            assertArrayEquals(hp, chunks.toByteArray());
+            assertFalse(target.resolve("hp.json").toFile().exists());
+            assertThrows(NoSuchElementException.class, () -> bioDownloader.openStream("mondo.json"));
+        }
+    }
+
+    @Test
+    public void transferBuffersAreReused(@TempDir Path target) throws Exception {
+        byte[] hp = Files.readAllBytes(resourcePath.resolve("hp.json"));
+        try (TestHttpServer server = new TestHttpServer()) {
+            server.serve("/hp.json", hp).serve("/mondo.json", hp);
+            BioDownloader bioDownloader = BioDownloader.builder(target)
+                    .maxBufferMemory(1024 * 1024)
+                    .custom("hp.json", server.url("/hp.json"))
+                    .custom("mondo.json", server.url("/mondo.json"))
+                    .build();
+
+            assertEquals(2, bioDownloader.download().size());
+
+            BufferPool pool = bioDownloader.bufferPool();
+            assertEquals(1, pool.misses());
+            assertEquals(1, pool.hits());
+            assertEquals(0, pool.inUse());
+        }
+    }
+
+    @Test
+    public void teeStreamWritesFileAtEndOfStream(@TempDir Path target) throws Exception {
+        byte[] hp = Files.readAllBytes(resourcePath.resolve("hp.json"));
+        try (TestHttpServer server = new TestHttpServer()) {
+            server.serve("/hp.json", hp);
+            BioDownloader bioDownloader = BioDownloader.builder(target)
+                    .custom("hp.json", server.url("/hp.json"))
+                    .teeStreams(true)
+                    .build();
+
+            try (InputStream stream = bioDownloader.openStream("hp.json")) {
+                assertEquals(hp[0], stream.read());
+                assertFalse(target.resolve("hp.json").toFile().exists());
+                stream.readAllBytes();
+            }
+            assertArrayEquals(hp, Files.readAllBytes(target.resolve("hp.json")));
+            assertFalse(target.resolve("hp.json.part").toFile().exists());
+        }
+    }
+
+    @Test
+    public void invalidParallelismIsDetected() {
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> BioDownloader.builder(resourcePath)
+                .parallelism(0)
+                .hpoJson()
+                .build());
+
+        assertEquals("Parallelism must be at least 1.", e.getMessage());
+    }
+
     @Test
     @Disabled("To run manually")
     public void downloadAll() throws Exception {
@@ -128,4 +482,55 @@ public class BioDownloaderTest {
         boolean deleted = resourcePath.resolve("prosite.dat").toFile().delete();
         assertTrue(deleted);
     }
+
+    @Test
+    public void buildPrewarmsEachHostOnce(@TempDir Path target) throws Exception {
+        try (TestHttpServer server = new TestHttpServer()) {
+            server.serve("/hp.json", "{}".getBytes())
+                    .serve("/mondo.json", "{}".getBytes());
+            BioDownloader bioDownloader = BioDownloader.builder(target)
+                    .prewarmConnections(true)
+                    .custom(server.url("/hp.json"))
+                    .custom(server.url("/mondo.json"))
+                    // an unreachable host does not fail the build
+                    .custom("geno.json", new URL("http://127.0.0.1:1/geno.json"))
+                    .build();
+
+            assertNotNull(bioDownloader);
+            assertEquals(1, server.headRequests());
+        }
+    }
+
+    @Test
+    public void proxyAppliesOnlyToItsDownloader(@TempDir Path target) throws Exception {
+        // the test server serves the absolute URLs that a proxy receives by their path
+        try (TestHttpServer proxy = new TestHttpServer()) {
+            proxy.serve("/hp.json", "{}".getBytes());
+            URL url = new URL("http://hp.example.invalid/hp.json");
+            for (boolean httpClient : List.of(false, true)) {
+                BioDownloader proxied = BioDownloader.builder(target.resolve("proxied-" + httpClient))
+                        .httpClient(httpClient)
+                        .proxy("http", "127.0.0.1", proxy.url("/").getPort())
+                        .custom(url)
+                        .build();
+                BioDownloader direct = BioDownloader.builder(target.resolve("direct-" + httpClient))
+                        .httpClient(httpClient)
+                        .maxAttempts(1)
+                        .custom(url)
+                        .build();
+
+                assertEquals(1, proxied.download().size());
+                assertThrows(FileDownloadException.class, direct::download);
+            }
+            assertNull(System.getProperty("http.proxyHost"));
+        }
+    }
+
+    @Test
+    public void invalidProxyFailsBuild() {
+        assertThrows(IllegalStateException.class, () -> BioDownloader.builder(Paths.get("target"))
+                .proxy("gopher", "proxy.example.org", 8080)
+                .hpoJson()
+                .build());
+    }
 }
@@ -0,0 +1,61 @@
+package org.monarchinitiative.biodownload;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BufferPoolTest {
+
+    @Test
+    public void buffersAreReused() throws Exception {
+        BufferPool pool = new BufferPool(4096);
+
+        ByteBuffer first = pool.acquire(1024);
+        first.put((byte) 1);
+        pool.release(first);
+        ByteBuffer second = pool.acquire(1024);
+
+        assertSame(first, second);
+        assertEquals(0, second.position());
+        assertEquals(1, pool.hits());
+        assertEquals(1, pool.misses());
+        assertEquals(1024, pool.inUse());
+    }
+
+    @Test
+    public void acquireWaitsForBudget() throws Exception {
+        BufferPool pool = new BufferPool(2048);
+        ByteBuffer first = pool.acquire(1024);
+        pool.acquire(1024);
+
+        CompletableFuture<ByteBuffer> third = CompletableFuture.supplyAsync(() -> {
+            try {
+                return pool.acquire(1024);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertThrows(TimeoutException.class, () -> third.get(200, TimeUnit.MILLISECONDS));
+
+        pool.release(first);
+        assertSame(first, third.get(5, TimeUnit.SECONDS));
+        assertEquals(2048, pool.allocated());
+    }
+
+    @Test
+    public void freeBuffersOfOtherSizesAreDropped() throws Exception {
+        BufferPool pool = new BufferPool(2048);
+        pool.release(pool.acquire(2048));
+
+        ByteBuffer buffer = pool.acquire(1024);
+
+        assertEquals(1024, buffer.capacity());
+        assertEquals(1024, pool.allocated());
+        assertEquals(2, pool.misses());
+    }
+}
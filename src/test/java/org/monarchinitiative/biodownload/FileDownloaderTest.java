@@ -0,0 +1,687 @@
+package org.monarchinitiative.biodownload;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileDownloaderTest {
+
+    private static byte[] randomContent(int size) {
+        byte[] content = new byte[size];
+        new Random(42).nextBytes(content);
+        return content;
+    }
+
+    private static String md5(byte[] content) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("MD5").digest(content))
+            sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    @Test
+    public void segmentedDownload(@TempDir Path target) throws Exception {
+        byte[] content = randomContent(5 * 1024 * 1024 + 17);
+        try (TestHttpServer server = new TestHttpServer().serve("/big.bin", content)) {
+            FileDownloader.Options options = new FileDownloader.Options();
+            options.segments = 4;
+            File dest = target.resolve("big.bin").toFile();
+
+            new FileDownloader(options).copyURLToFile(server.url("/big.bin"), dest);
+
+            assertArrayEquals(content, Files.readAllBytes(dest.toPath()));
+            assertEquals(4, server.rangeRequests());
+        }
+    }
+
+    @Test
+    public void segmentedDownloadWithMemoryMapping(@TempDir Path target) throws Exception {
+        byte[] content = randomContent(5 * 1024 * 1024 + 17);
+        try (TestHttpServer server = new TestHttpServer().serve("/big.bin", content)) {
+            FileDownloader.Options options = new FileDownloader.Options();
+            options.segments = 4;
+            options.memoryMappedWrites = true;
+            File dest = target.resolve("big.bin").toFile();
+
+            new FileDownloader(options).copyURLToFile(server.url("/big.bin"), dest);
+
+            assertArrayEquals(content, Files.readAllBytes(dest.toPath()));
+            assertFalse(target.resolve("big.bin.part.blocks").toFile().exists());
+        }
+    }
+
+    @Test
+    @DisabledOnOs(OS.WINDOWS)
+    public void segmentsAreWrittenThroughMemoryMapping(@TempDir Path target) throws Exception {
+        try (DestinationWriter writer = DestinationWriter.segments(target.resolve("big.bin.part"), 1000, true)) {
+            assertTrue(writer instanceof DestinationWriter.Mapped);
+        }
+    }
+
+    @Test
+    @EnabledOnOs(OS.WINDOWS)
+    public void segmentsAreWrittenWithPositionalWritesOnWindows(@TempDir Path target) throws Exception {
+        try (DestinationWriter writer = DestinationWriter.segments(target.resolve("big.bin.part"), 1000, true)) {
+            assertTrue(writer instanceof DestinationWriter.Positional);
+        }
+    }
+
+    @Test
+    public void downloadWithWriteBehind(@TempDir Path target) throws Exception {
+        byte[] content = randomContent(5 * 1024 * 1024 + 17);
+        try (TestHttpServer server = new TestHttpServer().serve("/big.bin", content)) {
+            FileDownloader.Options options = new FileDownloader.Options();
+            options.writeBehind = 2;
+            options.fsync = FsyncPolicy.ON_COMPLETE;
+            File single = target.resolve("single.bin").toFile();
+            File segmented = target.resolve("segmented.bin").toFile();
+
+            new FileDownloader(options).copyURLToFile(server.url("/big.bin"), single);
+            options.segments = 4;
+            new FileDownloader(options).copyURLToFile(server.url("/big.bin"), segmented);
+
+            assertArrayEquals(content, Files.readAllBytes(single.toPath()));
+            assertArrayEquals(content, Files.readAllBytes(segmented.toPath()));
+            assertEquals(0, options.buffers.inUse());
+        }
+    }
+
+    @Test
+    public void interruptedSegmentedDownloadResumesMissingBlocks(@TempDir Path target) throws Exception {
+        byte[] content = randomContent(5 * 1024 * 1024 + 17);
+        try (TestHttpServer server = new TestHttpServer().serve("/big.bin", content)) {
+            URL url = server.url("/big.bin");
+            File dest = target.resolve("big.bin").toFile();
+            // the first three blocks were downloaded before the interruption
+            PartFile part = new PartFile(dest);
+            CompletionBitmap blocks = part.startSegmented(url, TestHttpServer.etag(content), content.length);
+            byte[] partial = new byte[content.length];
+            System.arraycopy(content, 0, partial, 0, 3 * CompletionBitmap.BLOCK_SIZE);
+            Files.write(part.toFile().toPath(), partial);
+            for (int block = 0; block < 3; block++)
+                blocks.complete(block);
+            blocks.save();
+            FileDownloader.Options options = new FileDownloader.Options();
+            options.segments = 4;
+
+            new FileDownloader(options).copyURLToFile(url, dest);
+
+            assertArrayEquals(content, Files.readAllBytes(dest.toPath()));
+            // the three missing blocks, one segment each
+            assertEquals(3, server.rangeRequests());
+        }
+    }
+
+    @Test
+    public void segmentedDownloadWithHttpClient(@TempDir Path target) throws Exception {
+        byte[] content = randomContent(5 * 1024 * 1024 + 17);
+        try (TestHttpServer server = new TestHttpServer().serve("/big.bin", content)) {
+            FileDownloader.Options options = new FileDownloader.Options();
+            options.segments = 4;
+            options.transport = new HttpClientTransport(FileDownloader.CONNECTION_TIMEOUT);
+            File dest = target.resolve("big.bin").toFile();
+
+            new FileDownloader(options).copyURLToFile(server.url("/big.bin"), dest);
+
+            assertArrayEquals(content, Files.readAllBytes(dest.toPath()));
+            assertEquals(4, server.rangeRequests());
+        }
+    }
+
+    @Test
+    public void connectionFailureOfHttpClientNamesUrl(@TempDir Path target) throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = socket.getLocalPort();
+        }
+        URL url = new URL("http", InetAddress.getLoopbackAddress().getHostAddress(), port, "/hp.json");
+        FileDownloader.Options options = new FileDownloader.Options();
+        options.retryPolicy.maxAttempts = 1;
+        options.transport = new HttpClientTransport(FileDownloader.CONNECTION_TIMEOUT);
+
+        FileDownloadException e = assertThrows(FileDownloadException.class,
+                () -> new FileDownloader(options).copyURLToFile(url, target.resolve("hp.json").toFile()));
+
+        assertTrue(e.getMessage().contains(url.toString()), e.getMessage());
+        assertTrue(RetryPolicy.isTransient(e));
+    }
+
+    @Test
+    public void segmentedDownloadFallsBackToSingleStream(@TempDir Path target) throws Exception {
+        byte[] content = randomContent(5 * 1024 * 1024);
+        try (TestHttpServer server = new TestHttpServer().serve("/big.bin", content).acceptRanges(false)) {
+            FileDownloader.Options options = new FileDownloader.Options();
+            options.segments = 4;
+            File dest = target.resolve("big.bin").toFile();
+
+            new FileDownloader(options).copyURLToFile(server.url("/big.bin"), dest);
+
+            assertArrayEquals(content, Files.readAllBytes(dest.toPath()));
+            assertEquals(0, server.rangeRequests());
+        }
+    }
+
+    @Test
+    public void interruptedDownloadIsResumed(@TempDir Path target) throws Exception {
+        byte[] content = randomContent(300 * 1024);
+        try (TestHttpServer server = new TestHttpServer().serve("/file.bin", content)) {
+            URL url = server.url("/file.bin");
+            File dest = target.resolve("file.bin").toFile();
+            PartFile part = new PartFile(dest);
+            Files.write(part.toFile().toPath(), Arrays.copyOf(content, 100 * 1024));
+            part.start(url, TestHttpServer.etag(content));
+
+            new FileDownloader().copyURLToFile(url, dest);
+
+            assertArrayEquals(content, Files.readAllBytes(dest.toPath()));
+            assertEquals(1, server.rangeRequests());
+            assertFalse(part.toFile().exists());
+        }
+    }
+
+    @Test
+    public void changedRemoteFileIsDownloadedFromBeginning(@TempDir Path target) throws Exception {
+        byte[] content = randomContent(300 * 1024);
+        try (TestHttpServer server = new TestHttpServer().serve("/file.bin", content)) {
+            URL url = server.url("/file.bin");
+            File dest = target.resolve("file.bin").toFile();
+            PartFile part = new PartFile(dest);
+            Files.write(part.toFile().toPath(), new byte[100 * 1024]);
+            part.start(url, "\"outdated\"");
+
+            new FileDownloader().copyURLToFile(url, dest);
+
+            assertArrayEquals(content, Files.readAllBytes(dest.toPath()));
+            assertEquals(0, server.rangeRequests());
+        }
+    }
+
+    @Test
+    public void partFileOfFormerSourceIsNotContinued(@TempDir Path target) throws Exception {
+        byte[] content = randomContent(300 * 1024);
+        try (TestHttpServer server = new TestHttpServer().serve("/file.bin", content).serve("/old.bin", content)) {
+            URL url = server.url("/file.bin");
+            File dest = target.resolve("file.bin").toFile();
+            PartFile part = new PartFile(dest);
+            // another file of the same size, from a URL that is no longer a mirror of the resource
+            Files.write(part.toFile().toPath(), new byte[100 * 1024]);
+            part.start(server.url("/old.bin"), "\"other\"", content.length);
+
+            new FileDownloader().copyURLToFile(url, dest);
+
+            assertArrayEquals(content, Files.readAllBytes(dest.toPath()));
+            assertEquals(0, server.rangeRequests());
+        }
+    }
+
+    @Test
+    public void checksumFromChecksumFileIsVerified(@TempDir Path target) throws Exception {
+        byte[] content = randomContent(300 * 1024);
+        byte[] md5sums = ("0123456789abcdef0123456789abcdef  ./other.bin\n" + md5(content) + "  ./file.bin\n").getBytes();
+        try (TestHttpServer server = new TestHttpServer().serve("/file.bin", content).serve("/MD5SUMS", md5sums)) {
+            FileDownloader.Options options = new FileDownloader.Options();
+            options.checksums.addChecksumFile(ChecksumAlgorithm.MD5, server.url("/MD5SUMS"));
+            File dest = target.resolve("file.bin").toFile();
+
+            new FileDownloader(options).copyURLToFile(server.url("/file.bin"), dest);
+
+            assertArrayEquals(content, Files.readAllBytes(dest.toPath()));
+        }
+    }
+
+    @Test
+    public void checksumMismatchFailsDownload(@TempDir Path target) throws Exception {
+        byte[] content = randomContent(300 * 1024);
+        try (TestHttpServer server = new TestHttpServer().serve("/file.bin", content)) {
+            FileDownloader.Options options = new FileDownloader.Options();
+            options.checksums.declare("file.bin", ChecksumAlgorithm.MD5, "0123456789abcdef0123456789abcdef");
+            File dest = target.resolve("file.bin").toFile();
+
+            FileDownloadException e = assertThrows(FileDownloadException.class,
+                    () -> new FileDownloader(options).copyURLToFile(server.url("/file.bin"), dest));
+
+            assertTrue(e.getMessage().contains("MD5 checksum mismatch for file.bin:"));
+            assertFalse(dest.exists());
+            assertFalse(new PartFile(dest).toFile().exists());
+        }
+    }
+
+    @Test
+    public void parseBsdChecksumFile() throws Exception {
+        byte[] md5 = "MD5(Homo_sapiens.gene_info.gz)= 0123456789ABCDEF0123456789ABCDEF\n".getBytes();
+
+        Map<String, Checksums.Checksum> checksums = Checksums.parse(ChecksumAlgorithm.MD5, new ByteArrayInputStream(md5));
+
+        assertEquals(1, checksums.size());
+        assertTrue(checksums.containsKey("Homo_sapiens.gene_info.gz"));
+    }
+
+    @Test
+    public void compressedTransferIsDecoded(@TempDir Path target) throws Exception {
+        byte[] content = "{\"graphs\": []}\n".repeat(10_000).getBytes();
+        try (TestHttpServer server = new TestHttpServer().serve("/hp.json", content).gzipEncoding(true)) {
+            File dest = target.resolve("hp.json").toFile();
+
+            new FileDownloader().copyURLToFile(server.url("/hp.json"), dest);
+
+            assertArrayEquals(content, Files.readAllBytes(dest.toPath()));
+        }
+    }
+
+    @Test
+    public void gzipFileIsDecompressed(@TempDir Path target) throws Exception {
+        byte[] content = "chr1\tHAVANA\tgene\n".repeat(10_000).getBytes();
+        byte[] gzipped = TestHttpServer.gzip(content);
+        try (TestHttpServer server = new TestHttpServer().serve("/annotation.gtf.gz", gzipped)) {
+            FileDownloader.Options options = new FileDownloader.Options();
+            options.decompressGzip = true;
+            options.checksums.declare("annotation.gtf.gz", ChecksumAlgorithm.MD5, md5(gzipped));
+            File dest = target.resolve("annotation.gtf").toFile();
+
+            new FileDownloader(options).copyURLToFile(server.url("/annotation.gtf.gz"), dest);
+
+            assertArrayEquals(content, Files.readAllBytes(dest.toPath()));
+        }
+    }
+
+    @Test
+    public void listenerReceivesTransferEvents(@TempDir Path target) throws Exception {
+        byte[] content = randomContent(300_000);
+        try (TestHttpServer server = new TestHttpServer().serve("/hp.obo", content).redirect("/latest/hp.obo", "/hp.obo")) {
+            for (HttpTransport transport : List.of(new UrlConnectionTransport(FileDownloader.CONNECTION_TIMEOUT),
+                    new HttpClientTransport(FileDownloader.CONNECTION_TIMEOUT))) {
+                List<String> events = Collections.synchronizedList(new ArrayList<>());
+                FileDownloader.Options options = new FileDownloader.Options();
+                options.transport = transport;
+                options.listeners.add(new DownloadListener() {
+                    @Override
+                    public void onConnect(String resource, URL url) {
+                        events.add("connect " + resource);
+                    }
+
+                    @Override
+                    public void onRedirect(String resource, URL from, URL to, int statusCode) {
+                        events.add("redirect " + statusCode + " " + to.getPath());
+                    }
+
+                    @Override
+                    public void onFirstByte(String resource, URL url, Duration timeToFirstByte) {
+                        events.add("first byte " + url.getPath());
+                    }
+
+                    @Override
+                    public void onComplete(String resource, URL url, long bytes, Duration elapsed, double bytesPerSecond) {
+                        assertTrue(bytesPerSecond > 0);
+                        events.add("complete " + bytes);
+                    }
+                });
+                File dest = target.resolve("hp.obo").toFile();
+
+                new FileDownloader(options).copyURLToFile(server.url("/latest/hp.obo"), dest);
+
+                assertEquals(List.of("connect hp.obo", "redirect 302 /hp.obo", "first byte /hp.obo", "complete 300000"), events);
+            }
+        }
+    }
+
+    @Test
+    public void listenerIsNotifiedOfFailure(@TempDir Path target) throws Exception {
+        try (TestHttpServer server = new TestHttpServer()) {
+            List<Exception> failures = new ArrayList<>();
+            FileDownloader.Options options = new FileDownloader.Options();
+            options.listeners.add(new DownloadListener() {
+                @Override
+                public void onFailure(String resource, URL url, Exception cause) {
+                    failures.add(cause);
+                }
+            });
+            File dest = target.resolve("missing.obo").toFile();
+
+            FileDownloadException e = assertThrows(FileDownloadException.class,
+                    () -> new FileDownloader(options).copyURLToFile(server.url("/missing.obo"), dest));
+
+            assertEquals(List.of(e), failures);
+        }
+    }
+
+    @Test
+    public void bandwidthIsLimited(@TempDir Path target) throws Exception {
+        byte[] content = randomContent(300_000);
+        try (TestHttpServer server = new TestHttpServer().serve("/hp.obo", content)) {
+            URL url = server.url("/hp.obo");
+            FileDownloader.Options global = new FileDownloader.Options();
+            global.bandwidth.setGlobalLimit(200_000);
+            FileDownloader.Options perHost = new FileDownloader.Options();
+            perHost.bandwidth.setHostLimit(url.getHost(), 200_000);
+
+            for (FileDownloader.Options options : List.of(global, perHost)) {
+                File dest = target.resolve("hp.obo").toFile();
+                long start = System.nanoTime();
+
+                new FileDownloader(options).copyURLToFile(url, dest);
+
+                // one second worth of bytes passes right away, the remaining 100 KB take half a second
+                assertTrue(System.nanoTime() - start >= 400_000_000L);
+                assertArrayEquals(content, Files.readAllBytes(dest.toPath()));
+            }
+        }
+    }
+
+    @Test
+    public void transientFailureIsRetried(@TempDir Path target) throws Exception {
+        byte[] content = randomContent(10_000);
+        try (TestHttpServer server = new TestHttpServer().serve("/hp.obo", content).fail("/hp.obo", 2)) {
+            List<Integer> attempts = new ArrayList<>();
+            FileDownloader.Options options = new FileDownloader.Options();
+            options.retryPolicy.initialBackoff = Duration.ofMillis(10);
+            options.listeners.add(new DownloadListener() {
+                @Override
+                public void onRetry(String resource, URL url, int attempt, Duration backoff, Exception cause) {
+                    attempts.add(attempt);
+                }
+            });
+            File dest = target.resolve("hp.obo").toFile();
+
+            new FileDownloader(options).copyURLToFile(server.url("/hp.obo"), dest);
+
+            assertArrayEquals(content, Files.readAllBytes(dest.toPath()));
+            assertEquals(List.of(1, 2), attempts);
+        }
+    }
+
+    @Test
+    public void retryResumesTruncatedDownload(@TempDir Path target) throws Exception {
+        byte[] content = randomContent(300_000);
+        try (TestHttpServer server = new TestHttpServer().serve("/hp.obo", content).truncateNext("/hp.obo", 100_000)) {
+            FileDownloader.Options options = new FileDownloader.Options();
+            options.retryPolicy.initialBackoff = Duration.ofMillis(10);
+            File dest = target.resolve("hp.obo").toFile();
+
+            new FileDownloader(options).copyURLToFile(server.url("/hp.obo"), dest);
+
+            assertArrayEquals(content, Files.readAllBytes(dest.toPath()));
+            assertEquals(1, server.rangeRequests());
+        }
+    }
+
+    @Test
+    public void permanentFailureIsNotRetried(@TempDir Path target) throws Exception {
+        try (TestHttpServer server = new TestHttpServer()) {
+            FileDownloader.Options options = new FileDownloader.Options();
+            options.retryPolicy.initialBackoff = Duration.ofSeconds(10);
+            File dest = target.resolve("missing.obo").toFile();
+
+            FileDownloadException e = assertThrows(FileDownloadException.class,
+                    () -> new FileDownloader(options).copyURLToFile(server.url("/missing.obo"), dest));
+
+            assertEquals(404, ((HttpStatusException) e.getCause()).statusCode());
+        }
+    }
+
+    @Test
+    public void failedTrialOfHalfOpenCircuitLetsNextTrialThrough(@TempDir Path target) throws Exception {
+        try (TestHttpServer server = new TestHttpServer().serve("/hp.json", "{}".getBytes())) {
+            server.fail("/hp.json", 1);
+            FileDownloader.Options options = new FileDownloader.Options();
+            options.retryPolicy.maxAttempts = 1;
+            options.circuitBreakers.failureThreshold = 1;
+            options.circuitBreakers.openDuration = Duration.ofMillis(100);
+            FileDownloader downloader = new FileDownloader(options);
+            File dest = target.resolve("hp.json").toFile();
+
+            // open
+            assertThrows(FileDownloadException.class, () -> downloader.copyURLToFile(server.url("/hp.json"), dest));
+            FileDownloadException rejected = assertThrows(FileDownloadException.class,
+                    () -> downloader.copyURLToFile(server.url("/hp.json"), dest));
+            assertTrue(rejected.getMessage().contains("Skipping"));
+
+            // half-open, the trial fails with a 404, which says nothing about the host
+            Thread.sleep(150);
+            FileDownloadException missing = assertThrows(FileDownloadException.class,
+                    () -> downloader.copyURLToFile(server.url("/missing.json"), target.resolve("missing.json").toFile()));
+            assertFalse(missing.getMessage().contains("Skipping"));
+
+            // half-open again, the next trial succeeds and closes the circuit
+            downloader.copyURLToFile(server.url("/hp.json"), dest);
+            assertEquals("{}", Files.readString(dest.toPath()));
+            assertEquals(2, server.requests("/hp.json"));
+        }
+    }
+
+    @Test
+    public void ftpDownloadsShareControlConnection(@TempDir Path target) throws Exception {
+        byte[] hp = randomContent(200_000);
+        byte[] mondo = randomContent(100_000);
+        try (TestFtpServer server = new TestFtpServer().serve("/pub/hp.obo", hp).serve("/pub/mondo.obo", mondo)) {
+            FileDownloader.Options options = new FileDownloader.Options();
+            FileDownloader downloader = new FileDownloader(options);
+
+            File hpFile = downloader.copyURLToFile(server.url("/pub/hp.obo"), target.resolve("hp.obo").toFile());
+            File mondoFile = downloader.copyURLToFile(server.url("/pub/mondo.obo"), target.resolve("mondo.obo").toFile());
+
+            assertArrayEquals(hp, Files.readAllBytes(hpFile.toPath()));
+            assertArrayEquals(mondo, Files.readAllBytes(mondoFile.toPath()));
+            assertEquals(1, server.logins());
+        }
+    }
+
+    @Test
+    public void retryResumesTruncatedFtpDownload(@TempDir Path target) throws Exception {
+        byte[] content = randomContent(300_000);
+        try (TestFtpServer server = new TestFtpServer().serve("/pub/hp.obo", content).truncateNext("/pub/hp.obo", 100_000)) {
+            FileDownloader.Options options = new FileDownloader.Options();
+            options.retryPolicy.initialBackoff = Duration.ofMillis(10);
+            File dest = target.resolve("hp.obo").toFile();
+
+            new FileDownloader(options).copyURLToFile(server.url("/pub/hp.obo"), dest);
+
+            assertArrayEquals(content, Files.readAllBytes(dest.toPath()));
+            assertEquals(1, server.restCommands());
+        }
+    }
+
+    @Test
+    public void unchangedFtpFileIsNotDownloaded(@TempDir Path target) throws Exception {
+        byte[] content = randomContent(1000);
+        try (TestFtpServer server = new TestFtpServer().serve("/pub/hp.obo", content)) {
+            FileDownloader.Options options = new FileDownloader.Options();
+            options.manifest = new DownloadManifest(target.resolve("manifest.properties"));
+            File dest = target.resolve("hp.obo").toFile();
+            FileDownloader downloader = new FileDownloader(options);
+
+            assertNotNull(downloader.copyURLToFile(server.url("/pub/hp.obo"), dest));
+            assertNull(downloader.copyURLToFile(server.url("/pub/hp.obo"), dest));
+        }
+    }
+
+    @Test
+    public void mirrorsAreRankedByLatency() throws Exception {
+        try (TestHttpServer slow = new TestHttpServer().serve("/hp.obo", new byte[10]).latency(200);
+             TestHttpServer fast = new TestHttpServer().serve("/hp.obo", new byte[10])) {
+            URL unreachable = new URL("http://127.0.0.1:1/hp.obo");
+            List<URL> mirrors = List.of(unreachable, slow.url("/hp.obo"), fast.url("/hp.obo"));
+
+            List<URL> ranked = new MirrorSelector().rank(mirrors, new UrlConnectionTransport(FileDownloader.CONNECTION_TIMEOUT));
+
+            assertEquals(List.of(fast.url("/hp.obo"), slow.url("/hp.obo"), unreachable), ranked);
+        }
+    }
+
+    @Test
+    public void silentMirrorIsRankedLast() throws Exception {
+        // the connections are accepted by the backlog of the socket, but no request is ever answered
+        try (ServerSocket silent = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+             TestHttpServer mirror = new TestHttpServer().serve("/hp.obo", new byte[10])) {
+            URL silentUrl = new URL("http", InetAddress.getLoopbackAddress().getHostAddress(), silent.getLocalPort(), "/hp.obo");
+            MirrorSelector selector = new MirrorSelector();
+            selector.probeTimeout = Duration.ofMillis(300);
+
+            List<URL> ranked = assertTimeoutPreemptively(Duration.ofSeconds(5), () -> selector.rank(
+                    List.of(silentUrl, mirror.url("/hp.obo")), new UrlConnectionTransport(FileDownloader.CONNECTION_TIMEOUT)));
+
+            assertEquals(List.of(mirror.url("/hp.obo"), silentUrl), ranked);
+        }
+    }
+
+    @Test
+    public void stalledTransferContinuesFromNextMirror(@TempDir Path target) throws Exception {
+        byte[] content = randomContent(400_000);
+        for (HttpTransport transport : List.of(new UrlConnectionTransport(FileDownloader.CONNECTION_TIMEOUT, 300, new Proxies()),
+                new HttpClientTransport(FileDownloader.CONNECTION_TIMEOUT, 300, new Proxies()))) {
+            try (TestHttpServer stalling = new TestHttpServer().serve("/hp.obo", content).stallAfter("/hp.obo", 100_000);
+                 TestHttpServer mirror = new TestHttpServer().serve("/hp.obo", content).latency(100)) {
+                FileDownloader.Options options = new FileDownloader.Options();
+                options.transport = transport;
+                File dest = target.resolve("hp.obo").toFile();
+
+                assertTimeoutPreemptively(Duration.ofSeconds(10), () -> new FileDownloader(options)
+                        .copyURLToFile(List.of(mirror.url("/hp.obo"), stalling.url("/hp.obo")), dest));
+
+                assertArrayEquals(content, Files.readAllBytes(dest.toPath()));
+                // the probe of the first byte and the continuation
+                assertEquals(2, mirror.rangeRequests());
+            }
+        }
+    }
+
+    @Test
+    public void slowTransferContinuesFromNextMirror(@TempDir Path target) throws Exception {
+        byte[] content = randomContent(400_000);
+        try (TestHttpServer collapsing = new TestHttpServer().serve("/hp.obo", content).slowDownAfter("/hp.obo", 100_000);
+             TestHttpServer mirror = new TestHttpServer().serve("/hp.obo", content).latency(100)) {
+            FileDownloader.Options options = new FileDownloader.Options();
+            options.mirrors.throughputWindow = Duration.ofMillis(200);
+            File dest = target.resolve("hp.obo").toFile();
+
+            new FileDownloader(options).copyURLToFile(List.of(mirror.url("/hp.obo"), collapsing.url("/hp.obo")), dest);
+
+            assertArrayEquals(content, Files.readAllBytes(dest.toPath()));
+            // the probe of the first byte and the continuation
+            assertEquals(2, mirror.rangeRequests());
+        }
+    }
+
+    private static byte[] zsync(byte[] content, Path dir) throws Exception {
+        Path file = Files.write(dir.resolve("zsync.source"), content);
+        ByteArrayOutputStream control = new ByteArrayOutputStream();
+        ZsyncIndex.create(file, 2048).write(control, "mondo.owl");
+        Files.delete(file);
+        return control.toByteArray();
+    }
+
+    @Test
+    public void deltaUpdateDownloadsOnlyChangedBlocks(@TempDir Path target) throws Exception {
+        byte[] old = randomContent(400_000);
+        ByteArrayOutputStream changed = new ByteArrayOutputStream();
+        changed.write(old, 0, 50_000);
+        changed.write(randomContent(100));
+        changed.write(old, 50_000, 250_000);
+        changed.write(new byte[]{1, 2, 3});
+        changed.write(old, 300_003, old.length - 300_003);
+        byte[] content = changed.toByteArray();
+        try (TestHttpServer server = new TestHttpServer().serve("/mondo.owl", content)) {
+            server.serve("/mondo.owl.zsync", zsync(content, target));
+            FileDownloader.Options options = new FileDownloader.Options();
+            options.zsyncIndexes.put("mondo.owl", server.url("/mondo.owl.zsync"));
+            long[] downloaded = new long[1];
+            options.listeners.add(new DownloadListener() {
+                @Override
+                public void onComplete(String resource, URL url, long bytes, Duration elapsed, double bytesPerSecond) {
+                    downloaded[0] = bytes;
+                }
+            });
+            File dest = Files.write(target.resolve("mondo.owl"), old).toFile();
+
+            assertEquals(dest, new FileDownloader(options).copyURLToFile(server.url("/mondo.owl"), dest));
+
+            assertArrayEquals(content, Files.readAllBytes(dest.toPath()));
+            assertEquals(2, server.rangeRequests());
+            assertTrue(downloaded[0] <= 4 * 2048, "downloaded " + downloaded[0] + " bytes");
+            // the update of an up-to-date file downloads nothing
+            assertNull(new FileDownloader(options).copyURLToFile(server.url("/mondo.owl"), dest));
+            assertEquals(2, server.rangeRequests());
+        }
+    }
+
+    @Test
+    public void failedDeltaUpdateDownloadsWholeFile(@TempDir Path target) throws Exception {
+        byte[] old = randomContent(100_000);
+        byte[] content = old.clone();
+        content[70_000]++;
+        // a stale control file of another version of the same size
+        byte[] stale = old.clone();
+        stale[10_000]++;
+        try (TestHttpServer server = new TestHttpServer().serve("/mondo.owl", content)) {
+            server.serve("/mondo.owl.zsync", zsync(stale, target));
+            FileDownloader.Options options = new FileDownloader.Options();
+            options.zsyncIndexes.put("mondo.owl", server.url("/mondo.owl.zsync"));
+            File dest = Files.write(target.resolve("mondo.owl"), old).toFile();
+
+            new FileDownloader(options).copyURLToFile(server.url("/mondo.owl"), dest);
+
+            assertArrayEquals(content, Files.readAllBytes(dest.toPath()));
+            assertFalse(target.resolve("mondo.owl.part").toFile().exists());
+
+            // no control file at all
+            options.zsyncIndexes.put("mondo.owl", server.url("/missing.zsync"));
+            content[80_000]++;
+            new FileDownloader(options).copyURLToFile(server.url("/mondo.owl"), dest);
+            assertArrayEquals(content, Files.readAllBytes(dest.toPath()));
+        }
+    }
+
+    @Test
+    public void cachedRedirectIsFollowedDirectly(@TempDir Path target) throws Exception {
+        byte[] content = randomContent(10_000);
+        try (TestHttpServer server = new TestHttpServer().serve("/hp.json", content)) {
+            server.redirect("/latest/hp.json", "/hp.json");
+            Path cache = target.resolve(RedirectCache.FILE_NAME);
+            FileDownloader.Options options = new FileDownloader.Options();
+            options.redirects = new RedirectCache(Duration.ofHours(1), cache);
+            File dest = target.resolve("hp.json").toFile();
+
+            new FileDownloader(options).copyURLToFile(server.url("/latest/hp.json"), dest);
+            // a later run reads the cache from the download directory
+            options.redirects = new RedirectCache(Duration.ofHours(1), cache);
+            new FileDownloader(options).copyURLToFile(server.url("/latest/hp.json"), dest);
+
+            assertArrayEquals(content, Files.readAllBytes(dest.toPath()));
+            assertEquals(1, server.requests("/latest/hp.json"));
+            assertEquals(2, server.requests("/hp.json"));
+
+            // a failing target is resolved again
+            server.fail("/hp.json", 1);
+            new FileDownloader(options).copyURLToFile(server.url("/latest/hp.json"), dest);
+            assertEquals(2, server.requests("/latest/hp.json"));
+            assertArrayEquals(content, Files.readAllBytes(dest.toPath()));
+        }
+    }
+
+    @Test
+    public void retryAfterIsParsed() {
+        assertEquals(Duration.ofSeconds(120), HttpStatusException.parseRetryAfter("120"));
+        assertEquals(Duration.ZERO, HttpStatusException.parseRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT"));
+        assertNull(HttpStatusException.parseRetryAfter("soon"));
+    }
+}
@@ -0,0 +1,52 @@
+package org.monarchinitiative.biodownload;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.net.URL;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProgressBarTest {
+
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    public void concurrentDownloadsShareOneLine() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ProgressBar pb = new ProgressBar(new PrintStream(baos, true));
+        URL url = new URL("https://example.com/hp.json");
+
+        pb.onConnect("hp.json", url);
+        pb.onConnect("mondo.json", url);
+        pb.onProgress("hp.json", 0, 10 * MB);
+        pb.onProgress("mondo.json", 0, 30 * MB);
+        pb.onComplete("hp.json", url, 10 * MB, Duration.ofSeconds(1), 10 * MB);
+        pb.onComplete("mondo.json", url, 30 * MB, Duration.ofSeconds(1), 30 * MB);
+
+        String output = baos.toString();
+        // the updates within the minimal interval are skipped, the final line is always printed
+        assertEquals(1, output.split("\r", -1).length - 1);
+        assertTrue(output.contains("]  100%  40.0 of 40.0 MB"), output);
+        assertTrue(output.endsWith(System.lineSeparator()));
+    }
+
+    @Test
+    public void lineShowsActiveDownloads() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ProgressBar pb = new ProgressBar(new PrintStream(baos, true));
+        URL url = new URL("https://example.com/hp.json");
+
+        pb.onConnect("hp.json", url);
+        pb.onConnect("mondo.json", url);
+        pb.onProgress("hp.json", 5 * MB, 10 * MB);
+        Thread.sleep(ProgressBar.MIN_INTERVAL_NANOS / 1_000_000 + 10);
+        pb.onProgress("mondo.json", 5 * MB, 30 * MB);
+
+        String output = baos.toString();
+        assertTrue(output.contains("]  25%  10.0 of 40.0 MB"), output);
+        assertTrue(output.contains("2 files"), output);
+    }
+}
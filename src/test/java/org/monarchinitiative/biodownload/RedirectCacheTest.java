@@ -0,0 +1,53 @@
+package org.monarchinitiative.biodownload;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.URL;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RedirectCacheTest {
+
+    @Test
+    public void temporaryRedirectsExpire() throws Exception {
+        MutableClock clock = new MutableClock();
+        RedirectCache cache = new RedirectCache(Duration.ofMinutes(10), null, clock);
+        URL purl = new URL("http://purl.obolibrary.org/obo/hp.json");
+        URL github = new URL("https://github.com/obophenotype/human-phenotype-ontology/releases/latest/download/hp.json");
+        URL raw = new URL("https://github.com/monarch-initiative/mondo/blob/master/mondo.owl?raw=true");
+        URL target = new URL("https://raw.githubusercontent.com/monarch-initiative/mondo/master/mondo.owl");
+
+        cache.record(purl, github, true);
+        cache.record(raw, target, false);
+        assertEquals(github, cache.lookup(purl));
+        assertEquals(target, cache.lookup(raw));
+
+        clock.instant = clock.instant.plus(Duration.ofMinutes(11));
+        assertEquals(github, cache.lookup(purl));
+        assertNull(cache.lookup(raw));
+    }
+
+    private static class MutableClock extends Clock {
+        private Instant instant = Instant.parse("2024-01-01T00:00:00Z");
+
+        @Override
+        public ZoneOffset getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
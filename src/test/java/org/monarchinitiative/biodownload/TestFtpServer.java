@@ -0,0 +1,171 @@
+package org.monarchinitiative.biodownload;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal FTP server on the loopback interface that serves in-memory files in passive mode, with support for
+ * <code>SIZE</code>, <code>MDTM</code> and <code>REST</code>.
+ */
+class TestFtpServer implements AutoCloseable {
+
+    private static final DateTimeFormatter MDTM_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmss").withZone(ZoneOffset.UTC);
+
+    private final ServerSocket server;
+    private final Map<String, byte[]> files = new ConcurrentHashMap<>();
+    private final Map<String, Integer> truncations = new ConcurrentHashMap<>();
+    private final AtomicInteger logins = new AtomicInteger();
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final AtomicInteger restCommands = new AtomicInteger();
+    private final Instant modified = Instant.parse("2024-01-15T10:30:00Z");
+
+    TestFtpServer() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread thread = new Thread(this::accept, "test-ftp-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    TestFtpServer serve(String path, byte[] content) {
+        files.put(path, content);
+        return this;
+    }
+
+    /** Close the data connection after <code>bytes</code> bytes of the next transfer of <code>path</code>. */
+    TestFtpServer truncateNext(String path, int bytes) {
+        truncations.put(path, bytes);
+        return this;
+    }
+
+    URL url(String path) throws MalformedURLException {
+        return new URL("ftp", InetAddress.getLoopbackAddress().getHostAddress(), server.getLocalPort(), path);
+    }
+
+    /** @return number of successful logins, i.e. of control connections */
+    int logins() {
+        return logins.get();
+    }
+
+    /** @return number of control connections that the clients have not closed yet */
+    int openConnections() {
+        return openConnections.get();
+    }
+
+    int restCommands() {
+        return restCommands.get();
+    }
+
+    Instant modified() {
+        return modified;
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                Socket control = server.accept();
+                Thread thread = new Thread(() -> session(control), "test-ftp-session");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                // closed
+            }
+        }
+    }
+
+    private void session(Socket control) {
+        ServerSocket passive = null;
+        long offset = 0;
+        openConnections.incrementAndGet();
+        try (control;
+             BufferedReader in = new BufferedReader(new InputStreamReader(control.getInputStream(), StandardCharsets.US_ASCII));
+             Writer out = new OutputStreamWriter(control.getOutputStream(), StandardCharsets.US_ASCII)) {
+            reply(out, "220-Test FTP server\r\n220 ready");
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] command = line.split(" ", 2);
+                String argument = command.length > 1 ? command[1] : "";
+                byte[] content;
+                switch (command[0].toUpperCase()) {
+                    case "USER":
+                        reply(out, "331 password required");
+                        break;
+                    case "PASS":
+                        logins.incrementAndGet();
+                        reply(out, "230 logged in");
+                        break;
+                    case "TYPE":
+                    case "NOOP":
+                        reply(out, "200 ok");
+                        break;
+                    case "EPSV":
+                        passive = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+                        reply(out, "229 Entering Extended Passive Mode (|||" + passive.getLocalPort() + "|)");
+                        break;
+                    case "SIZE":
+                        content = files.get(argument);
+                        reply(out, content == null ? "550 not found" : "213 " + content.length);
+                        break;
+                    case "MDTM":
+                        reply(out, files.containsKey(argument) ? "213 " + MDTM_FORMAT.format(modified) : "550 not found");
+                        break;
+                    case "REST":
+                        restCommands.incrementAndGet();
+                        offset = Long.parseLong(argument);
+                        reply(out, "350 restarting at " + offset);
+                        break;
+                    case "RETR":
+                        content = files.get(argument);
+                        if (content == null || passive == null) {
+                            reply(out, "550 not found");
+                            break;
+                        }
+                        reply(out, "150 opening data connection");
+                        Integer truncated = truncations.remove(argument);
+                        try (ServerSocket listening = passive; Socket data = listening.accept();
+                             OutputStream os = data.getOutputStream()) {
+                            int length = truncated == null ? content.length - (int) offset : truncated;
+                            os.write(content, (int) offset, length);
+                        }
+                        passive = null;
+                        offset = 0;
+                        reply(out, truncated == null ? "226 transfer complete" : "426 connection closed");
+                        break;
+                    case "QUIT":
+                        reply(out, "221 bye");
+                        return;
+                    default:
+                        reply(out, "502 not implemented");
+                }
+            }
+        } catch (SocketException e) {
+            // the client went away
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            openConnections.decrementAndGet();
+        }
+    }
+
+    private static void reply(Writer out, String reply) throws IOException {
+        out.write(reply);
+        out.write("\r\n");
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+}
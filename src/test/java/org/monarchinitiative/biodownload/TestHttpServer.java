@@ -0,0 +1,275 @@
+package org.monarchinitiative.biodownload;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Minimal HTTP server on the loopback interface that serves in-memory files, with optional support
+ * for the <code>Range</code> requests.
+ */
+class TestHttpServer implements AutoCloseable {
+
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+    private final HttpServer server;
+    /** answers the requests concurrently, so that the client alone limits the connections */
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, byte[]> files = new ConcurrentHashMap<>();
+    private final Map<String, String> redirects = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> failures = new ConcurrentHashMap<>();
+    private final Map<String, Integer> truncations = new ConcurrentHashMap<>();
+    private final Map<String, Integer> slowdowns = new ConcurrentHashMap<>();
+    private final Map<String, Integer> stalls = new ConcurrentHashMap<>();
+    private final AtomicInteger rangeRequests = new AtomicInteger();
+    private final AtomicInteger headRequests = new AtomicInteger();
+    private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+    private final List<long[]> intervals = new CopyOnWriteArrayList<>();
+    private volatile boolean acceptRanges = true;
+    private volatile boolean gzipEncoding = false;
+    private volatile long latencyMillis = 0;
+
+    TestHttpServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    TestHttpServer serve(String path, byte[] content) {
+        files.put(path, content);
+        return this;
+    }
+
+    /** Answer the requests for <code>from</code> with a redirect to <code>to</code>. */
+    TestHttpServer redirect(String from, String to) {
+        redirects.put(from, to);
+        return this;
+    }
+
+    /** Answer the next <code>times</code> requests for <code>path</code> with HTTP 503 and <code>Retry-After: 0</code>. */
+    TestHttpServer fail(String path, int times) {
+        failures.put(path, new AtomicInteger(times));
+        return this;
+    }
+
+    /** Close the connection after <code>bytes</code> bytes of the next response for <code>path</code>. */
+    TestHttpServer truncateNext(String path, int bytes) {
+        truncations.put(path, bytes);
+        return this;
+    }
+
+    /** Send <code>bytes</code> bytes of each response for <code>path</code> at full speed, then 1 kB every 50 ms. */
+    TestHttpServer slowDownAfter(String path, int bytes) {
+        slowdowns.put(path, bytes);
+        return this;
+    }
+
+    /** Send <code>bytes</code> bytes of each response for <code>path</code>, then nothing until the server is closed. */
+    TestHttpServer stallAfter(String path, int bytes) {
+        stalls.put(path, bytes);
+        return this;
+    }
+
+    /** Wait before answering each request. */
+    TestHttpServer latency(long millis) {
+        this.latencyMillis = millis;
+        return this;
+    }
+
+    TestHttpServer acceptRanges(boolean acceptRanges) {
+        this.acceptRanges = acceptRanges;
+        return this;
+    }
+
+    /** Send the files with <code>Content-Encoding: gzip</code> if the client accepts it. */
+    TestHttpServer gzipEncoding(boolean gzipEncoding) {
+        this.gzipEncoding = gzipEncoding;
+        return this;
+    }
+
+    static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (GZIPOutputStream os = new GZIPOutputStream(baos)) {
+            os.write(content);
+        }
+        return baos.toByteArray();
+    }
+
+    URL url(String path) throws MalformedURLException {
+        return url(InetAddress.getLoopbackAddress().getHostAddress(), path);
+    }
+
+    /** @return URL of <code>path</code> with another name of the loopback address, e.g. <code>localhost</code> */
+    URL url(String host, String path) throws MalformedURLException {
+        return new URL("http", host, server.getAddress().getPort(), path);
+    }
+
+    int rangeRequests() {
+        return rangeRequests.get();
+    }
+
+    int headRequests() {
+        return headRequests.get();
+    }
+
+    /** @return number of requests for <code>path</code>, including the redirected ones */
+    int requests(String path) {
+        AtomicInteger count = requests.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * @return start and end of each answered request without a <code>Range</code> header, i.e. of the transfers rather
+     * than of the probes of the mirrors, in {@link System#nanoTime()}
+     */
+    List<long[]> intervals() {
+        return List.copyOf(intervals);
+    }
+
+    static String etag(byte[] content) {
+        return "\"" + Integer.toHexString(Arrays.hashCode(content)) + "\"";
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try {
+            respond(exchange);
+        } finally {
+            if (!exchange.getRequestHeaders().containsKey("Range"))
+                intervals.add(new long[]{start, System.nanoTime()});
+        }
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        if ("HEAD".equals(exchange.getRequestMethod()))
+            headRequests.incrementAndGet();
+        requests.computeIfAbsent(exchange.getRequestURI().getPath(), path -> new AtomicInteger()).incrementAndGet();
+        if (latencyMillis > 0)
+            sleep(latencyMillis);
+        String location = redirects.get(exchange.getRequestURI().getPath());
+        if (location != null) {
+            exchange.getResponseHeaders().set("Location", url(location).toString());
+            exchange.sendResponseHeaders(302, -1);
+            exchange.close();
+            return;
+        }
+        AtomicInteger failing = failures.get(exchange.getRequestURI().getPath());
+        if (failing != null && failing.getAndDecrement() > 0) {
+            exchange.getResponseHeaders().set("Retry-After", "0");
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+            return;
+        }
+        byte[] content = files.get(exchange.getRequestURI().getPath());
+        if (content == null) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (gzipEncoding && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            content = gzip(content);
+        }
+        int start = 0;
+        int end = content.length - 1;
+        int status = 200;
+        String etag = etag(content);
+        exchange.getResponseHeaders().set("ETag", etag);
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        if (ifRange != null && !ifRange.equals(etag))
+            range = null;
+        if (acceptRanges) {
+            exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+            if (range != null) {
+                Matcher matcher = RANGE.matcher(range);
+                if (matcher.matches()) {
+                    rangeRequests.incrementAndGet();
+                    start = Integer.parseInt(matcher.group(1));
+                    if (!matcher.group(2).isEmpty())
+                        end = Math.min(end, Integer.parseInt(matcher.group(2)));
+                    status = 206;
+                    exchange.getResponseHeaders().set("Content-Range", String.format("bytes %d-%d/%d", start, end, content.length));
+                }
+            }
+        }
+        int length = end - start + 1;
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Content-Length", Integer.toString(length));
+            exchange.sendResponseHeaders(status, -1);
+        } else {
+            exchange.sendResponseHeaders(status, length);
+            Integer truncated = truncations.remove(exchange.getRequestURI().getPath());
+            if (truncated != null) {
+                OutputStream os = exchange.getResponseBody();
+                os.write(content, start, truncated);
+                os.flush();
+                // drop the connection in the middle of the body
+                exchange.close();
+                return;
+            }
+            Integer stallAfter = stalls.get(exchange.getRequestURI().getPath());
+            if (stallAfter != null && stallAfter < length) {
+                OutputStream os = exchange.getResponseBody();
+                os.write(content, start, stallAfter);
+                os.flush();
+                // interrupted when the server is closed
+                sleep(Long.MAX_VALUE);
+            }
+            Integer slowAfter = slowdowns.get(exchange.getRequestURI().getPath());
+            try (OutputStream os = exchange.getResponseBody()) {
+                if (slowAfter != null && slowAfter < length) {
+                    os.write(content, start, slowAfter);
+                    for (int pos = start + slowAfter; pos <= end; pos += 1024) {
+                        os.flush();
+                        sleep(50);
+                        os.write(content, pos, Math.min(1024, end + 1 - pos));
+                    }
+                } else {
+                    os.write(content, start, length);
+                }
+            }
+        }
+        exchange.close();
+    }
+
+    private static void sleep(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,68 @@
+package org.monarchinitiative.biodownload;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WriteBehindWriterTest {
+
+    @Test
+    public void writesLandAtTheirPositions(@TempDir Path target) throws Exception {
+        Path file = target.resolve("out.bin");
+        BufferPool pool = new BufferPool(1024 * 1024);
+        try (DestinationWriter writer = new WriteBehindWriter(DestinationWriter.positional(file, 10, true), pool, 4, 2,
+                FsyncPolicy.ON_COMPLETE)) {
+            writer.write(6, ByteBuffer.wrap(new byte[]{6, 7, 8, 9}));
+            // larger than the buffers, so it is split into several writes
+            writer.write(0, ByteBuffer.wrap(new byte[]{0, 1, 2, 3, 4, 5}));
+        }
+
+        assertArrayEquals(new byte[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9}, Files.readAllBytes(file));
+        assertEquals(0, pool.inUse());
+    }
+
+    @Test
+    public void exhaustedBudgetWritesOnCallingThread(@TempDir Path target) throws Exception {
+        Path file = target.resolve("out.bin");
+        BufferPool pool = new BufferPool(8);
+        ByteBuffer held = pool.acquire(8);
+        try (DestinationWriter writer = new WriteBehindWriter(DestinationWriter.positional(file, 4, true), pool, 4, 2,
+                FsyncPolicy.NONE)) {
+            writer.write(0, ByteBuffer.wrap(new byte[]{1, 2, 3, 4}));
+        }
+
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, Files.readAllBytes(file));
+        pool.release(held);
+    }
+
+    @Test
+    public void failureIsThrownByLaterCall() throws Exception {
+        DestinationWriter failing = new DestinationWriter() {
+            @Override
+            public void write(long position, ByteBuffer src) throws IOException {
+                throw new IOException("No space left on device");
+            }
+
+            @Override
+            public void force() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        BufferPool pool = new BufferPool(1024);
+        DestinationWriter writer = new WriteBehindWriter(failing, pool, 16, 1, FsyncPolicy.NONE);
+        writer.write(0, ByteBuffer.wrap(new byte[16]));
+
+        IOException e = assertThrows(IOException.class, writer::close);
+        assertTrue(e.getMessage().contains("No space left on device"));
+        assertEquals(0, pool.inUse());
+    }
+}
@@ -0,0 +1,101 @@
+package org.monarchinitiative.biodownload;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ZsyncIndexTest {
+
+    private static final int BLOCK_SIZE = 1024;
+
+    private static String md4(String message) {
+        return Checksums.Checksum.toHex(new Md4().digest(message.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    private static byte[] randomContent(int size, long seed) {
+        byte[] content = new byte[size];
+        new Random(seed).nextBytes(content);
+        return content;
+    }
+
+    /**
+     * @return the index of <code>content</code> with truncated checksums, like the control files of zsyncmake
+     */
+    private static ZsyncIndex index(byte[] content, int seqMatches, int rsumBytes, int checksumBytes) {
+        int blocks = (content.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int[] rsums = new int[blocks];
+        byte[] checksums = new byte[blocks * checksumBytes];
+        int mask = rsumBytes == 4 ? -1 : (1 << (8 * rsumBytes)) - 1;
+        for (int i = 0; i < blocks; i++) {
+            byte[] block = Arrays.copyOfRange(content, i * BLOCK_SIZE, (i + 1) * BLOCK_SIZE);
+            rsums[i] = ZsyncIndex.rsum(block, 0, BLOCK_SIZE) & mask;
+            System.arraycopy(new Md4().digest(block), 0, checksums, i * checksumBytes, checksumBytes);
+        }
+        String sha1 = Checksums.Checksum.toHex(ChecksumAlgorithm.SHA1.newDigest().digest(content));
+        return new ZsyncIndex(content.length, BLOCK_SIZE, seqMatches, rsumBytes, checksumBytes, sha1, rsums, checksums);
+    }
+
+    @Test
+    public void md4TestSuite() {
+        // RFC 1320, appendix A.5
+        assertEquals("31d6cfe0d16ae931b73c59d7e0c089c0", md4(""));
+        assertEquals("a448017aaf21d8525fc10ae87aa6729d", md4("abc"));
+        assertEquals("d79e1c308aa5bbcdeea8ed63df412da9", md4("abcdefghijklmnopqrstuvwxyz"));
+        assertEquals("e33b4ddc9c38f2199c3e7b164fcc0536",
+                md4("12345678901234567890123456789012345678901234567890123456789012345678901234567890"));
+    }
+
+    @Test
+    public void controlFileRoundTrip(@TempDir Path dir) throws Exception {
+        byte[] content = randomContent(10 * BLOCK_SIZE + 100, 1);
+        Path file = Files.write(dir.resolve("go.json"), content);
+        ByteArrayOutputStream control = new ByteArrayOutputStream();
+        ZsyncIndex.create(file, BLOCK_SIZE).write(control, "go.json");
+
+        ZsyncIndex index = ZsyncIndex.read(new ByteArrayInputStream(control.toByteArray()));
+
+        assertEquals(content.length, index.length());
+        assertEquals(11, index.blockCount());
+        assertEquals(100, index.blockLength(10));
+        assertTrue(new Checksums.Checksum(ChecksumAlgorithm.SHA1, index.sha1()).matches(file.toFile()));
+        assertEquals(1, index.seqMatches());
+    }
+
+    @Test
+    public void shiftedBlocksAreFoundWithSequentialMatches(@TempDir Path dir) throws Exception {
+        byte[] content = randomContent(20 * BLOCK_SIZE + 300, 2);
+        // the old version lacks 10 bytes at the beginning and has another second half
+        byte[] old = new byte[content.length];
+        System.arraycopy(content, 10, old, 0, 10 * BLOCK_SIZE);
+        System.arraycopy(randomContent(old.length - 10 * BLOCK_SIZE, 3), 0, old, 10 * BLOCK_SIZE, old.length - 10 * BLOCK_SIZE);
+        Path oldFile = Files.write(dir.resolve("uberon.json"), old);
+        ZsyncIndex index = index(content, 2, 2, 5);
+        BitSet present = new BitSet();
+
+        try (DestinationWriter writer = DestinationWriter.positional(dir.resolve("uberon.json.part"), content.length, true)) {
+            DeltaUpdater.copyPresentBlocks(index, oldFile.toFile(), writer, present);
+        }
+
+        // blocks 1-9 are complete in the old file, block 9 is found as the block after block 8
+        assertEquals(9, present.cardinality());
+        assertEquals(1, present.nextSetBit(0));
+        assertEquals(10, present.nextClearBit(1));
+        byte[] result = Files.readAllBytes(dir.resolve("uberon.json.part"));
+        assertArrayEquals(Arrays.copyOfRange(content, BLOCK_SIZE, 10 * BLOCK_SIZE), Arrays.copyOfRange(result, BLOCK_SIZE, 10 * BLOCK_SIZE));
+        // the missing blocks are closer than the merge gap
+        List<long[]> ranges = DeltaUpdater.missingRanges(index, present);
+        assertEquals(1, ranges.size());
+        assertArrayEquals(new long[]{0, content.length - 1}, ranges.get(0));
+    }
+}
@@ -3,11 +3,13 @@ package org.monarchinitiative.biodownload.ftp;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.monarchinitiative.biodownload.FileDownloadException;
 
 import java.io.File;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
@@ -27,4 +29,16 @@ public class NIOftpTest {
         boolean deleted = resourcePath.resolve("prosite.dat").toFile().delete();
         Assertions.assertTrue(deleted);
     }
+
+    @Test
+    public void testCopyWithSmallBuffer(@TempDir Path target) throws Exception {
+        Path source = Paths.get("src", "test", "resources", "hp.json");
+        File targetFile = target.resolve("hp.json").toFile();
+        // stale content must not survive the copy
+        Files.writeString(targetFile.toPath(), "x".repeat(1000));
+
+        File downloadedFile = NIOftp.ftp(source.toUri().toURL(), targetFile, 16);
+
+        Assertions.assertArrayEquals(Files.readAllBytes(source), Files.readAllBytes(downloadedFile.toPath()));
+    }
 }